@@ -0,0 +1,73 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+
+/**
+ * JMH benchmarks of the maze generation: seeded mazes of several sizes and
+ * obstacle densities, generated with the default number of threads and with a
+ * single thread. The mazes are returned to JMH, so that their generation cannot
+ * be optimized away. The allocation rate is given by the gc profiler (-prof gc),
+ * see the pom.xml for the command line.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx3g")
+public class MazeGenerationBenchmark
+{
+    // seed used to generate the benchmark mazes
+    static final long	  SEED = 42L;
+
+    @Param({ "100", "1000", "10000" })
+    int			  size;
+
+    @Param({ "0.1", "0.2", "0.3" })
+    double		  density;
+
+    private MazeGenerator generator;
+
+    private MazeGenerator sequentialGenerator;
+
+    @Setup
+    public void setUp()
+    {
+	generator = new MazeGenerator(SEED, density);
+	sequentialGenerator = new MazeGenerator(SEED, density).setParallelism(1);
+    }
+
+    @Benchmark
+    public Maze generate()
+    {
+	return generator.generate(size, size);
+    }
+
+    @Benchmark
+    public Maze generateOnOneThread()
+    {
+	return sequentialGenerator.generate(size, size);
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.ComponentLabels;
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.astar.AStarSearchEngine;
+import chap2.search.maze.astar.JumpPointSearchEngine;
+import chap2.search.maze.breadthfirst.BidirectionalBreadthFirstSearchEngine;
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+import chap2.search.maze.depthfirst.DepthFirstSearchEngine;
+
+/**
+ * JMH benchmarks of the neighbour expansion and of the search engines, on seeded
+ * mazes of several sizes and obstacle densities. Each maze is generated once per
+ * fork, and every operation searches the same query between two locations near
+ * opposite corners of its largest component, so that a path always exists.
+ * Each engine is created once and answers every operation, as a service
+ * answering many queries on the same maze would do, and only allocates its
+ * buffers on its first search.
+ * 
+ * Every benchmark returns the length of the path found, and counts the
+ * locations it expanded in the {@link Nodes} counters, reported by JMH as
+ * expanded nodes per second next to the operations per second. The allocation
+ * rate is given by the gc profiler (-prof gc), see the pom.xml for the command
+ * line.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx3g")
+public class MazeSearchBenchmark
+{
+    @Param({ "100", "1000", "10000" })
+    int				     size;
+
+    @Param({ "0.1", "0.2", "0.3" })
+    double			     density;
+
+    private Maze		     maze;
+
+    private Location		     start;
+
+    private Location		     goal;
+
+    // engines, which allocate their buffers on their first search, so that only
+    // the buffers of the benchmarked engine are allocated
+    private NeighbourSweep	     sweep;
+
+    private BreadthFirstSearchEngine breadthFirst;
+
+    private BidirectionalBreadthFirstSearchEngine bidirectional;
+
+    private DepthFirstSearchEngine   depthFirst;
+
+    private AStarSearchEngine	     aStar;
+
+    private JumpPointSearchEngine    jumpPoint;
+
+    /**
+     * Number of locations expanded by the searches of a benchmark thread, reported
+     * by JMH as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Nodes
+    {
+	public long nodes;
+
+	@Setup(Level.Iteration)
+	public void reset()
+	{
+	    nodes = 0;
+	}
+    }
+
+    /**
+     * Expands every location of the maze once, through the same neighbour
+     * expansion used by the search engines.
+     */
+    static class NeighbourSweep extends AbstractSearchEngine
+    {
+	private final int[] moves = new int[4];
+
+	private long	    count = 0;
+
+	NeighbourSweep(Maze maze)
+	{
+	    super(maze);
+	}
+
+	@Override
+	protected void doSearch(int start, int goal)
+	{
+	    final Maze maze = getMaze();
+
+	    count = 0;
+	    for (int i = 0; i < maze.getRows(); i++)
+	    {
+		int index = maze.getIndex(i, 0);
+		for (int j = 0; j < maze.getColumns(); j++, index++)
+		{
+		    count += getPossibleMoves(index, moves);
+		    nodeExpanded();
+		}
+	    }
+	}
+
+	/**
+	 * @return the number of possible moves found by the last sweep.
+	 */
+	long getMoveCount()
+	{
+	    return count;
+	}
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+	maze = new MazeGenerator(MazeGenerationBenchmark.SEED, density).generate(size, size);
+
+	// the free locations closest to the corners along the diagonal, in the
+	// component holding more than a quarter of the maze
+	ComponentLabels labels = new ComponentLabels(maze);
+	start = null;
+	for (int i = 0; start == null; i++)
+	{
+	    int label = labels.getLabel(new Location(i, i));
+	    if (label != 0 && labels.getComponentSize(label) > (long) size * size / 4)
+	    {
+		start = new Location(i, i);
+	    }
+	}
+	goal = null;
+	for (int i = size - 1; goal == null; i--)
+	{
+	    if (labels.isConnected(start, new Location(i, i)))
+	    {
+		goal = new Location(i, i);
+	    }
+	}
+	labels.dispose();
+
+	sweep = new NeighbourSweep(maze);
+	breadthFirst = new BreadthFirstSearchEngine(maze);
+	bidirectional = new BidirectionalBreadthFirstSearchEngine(maze);
+	depthFirst = new DepthFirstSearchEngine(maze);
+	aStar = new AStarSearchEngine(maze);
+	jumpPoint = new JumpPointSearchEngine(maze);
+    }
+
+    private static int search(AbstractSearchEngine engine, Location start, Location goal, Nodes nodes)
+    {
+	engine.search(start, goal);
+	nodes.nodes += engine.getExpandedNodes();
+	return engine.getMaxDepth();
+    }
+
+    @Benchmark
+    public long getPossibleMoves(Nodes nodes)
+    {
+	sweep.search();
+	nodes.nodes += sweep.getExpandedNodes();
+	return sweep.getMoveCount();
+    }
+
+    @Benchmark
+    public int breadthFirst(Nodes nodes)
+    {
+	return search(breadthFirst, start, goal, nodes);
+    }
+
+    @Benchmark
+    public int bidirectional(Nodes nodes)
+    {
+	return search(bidirectional, start, goal, nodes);
+    }
+
+    @Benchmark
+    public int depthFirst(Nodes nodes)
+    {
+	return search(depthFirst, start, goal, nodes);
+    }
+
+    @Benchmark
+    public int aStar(Nodes nodes)
+    {
+	return search(aStar, start, goal, nodes);
+    }
+
+    @Benchmark
+    public int jumpPoint(Nodes nodes)
+    {
+	return search(jumpPoint, start, goal, nodes);
+    }
+}
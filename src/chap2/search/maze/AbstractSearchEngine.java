@@ -5,6 +5,9 @@
  */
 package chap2.search.maze;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
 import chap2.search.maze.depthfirst.DepthFirstSearchEngine;
 
@@ -14,9 +17,24 @@ import chap2.search.maze.depthfirst.DepthFirstSearchEngine;
  * class {@link DepthFirstSearchEngine} and the breadth first (uses a queue to
  * store moves) search class {@link BreadthFirstSearchEngine}.
  * 
+ * A search engine is bound to one maze and can answer any number of queries on
+ * it through {@link AbstractSearchEngine#search(Location, Location)}. The
+ * buffers used by a search are kept by the engine and reused by the following
+ * queries, so that repeated queries do not allocate memory proportional to the
+ * size of the maze.
+ * 
+ * A search can be bounded by a time limit or a deadline, by a largest number of
+ * expanded locations and by a {@link CancellationToken}. The limits are checked
+ * as the locations are expanded (see {@link AbstractSearchEngine#nodeExpanded()}),
+ * and a search that reaches one of them stops without a path, its status (see
+ * {@link AbstractSearchEngine#getStatus()}) telling why, while the expanded
+ * locations and the time taken until then are still available. The work done
+ * before the first location is expanded, such as the precomputations of some
+ * engines, is not bounded.
+ * 
  * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
  */
-public class AbstractSearchEngine
+public abstract class AbstractSearchEngine
 {
     /**
      * Internal maze instance. This maze has a startLocation and a goalLocation and
@@ -24,8 +42,13 @@ public class AbstractSearchEngine
      */
     private Maze       maze	       = null;
 
-    // The current search path from the starting location to the goal location
-    private Location[] searchPath      = null;
+    /**
+     * The current search path from the starting location to the goal location,
+     * stored as packed cell indices (see {@link Maze#getIndex(int, int)}). The
+     * array is allocated on the first write and grows with the path, so that its
+     * size follows the length of the actual solution.
+     */
+    private int[]      searchPath      = null;
 
     private int	       pathCount       = 0;
 
@@ -33,9 +56,55 @@ public class AbstractSearchEngine
 
     private Location   currentLocation = null;
 
+    // starting location of the current search
+    private Location   startLocation   = null;
+
+    // goal location of the current search
+    private Location   goalLocation    = null;
+
     // isSearching is used to halt searching, avoiding more solutions, once one path
-    // to the goal is found.
-    private boolean    isSearching     = true;
+    // to the goal is found, or when the search is stopped by another thread or by
+    // its limits.
+    private volatile boolean isSearching = true;
+
+    // number of locations whose possible moves have been generated by the search
+    private long       expandedNodes   = 0;
+
+    // connected components of the maze, used to reject the unreachable goals
+    private ComponentLabels componentLabels = null;
+
+    // number of expanded locations between two checks of the time and of the
+    // cancellation token
+    private static final int CHECK_INTERVAL = 1024;
+
+    // limits of the searches: time limit in nanoseconds (0 for none), absolute
+    // deadline as given by System.nanoTime(), largest number of expanded
+    // locations and cancellation token
+    private long       timeLimit       = 0;
+
+    private boolean    hasDeadline     = false;
+
+    private long       deadline	       = 0;
+
+    private long       maxExpandedNodes = Long.MAX_VALUE;
+
+    private CancellationToken cancellationToken = null;
+
+    // limits of the current search: the limits are checked when expandedNodes
+    // reaches nextCheck
+    private boolean    timed	       = false;
+
+    private long       searchDeadline  = 0;
+
+    private long       nextCheck       = Long.MAX_VALUE;
+
+    // outcome of the last search, the reason it was stopped if it was
+    private SearchStatus status	       = SearchStatus.NOT_FOUND;
+
+    private SearchStatus stopReason    = null;
+
+    // duration of the last search, in nanoseconds
+    private long       searchTime      = 0;
 
     /**
      * @param rows
@@ -43,31 +112,128 @@ public class AbstractSearchEngine
      */
     public AbstractSearchEngine(int rows, int columns)
     {
-	maze = new Maze(rows, columns);
+	this(new Maze(rows, columns));
+    }
+
+    /**
+     * Creates a search engine for an existing maze. This makes it possible to run
+     * different search engines on the same maze and compare their results. No
+     * search is performed until {@link AbstractSearchEngine#search()} or
+     * {@link AbstractSearchEngine#search(Location, Location)} is called.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public AbstractSearchEngine(Maze maze)
+    {
+	this.maze = maze;
 
-	initSearch(rows > columns ? rows : columns);
+	startLocation = maze.getStartLocation();
+	goalLocation = maze.getGoalLocation();
+
+	initSearch();
     }
 
     /**
-     * Utility function: allocates the array searchPath of Location objects, which
-     * will be used to record the path traversed through the maze.
+     * Searches a path from the starting location to the goal location of the
+     * maze.
+     * 
+     * @return true if a path to the goal location was found.
      */
-    private void initSearch(int dim)
+    public boolean search()
     {
-	if (searchPath == null)
+	return search(maze.getStartLocation(), maze.getGoalLocation());
+    }
+
+    /**
+     * Searches a path between the given locations of the maze. The engine can be
+     * used for any number of searches: the state of the previous search is
+     * discarded, and its buffers are reused.
+     * 
+     * @param start
+     *            the starting location of the search.
+     * @param goal
+     *            the goal location of the search.
+     * @return true if a path to the goal location was found, the path is then
+     *         available from {@link AbstractSearchEngine#getSearchPath()}.
+     */
+    public boolean search(Location start, Location goal)
+    {
+	startLocation = start;
+	goalLocation = goal;
+
+	isSearching = true;
+	expandedNodes = 0;
+	maxDepth = 0;
+	stopReason = null;
+
+	long startTime = System.nanoTime();
+	timed = timeLimit > 0 || hasDeadline;
+	searchDeadline = timeLimit > 0 ? startTime + timeLimit : deadline;
+	if (hasDeadline && deadline - searchDeadline < 0)
+	{
+	    searchDeadline = deadline;
+	}
+	nextCheck = 0;
+
+	initSearch();
+
+	int startIndex = maze.getIndex(start);
+	int goalIndex = maze.getIndex(goal);
+	checkLimits();
+	if (isSearching && componentLabels != null && componentLabels.isConnected(startIndex, goalIndex) == false)
+	{
+	    // no path, without searching
+	    isSearching = false;
+	}
+
+	if (isSearching)
+	{
+	    doSearch(startIndex, goalIndex);
+	}
+
+	searchTime = System.nanoTime() - startTime;
+	if (maxDepth > 0)
+	{
+	    status = SearchStatus.FOUND;
+	}
+	else if (stopReason != null)
+	{
+	    status = stopReason;
+	    setMaxDepth(0);
+	}
+	else
 	{
-	    searchPath = new Location[dim * 100];
-	    for (int i = 0; i < searchPath.length; i++)
-	    {
-		searchPath[i] = new Location();
-	    }
+	    status = SearchStatus.NOT_FOUND;
 	}
 
+	return maxDepth > 0;
+    }
+
+    /**
+     * Performs the search between the given locations. Implementations record the
+     * path found with {@link AbstractSearchEngine#setSearchPathAt(int, int)} and
+     * {@link AbstractSearchEngine#setMaxDepth(int)}, and leave the max depth to 0
+     * if there is no path.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location.
+     */
+    protected abstract void doSearch(int start, int goal);
+
+    /**
+     * Utility function: starts the path traversed through the maze from the
+     * starting location.
+     */
+    private void initSearch()
+    {
 	pathCount = 0;
 
-	currentLocation = maze.getStartLocation();
+	currentLocation = startLocation;
 
-	searchPath[pathCount++] = currentLocation;
+	setSearchPathAt(pathCount++, maze.getIndex(currentLocation));
     }
 
     /**
@@ -88,55 +254,82 @@ public class AbstractSearchEngine
     /**
      * Utility function used to calculate possible moves from the given location.
      * This search engine only moves forward, backward, to the right and to the
-     * left.
+     * left. The possible moves are written as packed cell indices (see
+     * {@link Maze#getIndex(int, int)}) into the given buffer, so that no objects
+     * are allocated while expanding a location.
      * 
-     * @param location
-     *            the current location.
-     * @return an array of Location objects that can be moved to from the specified
-     *         current location.
+     * @param index
+     *            the packed index of the current location.
+     * @param moves
+     *            the buffer receiving the packed indices of the locations that can
+     *            be moved to, it must have room for 4 indices from offset.
+     * @param offset
+     *            the position in the buffer of the first possible move.
+     * @return the number of possible moves written into the buffer.
      */
-    protected Location[] getPossibleMoves(Location location)
+    protected int getPossibleMoves(int index, int[] moves, int offset)
     {
-	// forward, backward, to the right, to the left
-	Location tempMoves[] = new Location[4];
+	int stride = maze.getStride();
 
-	tempMoves[0] = tempMoves[1] = tempMoves[2] = tempMoves[3] = null;
-
-	int row = location.getRow();
-	int column = location.getColumn();
-
-	// The location object index in tempMoves[].
-	int index = 0;
+	// The position of the next possible move in moves[].
+	int count = offset;
 
 	// move forward
-	if (maze.getValue(row + 1, column) == 0
-		|| maze.getValue(row + 1, column) == MazeSearchGlobals.GOAL_LOCATION_VALUE)
+	if (isPossibleMove(index + stride))
 	{
-	    tempMoves[index++] = new Location(row + 1, column);
+	    moves[count++] = index + stride;
 	}
 
 	// move backward
-	if (maze.getValue(row - 1, column) == 0
-		|| maze.getValue(row - 1, column) == MazeSearchGlobals.GOAL_LOCATION_VALUE)
+	if (isPossibleMove(index - stride))
 	{
-	    tempMoves[index++] = new Location(row - 1, column);
+	    moves[count++] = index - stride;
 	}
 
 	// move to the right
-	if (maze.getValue(row, column - 1) == 0
-		|| maze.getValue(row, column - 1) == MazeSearchGlobals.GOAL_LOCATION_VALUE)
+	if (isPossibleMove(index - 1))
 	{
-	    tempMoves[index++] = new Location(row, column - 1);
+	    moves[count++] = index - 1;
 	}
 
 	// move to the left
-	if (maze.getValue(row, column + 1) == 0
-		|| maze.getValue(row, column + 1) == MazeSearchGlobals.GOAL_LOCATION_VALUE)
+	if (isPossibleMove(index + 1))
 	{
-	    tempMoves[index++] = new Location(row, column + 1);
+	    moves[count++] = index + 1;
 	}
 
-	return tempMoves;
+	return count - offset;
+    }
+
+    /**
+     * @see AbstractSearchEngine#getPossibleMoves(int, int[], int).
+     * @param index
+     *            the packed index of the current location.
+     * @param moves
+     *            the buffer receiving the possible moves, with room for 4 indices.
+     * @return the number of possible moves written into the buffer.
+     */
+    protected int getPossibleMoves(int index, int[] moves)
+    {
+	return getPossibleMoves(index, moves, 0);
+    }
+
+    /**
+     * A move to a cell is possible if the cell is empty or if it is the goal or
+     * the starting location of the maze. Moving back to the starting location of
+     * the current search is prevented by the searches themselves, which treat it
+     * as visited.
+     * 
+     * @param index
+     *            the packed index of the cell, see {@link Maze#getIndex(int, int)}.
+     * @return true if a move to the given cell is possible.
+     */
+    protected boolean isPossibleMove(int index)
+    {
+	short value = maze.getValueAt(index);
+
+	return value == 0 || value == MazeSearchGlobals.GOAL_LOCATION_VALUE
+		|| value == MazeSearchGlobals.START_LOCATION_VALUE;
     }
 
     /**
@@ -155,7 +348,7 @@ public class AbstractSearchEngine
 	Location[] ret = new Location[maxDepth];
 	for (int i = 0; i < maxDepth; i++)
 	{
-	    ret[i] = searchPath[i];
+	    ret[i] = getSearchPathAt(i);
 	}
 	return ret;
     }
@@ -167,7 +360,7 @@ public class AbstractSearchEngine
      */
     public Location getSearchPathAt(int position)
     {
-	return searchPath[position];
+	return new Location(maze.getRow(searchPath[position]), maze.getColumn(searchPath[position]));
     }
 
     /**
@@ -178,7 +371,41 @@ public class AbstractSearchEngine
      */
     public void setSearchPathAt(int position, Location location)
     {
-	searchPath[position] = location;
+	setSearchPathAt(position, maze.getIndex(location));
+    }
+
+    /**
+     * Sets the location in the given position of the search path from a packed
+     * cell index, growing the search path if needed.
+     * 
+     * @param position
+     *            the position in the search path for the location to set.
+     * @param index
+     *            the packed index of the location to set in the given position.
+     */
+    protected void setSearchPathAt(int position, int index)
+    {
+	if (searchPath == null)
+	{
+	    searchPath = new int[Math.max(16, position + 1)];
+	}
+	else if (position >= searchPath.length)
+	{
+	    searchPath = Arrays.copyOf(searchPath, Math.max(searchPath.length * 2, position + 1));
+	}
+
+	searchPath[position] = index;
+    }
+
+    /**
+     * @param position
+     *            the position of the required location in the search path.
+     * @return the packed index of the location in the search path at the given
+     *         position.
+     */
+    protected int getSearchPathIndexAt(int position)
+    {
+	return searchPath[position];
     }
 
     /**
@@ -207,19 +434,19 @@ public class AbstractSearchEngine
     }
 
     /**
-     * @return
+     * @return the starting location of the current search.
      */
     public Location getStartLocation()
     {
-	return maze.getStartLocation();
+	return startLocation;
     }
 
     /**
-     * @return
+     * @return the goal location of the current search.
      */
     public Location getGoalLocation()
     {
-	return maze.getGoalLocation();
+	return goalLocation;
     }
 
     /**
@@ -231,7 +458,203 @@ public class AbstractSearchEngine
     }
 
     /**
-     * @return the current isSearching.
+     * @return the number of locations expanded (whose possible moves have been
+     *         generated) so far by the search.
+     */
+    public long getExpandedNodes()
+    {
+	return expandedNodes;
+    }
+
+    /**
+     * Records that one more location has been expanded by the search. Search
+     * engines call this once for each location whose possible moves they
+     * generate.
+     */
+    protected void nodeExpanded()
+    {
+	if (++expandedNodes >= nextCheck)
+	{
+	    checkLimits();
+	}
+    }
+
+    /**
+     * Records that several more locations have been expanded by the search, for
+     * engines that count the expanded locations on several threads and add up the
+     * counts afterwards.
+     * 
+     * @param count
+     *            the number of locations expanded.
+     */
+    protected void nodesExpanded(long count)
+    {
+	expandedNodes += count;
+	if (expandedNodes >= nextCheck)
+	{
+	    checkLimits();
+	}
+    }
+
+    /**
+     * Checks the limits of the current search, and stops it if one of them has
+     * been reached: {@link AbstractSearchEngine#isSearching()} then returns
+     * false, and the search engines leave their loops. The time and the
+     * cancellation token are checked every CHECK_INTERVAL expanded locations,
+     * the number of expanded locations when it reaches its limit.
+     */
+    private void checkLimits()
+    {
+	if (cancellationToken != null && cancellationToken.isCancelled())
+	{
+	    stop(SearchStatus.CANCELLED);
+	}
+	else if (expandedNodes >= maxExpandedNodes)
+	{
+	    stop(SearchStatus.NODE_LIMIT_EXCEEDED);
+	}
+	else if (timed && System.nanoTime() - searchDeadline >= 0)
+	{
+	    stop(SearchStatus.DEADLINE_EXCEEDED);
+	}
+	else if (timed || cancellationToken != null)
+	{
+	    nextCheck = Math.min(expandedNodes + CHECK_INTERVAL, maxExpandedNodes);
+	}
+	else
+	{
+	    nextCheck = maxExpandedNodes;
+	}
+    }
+
+    /**
+     * Stops the current search for the given reason.
+     */
+    private void stop(SearchStatus reason)
+    {
+	stopReason = reason;
+	nextCheck = Long.MAX_VALUE;
+	isSearching = false;
+    }
+
+    /**
+     * Sets the connected components of the maze, checked before each search:
+     * when the start and goal locations are in different components, or one of
+     * them is an obstacle, the search fails at once without exploring the maze.
+     * 
+     * @param componentLabels
+     *            the components of the maze of the engine, usually
+     *            {@link ComponentLabels#forMaze(Maze)}, or null to always search.
+     */
+    public void setComponentLabels(ComponentLabels componentLabels)
+    {
+	this.componentLabels = componentLabels;
+    }
+
+    /**
+     * @return the connected components checked before each search, null if none.
+     */
+    public ComponentLabels getComponentLabels()
+    {
+	return componentLabels;
+    }
+
+    /**
+     * Sets the longest time a search may take. A search still running after that
+     * time stops without a path, with the status
+     * {@link SearchStatus#DEADLINE_EXCEEDED}.
+     * 
+     * @param time
+     *            the longest time of a search, 0 for no limit.
+     * @param unit
+     *            the unit of time.
+     */
+    public void setTimeLimit(long time, TimeUnit unit)
+    {
+	timeLimit = unit.toNanos(time);
+    }
+
+    /**
+     * Sets a deadline for all the searches to come, for example the deadline of
+     * the request that the searches are made for. A search still running at the
+     * deadline stops without a path, with the status
+     * {@link SearchStatus#DEADLINE_EXCEEDED}.
+     * 
+     * @param deadline
+     *            the deadline, as given by System.nanoTime().
+     */
+    public void setDeadline(long deadline)
+    {
+	this.deadline = deadline;
+	hasDeadline = true;
+    }
+
+    /**
+     * Removes the deadline set by {@link AbstractSearchEngine#setDeadline(long)}.
+     */
+    public void clearDeadline()
+    {
+	hasDeadline = false;
+    }
+
+    /**
+     * Sets the largest number of locations a search may expand. A search that
+     * reaches it stops without a path, with the status
+     * {@link SearchStatus#NODE_LIMIT_EXCEEDED}.
+     * 
+     * @param maxExpandedNodes
+     *            the largest number of expanded locations, Long.MAX_VALUE for no
+     *            limit.
+     */
+    public void setMaxExpandedNodes(long maxExpandedNodes)
+    {
+	this.maxExpandedNodes = maxExpandedNodes;
+    }
+
+    /**
+     * Sets a cancellation token checked by the searches: once it has been
+     * cancelled, the running search and the next ones stop without a path, with
+     * the status {@link SearchStatus#CANCELLED}. The same token can be shared by
+     * several engines.
+     * 
+     * @param cancellationToken
+     *            the token, null for none.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken)
+    {
+	this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * @return the cancellation token checked by the searches, null if none.
+     */
+    public CancellationToken getCancellationToken()
+    {
+	return cancellationToken;
+    }
+
+    /**
+     * @return the outcome of the last search. When the search has been stopped,
+     *         {@link AbstractSearchEngine#getExpandedNodes()} and
+     *         {@link AbstractSearchEngine#getSearchTime()} give the work done
+     *         until then.
+     */
+    public SearchStatus getStatus()
+    {
+	return status;
+    }
+
+    /**
+     * @return the time taken by the last search, in nanoseconds.
+     */
+    public long getSearchTime()
+    {
+	return searchTime;
+    }
+
+    /**
+     * @return false once the current search has found a path or has been
+     *         stopped.
      */
     public boolean isSearching()
     {
@@ -240,10 +663,16 @@ public class AbstractSearchEngine
 
     /**
      * Sets isSearching to false, isSearching is used to halt searching, avoiding
-     * more solutions, once one path to the goal is found.
+     * more solutions, once one path to the goal is found. It can also be called
+     * by another thread to stop the current search, which then ends without a
+     * path, with the status {@link SearchStatus#CANCELLED}.
      */
     public void stopSearching()
     {
+	if (stopReason == null && maxDepth == 0)
+	{
+	    stopReason = SearchStatus.CANCELLED;
+	}
 	isSearching = false;
     }
 }
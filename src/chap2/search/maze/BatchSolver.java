@@ -0,0 +1,478 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import chap2.search.maze.astar.AStarSearchEngine;
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+
+/**
+ * Solves batches of path queries concurrently on one shared maze. A batch is
+ * split among a fixed number of workers run by an {@link Executor}: each worker
+ * takes the next unsolved query of the batch until none is left, so that long
+ * and short queries balance out, and solves it with a search engine of its own.
+ * The results are returned in the order of the queries.
+ * 
+ * A search engine keeps buffers proportional to the size of the maze (see
+ * {@link AbstractSearchEngine}), so the engines are not created per query but
+ * kept by the solver between batches, and each one is used by a single worker
+ * at a time: the only state shared by the workers is the maze, which is only
+ * read, and the index of the next query. The maze must not be modified while a
+ * batch is being solved: to keep writing to a maze, solve the batches on its
+ * snapshots (see {@link Maze#snapshot()}). The engines share the
+ * {@link ComponentLabels} of the maze, so that the queries without a path are
+ * answered without searching.
+ * 
+ * The limits of the searches (see {@link AbstractSearchEngine}) are the ones of
+ * the engines, as set by the factory: a query whose search reaches them has no
+ * path, and the status of its result tells why. The solver sets the
+ * cancellation token of its engines, to cancel the searches of a batch when
+ * the thread waiting for it is interrupted.
+ * 
+ * Any executor can run the workers, for example a virtual thread per task
+ * executor (Executors.newVirtualThreadPerTaskExecutor(), Java 21). The searches
+ * are bound by the processors, not by waiting, so the throughput is given by
+ * the number of workers, by default the number of processors, rather than by
+ * the kind of threads running them.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class BatchSolver
+{
+    /**
+     * Creates the search engines of the workers.
+     */
+    public interface EngineFactory
+    {
+	/**
+	 * @param maze
+	 *            the maze to search.
+	 * @return a new search engine for the maze.
+	 */
+	AbstractSearchEngine createEngine(Maze maze);
+    }
+
+    /**
+     * A path query, from a start location to a goal location.
+     */
+    public static final class Query
+    {
+	private final Location start;
+
+	private final Location goal;
+
+	/**
+	 * @param start
+	 *            the starting location.
+	 * @param goal
+	 *            the goal location.
+	 */
+	public Query(Location start, Location goal)
+	{
+	    this.start = start;
+	    this.goal = goal;
+	}
+
+	/**
+	 * @return the starting location.
+	 */
+	public Location getStart()
+	{
+	    return start;
+	}
+
+	/**
+	 * @return the goal location.
+	 */
+	public Location getGoal()
+	{
+	    return goal;
+	}
+    }
+
+    /**
+     * The result of a query, never modified once created.
+     */
+    public static final class Result
+    {
+	private final Query	 query;
+
+	private final Location[] path;
+
+	private final int	 pathLength;
+
+	private final long	 expandedNodes;
+
+	private final SearchStatus status;
+
+	private final long	 searchTime;
+
+	private Result(Query query, Location[] path, int pathLength, long expandedNodes, SearchStatus status,
+		long searchTime)
+	{
+	    this.query = query;
+	    this.path = path;
+	    this.pathLength = pathLength;
+	    this.expandedNodes = expandedNodes;
+	    this.status = status;
+	    this.searchTime = searchTime;
+	}
+
+	/**
+	 * @return the query.
+	 */
+	public Query getQuery()
+	{
+	    return query;
+	}
+
+	/**
+	 * @return true if a path has been found.
+	 */
+	public boolean isFound()
+	{
+	    return pathLength > 0;
+	}
+
+	/**
+	 * @return the number of locations of the path found, 0 if none.
+	 */
+	public int getPathLength()
+	{
+	    return pathLength;
+	}
+
+	/**
+	 * @return a copy of the path found, as returned by
+	 *         {@link AbstractSearchEngine#getSearchPath()}, an empty array if
+	 *         no path has been found or the paths are not kept.
+	 */
+	public Location[] getPath()
+	{
+	    return path.clone();
+	}
+
+	/**
+	 * @return the number of locations expanded by the search.
+	 */
+	public long getExpandedNodes()
+	{
+	    return expandedNodes;
+	}
+
+	/**
+	 * @return the outcome of the search, see
+	 *         {@link AbstractSearchEngine#getStatus()}.
+	 */
+	public SearchStatus getStatus()
+	{
+	    return status;
+	}
+
+	/**
+	 * @return the time taken by the search, in nanoseconds.
+	 */
+	public long getSearchTime()
+	{
+	    return searchTime;
+	}
+    }
+
+    private static final Location[] NO_PATH = new Location[0];
+
+    private final Maze		    maze;
+
+    private final EngineFactory	    factory;
+
+    private final Executor	    executor;
+
+    private final int		    workers;
+
+    private volatile boolean	    keepPaths = true;
+
+    // connected components of the maze, shared by the engines
+    private final ComponentLabels   componentLabels;
+
+    // engines not used by a worker, kept for the next batches
+    private final ConcurrentLinkedQueue<AbstractSearchEngine> engines = new ConcurrentLinkedQueue<AbstractSearchEngine>();
+
+    /**
+     * Creates a batch solver using breadth first search engines, run by as many
+     * workers as there are processors on the common {@link ForkJoinPool}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public BatchSolver(Maze maze)
+    {
+	this(maze, new EngineFactory()
+	{
+	    @Override
+	    public AbstractSearchEngine createEngine(Maze maze)
+	    {
+		return new BreadthFirstSearchEngine(maze);
+	    }
+	}, ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a batch solver.
+     * 
+     * @param maze
+     *            the maze to search.
+     * @param factory
+     *            creates the search engines of the workers.
+     * @param executor
+     *            runs the workers.
+     * @param workers
+     *            the number of workers solving a batch, the largest number of
+     *            search engines created.
+     */
+    public BatchSolver(Maze maze, EngineFactory factory, Executor executor, int workers)
+    {
+	if (workers < 1)
+	{
+	    throw new IllegalArgumentException("At least one worker is needed, not " + workers + ".");
+	}
+
+	this.maze = maze;
+	this.factory = factory;
+	this.executor = executor;
+	this.workers = workers;
+
+	componentLabels = ComponentLabels.forMaze(maze);
+    }
+
+    /**
+     * @param keepPaths
+     *            false to only keep the length of the paths found, so that the
+     *            results take no memory proportional to the paths.
+     */
+    public void setKeepPaths(boolean keepPaths)
+    {
+	this.keepPaths = keepPaths;
+    }
+
+    /**
+     * @return true if the results hold the paths found.
+     */
+    public boolean isKeepPaths()
+    {
+	return keepPaths;
+    }
+
+    /**
+     * @return the maze searched.
+     */
+    public Maze getMaze()
+    {
+	return maze;
+    }
+
+    /**
+     * Solves a batch of queries, and waits for all of them to be solved.
+     * 
+     * @param queries
+     *            the queries.
+     * @return the results, in the order of the queries.
+     * @throws InterruptedException
+     *             if the calling thread has been interrupted while waiting. The
+     *             searches running are cancelled, and no other query is solved.
+     * @throws IllegalStateException
+     *             if a search has failed, with the failure as cause.
+     */
+    public List<Result> solve(List<Query> queries) throws InterruptedException
+    {
+	final Query[] batch = queries.toArray(new Query[queries.size()]);
+	final Result[] results = new Result[batch.length];
+	final AtomicInteger next = new AtomicInteger();
+	final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	final CancellationToken cancellation = new CancellationToken();
+	final boolean paths = keepPaths;
+
+	int count = Math.min(workers, batch.length);
+	final CountDownLatch done = new CountDownLatch(count);
+
+	for (int i = 0; i < count; i++)
+	{
+	    executor.execute(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    try
+		    {
+			AbstractSearchEngine engine = engines.poll();
+			if (engine == null)
+			{
+			    engine = factory.createEngine(maze);
+			    if (engine.getComponentLabels() == null)
+			    {
+				engine.setComponentLabels(componentLabels);
+			    }
+			}
+			engine.setCancellationToken(cancellation);
+
+			try
+			{
+			    int query;
+			    while ((query = next.getAndIncrement()) < batch.length && failure.get() == null)
+			    {
+				results[query] = solve(engine, batch[query], paths);
+			    }
+			}
+			finally
+			{
+			    engines.add(engine);
+			}
+		    }
+		    catch (Throwable e)
+		    {
+			failure.compareAndSet(null, e);
+		    }
+		    finally
+		    {
+			done.countDown();
+		    }
+		}
+	    });
+	}
+
+	try
+	{
+	    done.await();
+	}
+	catch (InterruptedException e)
+	{
+	    // no more queries for the workers, and no more work on the current ones
+	    next.set(batch.length);
+	    cancellation.cancel();
+	    throw e;
+	}
+
+	if (failure.get() != null)
+	{
+	    throw new IllegalStateException("Search failed.", failure.get());
+	}
+
+	return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * Solves one query with the given engine.
+     */
+    private static Result solve(AbstractSearchEngine engine, Query query, boolean keepPath)
+    {
+	boolean found = engine.search(query.getStart(), query.getGoal());
+
+	Location[] path = found && keepPath ? engine.getSearchPath() : NO_PATH;
+	return new Result(query, path, found ? engine.getMaxDepth() : 0, engine.getExpandedNodes(),
+		engine.getStatus(), engine.getSearchTime());
+    }
+
+    /**
+     * Developer test harness. Solves random queries one after the other with a
+     * single engine, and then as batches with different numbers of workers, and
+     * checks that the results are the same and in the same order.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze and the number of
+     *            queries.
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+	int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+	Maze maze = new MazeGenerator(42L, 0.25).generate(size, size);
+	Random random = new Random(42);
+
+	// locations out of the obstacles
+	Location[] locations = new Location[2 * count];
+	for (int i = 0; i < locations.length; i++)
+	{
+	    do
+	    {
+		locations[i] = new Location(random.nextInt(size), random.nextInt(size));
+	    }
+	    while (maze.getValue(locations[i].getRow(), locations[i].getColumn()) == MazeSearchGlobals.OBSTACLE);
+	}
+
+	List<Query> queries = new ArrayList<Query>();
+	for (int i = 0; i < count; i++)
+	{
+	    queries.add(new Query(locations[2 * i], locations[2 * i + 1]));
+	}
+
+	EngineFactory aStar = new EngineFactory()
+	{
+	    @Override
+	    public AbstractSearchEngine createEngine(Maze maze)
+	    {
+		return new AStarSearchEngine(maze);
+	    }
+	};
+
+	AbstractSearchEngine engine = aStar.createEngine(maze);
+	int[] lengths = new int[count];
+	long startTime = System.nanoTime();
+	for (int i = 0; i < count; i++)
+	{
+	    if (engine.search(queries.get(i).getStart(), queries.get(i).getGoal()))
+	    {
+		lengths[i] = engine.getMaxDepth();
+	    }
+	}
+	System.out.println(count + " queries solved one after the other in " + (System.nanoTime() - startTime)
+		/ 1000000 + " ms.");
+
+	int processors = Runtime.getRuntime().availableProcessors();
+	ExecutorService pool = Executors.newFixedThreadPool(2 * processors);
+	try
+	{
+	    for (int workers = 1; workers <= 2 * processors; workers *= 2)
+	    {
+		BatchSolver solver = new BatchSolver(maze, aStar, pool, workers);
+		for (int round = 0; round < 2; round++)
+		{
+		    startTime = System.nanoTime();
+		    List<Result> results = solver.solve(queries);
+		    long time = System.nanoTime() - startTime;
+
+		    for (int i = 0; i < count; i++)
+		    {
+			Result result = results.get(i);
+			if (result.getQuery() != queries.get(i) || result.getPathLength() != lengths[i])
+			{
+			    throw new IllegalStateException("Wrong result for query " + i + ".");
+			}
+		    }
+
+		    System.out.println(count + " queries solved by " + workers + " workers on " + processors
+			    + " processors in " + time / 1000000 + " ms.");
+		}
+	    }
+	}
+	finally
+	{
+	    pool.shutdown();
+	}
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import chap2.search.maze.astar.AStarSearchEngine;
+import chap2.search.maze.astar.DStarLiteSearchEngine;
+import chap2.search.maze.astar.HierarchicalSearchEngine;
+import chap2.search.maze.astar.JumpPointSearchEngine;
+import chap2.search.maze.astar.LandmarkSearchEngine;
+import chap2.search.maze.breadthfirst.BidirectionalBreadthFirstSearchEngine;
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+import chap2.search.maze.breadthfirst.DirectionOptimizingBreadthFirstSearchEngine;
+import chap2.search.maze.breadthfirst.ParallelBreadthFirstSearchEngine;
+import chap2.search.maze.breadthfirst.WavefrontSearchEngine;
+import chap2.search.maze.depthfirst.DepthFirstSearchEngine;
+
+/**
+ * Cancels searches from another thread. A token is given to any number of
+ * search engines (see
+ * {@link AbstractSearchEngine#setCancellationToken(CancellationToken)}), which
+ * check it while expanding locations: once the token is cancelled, their
+ * running searches stop without a path within about a thousand more expanded
+ * locations, and so do the next ones. A cancelled token stays cancelled.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class CancellationToken
+{
+    private volatile boolean cancelled = false;
+
+    /**
+     * Cancels the searches checking this token.
+     */
+    public void cancel()
+    {
+	cancelled = true;
+    }
+
+    /**
+     * @return true if the token has been cancelled.
+     */
+    public boolean isCancelled()
+    {
+	return cancelled;
+    }
+
+    /**
+     * Developer test harness. Runs a long search with every engine, then stops it
+     * with a time limit, a limit on the expanded locations and a cancellation
+     * token cancelled by another thread, and checks the status of each search.
+     * Prints how long each search ran and how many locations it expanded past its
+     * limit.
+     * 
+     * The forward searches look for a goal that cannot be reached, so that they
+     * explore the whole maze. The bidirectional search would stop as soon as the
+     * side of the enclosed goal runs out of locations, and D* Lite searches
+     * backward from the goal: both look for a goal in the far corner, which they
+     * reach after expanding a large part of the maze.
+     * 
+     * @param args
+     *            the number of rows and columns of the mazes.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+	MazeGenerator generator = new MazeGenerator(42L, 0.1);
+	Maze enclosed = generator.generate(size, size);
+	enclosed.setValue(size - 2, size - 1, MazeSearchGlobals.OBSTACLE);
+	enclosed.setValue(size - 1, size - 2, MazeSearchGlobals.OBSTACLE);
+	Maze open = generator.generate(size, size);
+
+	AbstractSearchEngine[] engines = { new BreadthFirstSearchEngine(enclosed),
+		new BidirectionalBreadthFirstSearchEngine(open), new DirectionOptimizingBreadthFirstSearchEngine(enclosed),
+		new ParallelBreadthFirstSearchEngine(enclosed), new WavefrontSearchEngine(enclosed),
+		new DepthFirstSearchEngine(enclosed), new AStarSearchEngine(enclosed), new JumpPointSearchEngine(enclosed),
+		new LandmarkSearchEngine(enclosed), new DStarLiteSearchEngine(open), new HierarchicalSearchEngine(enclosed) };
+
+	System.out.println(String.format("%-45s %27s %12s %17s %20s", "", "unbounded", "10 ms limit",
+		"10000 nodes", "cancel at 10 ms"));
+	for (AbstractSearchEngine engine : engines)
+	{
+	    SearchStatus unboundedStatus = engine.getMaze() == open ? SearchStatus.FOUND : SearchStatus.NOT_FOUND;
+
+	    // the first search also makes the precomputations of the engine
+	    engine.search();
+	    engine = restart(engine);
+	    engine.search();
+	    check(engine, unboundedStatus);
+	    long unbounded = engine.getSearchTime();
+	    long unboundedNodes = engine.getExpandedNodes();
+	    if (unbounded < TimeUnit.MILLISECONDS.toNanos(30) || unboundedNodes < 30000)
+	    {
+		throw new IllegalStateException(engine.getClass().getSimpleName()
+			+ ": the search is too short to check its limits, use a larger maze.");
+	    }
+
+	    engine = restart(engine);
+	    engine.setTimeLimit(10, TimeUnit.MILLISECONDS);
+	    engine.search();
+	    check(engine, SearchStatus.DEADLINE_EXCEEDED);
+	    long timeLimited = engine.getSearchTime();
+	    engine.setTimeLimit(0, TimeUnit.MILLISECONDS);
+
+	    engine = restart(engine);
+	    engine.setMaxExpandedNodes(10000);
+	    engine.search();
+	    check(engine, SearchStatus.NODE_LIMIT_EXCEEDED);
+	    long nodeLimited = engine.getExpandedNodes();
+	    if (nodeLimited < 10000)
+	    {
+		throw new IllegalStateException(engine.getClass().getSimpleName() + ": stopped after " + nodeLimited
+			+ " expanded nodes.");
+	    }
+	    engine.setMaxExpandedNodes(Long.MAX_VALUE);
+
+	    engine = restart(engine);
+	    final CancellationToken token = new CancellationToken();
+	    final AtomicLong cancelTime = new AtomicLong();
+	    engine.setCancellationToken(token);
+	    Thread canceller = new Thread()
+	    {
+		@Override
+		public void run()
+		{
+		    try
+		    {
+			Thread.sleep(10);
+		    }
+		    catch (InterruptedException e)
+		    {
+			return;
+		    }
+		    cancelTime.set(System.nanoTime());
+		    token.cancel();
+		}
+	    };
+	    canceller.start();
+	    engine.search();
+	    long end = System.nanoTime();
+	    try
+	    {
+		canceller.join();
+	    }
+	    catch (InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+	    }
+	    engine.setCancellationToken(null);
+	    check(engine, SearchStatus.CANCELLED);
+
+	    System.out.println(String.format("%-45s %9.3f ms %8d nodes %9.3f ms %11d nodes %12.3f ms late",
+		    engine.getClass().getSimpleName(), unbounded / 1e6, unboundedNodes, timeLimited / 1e6, nodeLimited,
+		    (end - cancelTime.get()) / 1e6));
+	}
+    }
+
+    /**
+     * D* Lite goes on from the state of its previous search to the same goal, so
+     * each of its searches is made by a new engine.
+     * 
+     * @return the engine for the next search.
+     */
+    private static AbstractSearchEngine restart(AbstractSearchEngine engine)
+    {
+	if (engine instanceof DStarLiteSearchEngine)
+	{
+	    ((DStarLiteSearchEngine) engine).dispose();
+	    return new DStarLiteSearchEngine(engine.getMaze());
+	}
+	return engine;
+    }
+
+    /**
+     * Checks the status of the last search of an engine.
+     */
+    private static void check(AbstractSearchEngine engine, SearchStatus expected)
+    {
+	if (engine.getStatus() != expected)
+	{
+	    throw new IllegalStateException(engine.getClass().getSimpleName() + ": " + engine.getStatus()
+		    + " instead of " + expected + ", after " + engine.getExpandedNodes() + " expanded nodes.");
+	}
+    }
+}
@@ -0,0 +1,657 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+
+/**
+ * Connected components of a maze: every location that is not an obstacle gets
+ * the label of its component, so that two locations are connected if and only
+ * if they have the same label. A search between locations of different
+ * components can be rejected in constant time, instead of exploring the whole
+ * component of the start location (see
+ * {@link AbstractSearchEngine#setComponentLabels(ComponentLabels)}).
+ * 
+ * The labels are first computed by a two pass scanline labelling: the first
+ * pass unites each location with its neighbours above and to the left in a
+ * union-find forest, the second gives each tree a label. Then the labels are
+ * kept up to date by the writes made to the maze through
+ * {@link Maze#setValue(int, int, short)}, without labelling the maze again:
+ * <ul>
+ * <li>when an obstacle is removed, the location joins the largest component
+ * among its neighbours, and the other components of its neighbours are merged
+ * into it by relabelling them;</li>
+ * <li>when an obstacle is added, the component may split. One search is started
+ * from each of the neighbours of the location, and the searches run in turn,
+ * one location at a time: two searches that meet are merged, and the locations
+ * of a search that ends before meeting the others are a new component. The
+ * work is then proportional to the size of the smaller parts.</li>
+ * </ul>
+ * Only obstacles matter: writing any other value leaves the labels unchanged.
+ * 
+ * As for the maze, the labels must not be read while the maze is being written.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class ComponentLabels implements MazeListener
+{
+    // labels shared by the users of a maze, kept alive by the maze itself
+    private static final Map<Maze, WeakReference<ComponentLabels>> shared = new WeakHashMap<Maze,
+	    WeakReference<ComponentLabels>>();
+
+    private final Maze		 maze;
+
+    private final int[]		 moves;
+
+    // label of every cell, 0 for the obstacles
+    private final int[]		 labels;
+
+    // number of locations of every label, 0 for the labels no longer used
+    private int[]		 sizes;
+
+    private int			 nextLabel	= 1;
+
+    // labels no longer used, given again by newLabel() before any new one, so
+    // that the labels stay below the largest number of components there has
+    // been at once, however many times the components split and merge
+    private int[]		 freeLabels	= new int[16];
+
+    private int			 freeCount	= 0;
+
+    private int			 components	= 0;
+
+    // Buffers of the updates.
+    private final LocationQueue	 queue		= new LocationQueue();
+
+    // marks of the searches of an added obstacle: markBase + the search number
+    private final int[]		 marks;
+
+    private int			 markBase	= 0;
+
+    private final int[][]	 visited	= new int[4][16];
+
+    private final int[]		 heads		= new int[4];
+
+    private final int[]		 tails		= new int[4];
+
+    private final int[]		 groups		= new int[4];
+
+    /**
+     * Labels the connected components of the given maze, and keeps the labels up
+     * to date from then on. Use {@link ComponentLabels#forMaze(Maze)} to share
+     * the labels among all the users of a maze.
+     * 
+     * @param maze
+     *            the maze.
+     */
+    public ComponentLabels(Maze maze)
+    {
+	this.maze = maze;
+
+	final int stride = maze.getStride();
+	moves = new int[] { stride, -stride, -1, 1 };
+	labels = new int[maze.getSize()];
+	marks = new int[maze.getSize()];
+	sizes = new int[16];
+
+	label();
+
+	maze.addMazeListener(this);
+    }
+
+    /**
+     * @param maze
+     *            the maze.
+     * @return the labels of the given maze, shared by all the callers for the same
+     *         maze.
+     */
+    public static ComponentLabels forMaze(Maze maze)
+    {
+	synchronized (shared)
+	{
+	    WeakReference<ComponentLabels> reference = shared.get(maze);
+	    ComponentLabels labels = reference == null ? null : reference.get();
+	    if (labels == null)
+	    {
+		labels = new ComponentLabels(maze);
+		shared.put(maze, new WeakReference<ComponentLabels>(labels));
+	    }
+	    return labels;
+	}
+    }
+
+    /**
+     * Stops updating the labels, which must no longer be used.
+     */
+    public void dispose()
+    {
+	maze.removeMazeListener(this);
+    }
+
+    /**
+     * Two pass scanline labelling of the whole maze.
+     */
+    private void label()
+    {
+	final int rows = maze.getRows();
+	final int columns = maze.getColumns();
+	final int stride = maze.getStride();
+
+	// union-find forest of the packed indices, each root being the first
+	// location of its tree in row order
+	int[] parent = new int[labels.length];
+	for (int i = 0; i < rows; i++)
+	{
+	    int index = maze.getIndex(i, 0);
+	    for (int j = 0; j < columns; j++, index++)
+	    {
+		parent[index] = index;
+		if (isFree(index))
+		{
+		    if (isFree(index - stride))
+		    {
+			union(parent, index, index - stride);
+		    }
+		    if (isFree(index - 1))
+		    {
+			union(parent, index, index - 1);
+		    }
+		}
+	    }
+	}
+
+	// the root of a tree comes before the other locations of the tree
+	for (int i = 0; i < rows; i++)
+	{
+	    int index = maze.getIndex(i, 0);
+	    for (int j = 0; j < columns; j++, index++)
+	    {
+		if (isFree(index))
+		{
+		    int root = find(parent, index);
+		    int label = root == index ? newLabel() : labels[root];
+		    labels[index] = label;
+		    sizes[label]++;
+		}
+	    }
+	}
+    }
+
+    private static int find(int[] parent, int index)
+    {
+	while (parent[index] != index)
+	{
+	    // path halving
+	    parent[index] = parent[parent[index]];
+	    index = parent[index];
+	}
+	return index;
+    }
+
+    private static void union(int[] parent, int a, int b)
+    {
+	int rootA = find(parent, a);
+	int rootB = find(parent, b);
+
+	if (rootA < rootB)
+	{
+	    parent[rootB] = rootA;
+	}
+	else if (rootB < rootA)
+	{
+	    parent[rootA] = rootB;
+	}
+    }
+
+    /**
+     * @return a new label for an empty component, one no longer used if any.
+     */
+    private int newLabel()
+    {
+	components++;
+	if (freeCount > 0)
+	{
+	    return freeLabels[--freeCount];
+	}
+
+	if (nextLabel == sizes.length)
+	{
+	    sizes = Arrays.copyOf(sizes, sizes.length * 2);
+	}
+	return nextLabel++;
+    }
+
+    /**
+     * Gives back the label of a component that no longer has any location.
+     */
+    private void freeLabel(int label)
+    {
+	if (freeCount == freeLabels.length)
+	{
+	    freeLabels = Arrays.copyOf(freeLabels, freeLabels.length * 2);
+	}
+	freeLabels[freeCount++] = label;
+	components--;
+    }
+
+    /**
+     * Keeps the labels up to date when a location becomes or stops being an
+     * obstacle.
+     */
+    @Override
+    public void valueChanged(Maze maze, int index, short oldValue, short newValue)
+    {
+	boolean wasFree = oldValue != MazeSearchGlobals.OBSTACLE;
+	boolean isFree = newValue != MazeSearchGlobals.OBSTACLE;
+
+	if (wasFree == isFree)
+	{
+	    return;
+	}
+
+	if (isFree)
+	{
+	    obstacleRemoved(index);
+	}
+	else
+	{
+	    obstacleAdded(index);
+	}
+    }
+
+    /**
+     * The location joins the largest component among its neighbours, and the
+     * others are merged into it.
+     */
+    private void obstacleRemoved(int index)
+    {
+	int largest = 0;
+	for (int move : moves)
+	{
+	    int label = labels[index + move];
+	    if (label != 0 && sizes[label] > sizes[largest])
+	    {
+		largest = label;
+	    }
+	}
+
+	if (largest == 0)
+	{
+	    largest = newLabel();
+	}
+	labels[index] = largest;
+	sizes[largest]++;
+
+	for (int move : moves)
+	{
+	    int label = labels[index + move];
+	    if (label != 0 && label != largest)
+	    {
+		relabel(index + move, label, largest);
+	    }
+	}
+    }
+
+    /**
+     * Gives a new label to all the locations of a component.
+     */
+    private void relabel(int from, int label, int newLabel)
+    {
+	queue.clear();
+	labels[from] = newLabel;
+	queue.addToBackOfQueue(from);
+
+	while (queue.isEmpty() == false)
+	{
+	    int location = queue.removeFromFrontOfQueue();
+	    for (int move : moves)
+	    {
+		int neighbour = location + move;
+		if (labels[neighbour] == label)
+		{
+		    labels[neighbour] = newLabel;
+		    queue.addToBackOfQueue(neighbour);
+		}
+	    }
+	}
+
+	sizes[newLabel] += sizes[label];
+	sizes[label] = 0;
+	freeLabel(label);
+    }
+
+    /**
+     * The component of the location may split: the parts that cannot reach each
+     * other any more are found by searches run in turn from the neighbours of the
+     * location, and all of them but the last one get new labels.
+     */
+    private void obstacleAdded(int index)
+    {
+	final int label = labels[index];
+	labels[index] = 0;
+	if (--sizes[label] == 0)
+	{
+	    freeLabel(label);
+	    return;
+	}
+
+	int searches = 0;
+	for (int move : moves)
+	{
+	    if (labels[index + move] == label)
+	    {
+		visited[searches][0] = index + move;
+		heads[searches] = 0;
+		tails[searches] = 1;
+		groups[searches] = searches;
+		searches++;
+	    }
+	}
+
+	if (searches <= 1)
+	{
+	    return;
+	}
+
+	if (markBase > Integer.MAX_VALUE - 8)
+	{
+	    Arrays.fill(marks, 0);
+	    markBase = 0;
+	}
+	markBase += 4;
+	for (int i = 0; i < searches; i++)
+	{
+	    marks[visited[i][0]] = markBase + i;
+	}
+
+	// a group is a set of searches that met, -1 once all its searches are over
+	int activeGroups = searches;
+	while (activeGroups > 1)
+	{
+	    for (int i = 0; i < searches && activeGroups > 1; i++)
+	    {
+		int group = groups[i];
+		if (group < 0 || heads[i] == tails[i])
+		{
+		    continue;
+		}
+
+		// expand one location of the search
+		int location = visited[i][heads[i]++];
+		for (int move : moves)
+		{
+		    int neighbour = location + move;
+		    if (labels[neighbour] != label)
+		    {
+			continue;
+		    }
+
+		    int mark = marks[neighbour] - markBase;
+		    if (mark >= 0 && mark < 4)
+		    {
+			// the two searches meet
+			int other = groups[mark];
+			if (other != group)
+			{
+			    for (int j = 0; j < searches; j++)
+			    {
+				if (groups[j] == other)
+				{
+				    groups[j] = group;
+				}
+			    }
+			    activeGroups--;
+			}
+		    }
+		    else
+		    {
+			marks[neighbour] = markBase + i;
+			if (tails[i] == visited[i].length)
+			{
+			    visited[i] = Arrays.copyOf(visited[i], visited[i].length * 2);
+			}
+			visited[i][tails[i]++] = neighbour;
+		    }
+		}
+
+		if (activeGroups > 1 && isOver(group, searches))
+		{
+		    // the locations found by the group are a new component
+		    int newLabel = newLabel();
+		    for (int j = 0; j < searches; j++)
+		    {
+			if (groups[j] == group)
+			{
+			    for (int k = 0; k < tails[j]; k++)
+			    {
+				labels[visited[j][k]] = newLabel;
+			    }
+			    sizes[newLabel] += tails[j];
+			    sizes[label] -= tails[j];
+			    groups[j] = -1;
+			}
+		    }
+		    activeGroups--;
+		}
+	    }
+	}
+
+	// do not keep the buffers of a large split
+	for (int i = 0; i < searches; i++)
+	{
+	    if (visited[i].length > 1 << 16)
+	    {
+		visited[i] = new int[16];
+	    }
+	}
+    }
+
+    /**
+     * @return true if all the searches of the given group are over.
+     */
+    private boolean isOver(int group, int searches)
+    {
+	for (int i = 0; i < searches; i++)
+	{
+	    if (groups[i] == group && heads[i] < tails[i])
+	    {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * @return true if the cell with the given packed index is not an obstacle.
+     */
+    private boolean isFree(int index)
+    {
+	return maze.getValueAt(index) != MazeSearchGlobals.OBSTACLE;
+    }
+
+    /**
+     * @param index
+     *            the packed index of a location of the maze.
+     * @return the label of the component of the location, 0 if it is an
+     *         obstacle.
+     */
+    public int getLabel(int index)
+    {
+	return labels[index];
+    }
+
+    /**
+     * @param location
+     *            a location of the maze.
+     * @return the label of the component of the location, 0 if it is an
+     *         obstacle.
+     */
+    public int getLabel(Location location)
+    {
+	return labels[maze.getIndex(location)];
+    }
+
+    /**
+     * @param from
+     *            the packed index of a location of the maze.
+     * @param to
+     *            the packed index of another location of the maze.
+     * @return true if there is a path between the two locations.
+     */
+    public boolean isConnected(int from, int to)
+    {
+	return labels[from] != 0 && labels[from] == labels[to];
+    }
+
+    /**
+     * @param from
+     *            a location of the maze.
+     * @param to
+     *            another location of the maze.
+     * @return true if there is a path between the two locations.
+     */
+    public boolean isConnected(Location from, Location to)
+    {
+	return isConnected(maze.getIndex(from), maze.getIndex(to));
+    }
+
+    /**
+     * @param label
+     *            the label of a component.
+     * @return the number of locations of the component.
+     */
+    public int getComponentSize(int label)
+    {
+	return sizes[label];
+    }
+
+    /**
+     * @return the number of connected components of the maze.
+     */
+    public int getComponentCount()
+    {
+	return components;
+    }
+
+    /**
+     * Developer test harness. Adds and removes random obstacles, checking the
+     * labels kept up to date against the labels of the whole maze computed again,
+     * and compares the time taken by the two.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze, and the number of
+     *            writes.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+	int writes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+	Maze maze = new MazeGenerator(42L, 0.4).generate(size, size);
+	Random random = new Random(42);
+
+	long startTime = System.nanoTime();
+	ComponentLabels labels = ComponentLabels.forMaze(maze);
+	long labelTime = System.nanoTime() - startTime;
+	System.out.println(String.format("%d components labelled in %d ms", labels.getComponentCount(),
+		labelTime / 1000000));
+
+	long updateTime = 0;
+	int peakComponents = labels.getComponentCount();
+	for (int i = 1; i <= writes; i++)
+	{
+	    int row = random.nextInt(size);
+	    int column = random.nextInt(size);
+	    short value = maze.getValue(row, column);
+	    if (value == MazeSearchGlobals.START_LOCATION_VALUE || value == MazeSearchGlobals.GOAL_LOCATION_VALUE)
+	    {
+		continue;
+	    }
+
+	    startTime = System.nanoTime();
+	    maze.setValue(row, column, value == MazeSearchGlobals.OBSTACLE ? 0 : MazeSearchGlobals.OBSTACLE);
+	    updateTime += System.nanoTime() - startTime;
+	    peakComponents = Math.max(peakComponents, labels.getComponentCount());
+
+	    if (i % (writes / 10) == 0)
+	    {
+		check(maze, labels);
+	    }
+	}
+
+	// the labels no longer used are given again
+	if (labels.nextLabel - 1 > peakComponents)
+	{
+	    throw new IllegalStateException((labels.nextLabel - 1) + " labels for at most " + peakComponents
+		    + " components.");
+	}
+
+	System.out.println(String.format(
+		"%d writes: %.2f us per update, labels checked, %d components, %d labels for at most %d components",
+		writes, updateTime / 1000.0 / writes, labels.getComponentCount(), labels.nextLabel - 1,
+		peakComponents));
+    }
+
+    /**
+     * Checks that the given labels describe the same components as the labels
+     * computed again for the whole maze.
+     */
+    private static void check(Maze maze, ComponentLabels labels)
+    {
+	ComponentLabels expected = new ComponentLabels(maze);
+	expected.dispose();
+
+	if (expected.getComponentCount() != labels.getComponentCount())
+	{
+	    throw new IllegalStateException("Different numbers of components: " + labels.getComponentCount()
+		    + " instead of " + expected.getComponentCount() + ".");
+	}
+
+	// every label is either used or free
+	if (labels.nextLabel - 1 - labels.freeCount != labels.getComponentCount())
+	{
+	    throw new IllegalStateException("Labels lost: " + (labels.nextLabel - 1) + " labels, " + labels.freeCount
+		    + " free.");
+	}
+	for (int i = 0; i < labels.freeCount; i++)
+	{
+	    if (labels.getComponentSize(labels.freeLabels[i]) != 0)
+	    {
+		throw new IllegalStateException("Free label " + labels.freeLabels[i] + " still used.");
+	    }
+	}
+
+	// the labels must map one to one
+	int[] mapping = new int[expected.nextLabel];
+	for (int index = 0; index < maze.getSize(); index++)
+	{
+	    int label = expected.getLabel(index);
+	    if ((label == 0) != (labels.getLabel(index) == 0))
+	    {
+		throw new IllegalStateException("Different obstacles.");
+	    }
+	    if (label != 0)
+	    {
+		if (mapping[label] == 0)
+		{
+		    mapping[label] = labels.getLabel(index);
+		}
+		else if (mapping[label] != labels.getLabel(index))
+		{
+		    throw new IllegalStateException("Different components.");
+		}
+		if (labels.getComponentSize(labels.getLabel(index)) != expected.getComponentSize(label))
+		{
+		    throw new IllegalStateException("Different component sizes.");
+		}
+	    }
+	}
+    }
+}
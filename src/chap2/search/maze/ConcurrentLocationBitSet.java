@@ -0,0 +1,82 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of locations of a maze, identified by their packed indices, that can be
+ * updated by several threads at the same time. As in {@link LocationBitSet} each
+ * location is a bit in an array of longs, but the words are updated by compare
+ * and swap, so that when several threads try to add the same location exactly
+ * one of them succeeds. No lock is ever taken.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class ConcurrentLocationBitSet
+{
+    // bit i % 64 of words[i / 64] is set if location i is in the set
+    private final AtomicLongArray words;
+
+    /**
+     * Creates an empty set able to hold the packed indices from 0 to size - 1.
+     * 
+     * @param size
+     *            the number of cells of the maze, see {@link Maze#getSize()}.
+     */
+    public ConcurrentLocationBitSet(int size)
+    {
+	words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * @param index
+     *            the packed index of a location.
+     * @return true if the location is in the set.
+     */
+    public boolean get(int index)
+    {
+	return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Adds a location to the set, unless it is already in it.
+     * 
+     * @param index
+     *            the packed index of a location.
+     * @return true if the location has been added by this call, false if it was
+     *         already in the set.
+     */
+    public boolean set(int index)
+    {
+	final int word = index >>> 6;
+	final long bit = 1L << index;
+
+	long value = words.get(word);
+	while ((value & bit) == 0)
+	{
+	    if (words.compareAndSet(word, value, value | bit))
+	    {
+		return true;
+	    }
+	    value = words.get(word);
+	}
+
+	return false;
+    }
+
+    /**
+     * Removes all the locations from the set. Must not be called while other
+     * threads update the set.
+     */
+    public void clear()
+    {
+	for (int i = 0, length = words.length(); i < length; i++)
+	{
+	    words.lazySet(i, 0L);
+	}
+    }
+}
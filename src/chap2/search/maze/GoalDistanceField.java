@@ -0,0 +1,328 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Distance field of the goal location of a maze: the length of the shortest
+ * path from every location of the maze to the goal location, computed once by a
+ * breadth first search started from the goal. The shortest path from any
+ * location is then extracted by greedy descent, moving each time to a
+ * neighbour one step closer to the goal, in time proportional to the length of
+ * the path, so that many agents reaching the same goal share a single search.
+ * 
+ * The distances are stored in a char array, 2 bytes per cell, when they all
+ * fit in it, and in an int array otherwise. The field is computed on first use
+ * and again whenever the maze has been modified, as told by
+ * {@link Maze#getModificationCount()}, or its goal location has changed. A
+ * field can also be created for another location of the maze. Use
+ * {@link GoalDistanceField#forMaze(Maze)} to share one field among all the
+ * users of a maze.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class GoalDistanceField
+{
+    // distance of the locations that cannot reach the goal
+    private static final char	  UNREACHED_CHAR = Character.MAX_VALUE;
+
+    // fields shared by the users of a maze, as long as one of them keeps it
+    private static final Map<Maze, WeakReference<GoalDistanceField>> fields = new WeakHashMap<Maze, WeakReference<GoalDistanceField>>();
+
+    private final Maze		  maze;
+
+    // fixed goal location of the field, null for the goal location of the maze
+    private final Location	  goalLocation;
+
+    // current distances, replaced as a whole when computed again
+    private volatile Distances	  distances	 = null;
+
+    /**
+     * Distances computed for the maze as it was at modificationCount, and for the
+     * goal location with packed index goal. Never modified once computed, so that
+     * readers can use them without locking while a new field is being computed.
+     */
+    private static class Distances
+    {
+	private final long   modificationCount;
+
+	private final int    goal;
+
+	// one of the two arrays is null
+	private final char[] charDistances;
+
+	private final int[]  intDistances;
+
+	private Distances(long modificationCount, int goal, char[] charDistances, int[] intDistances)
+	{
+	    this.modificationCount = modificationCount;
+	    this.goal = goal;
+	    this.charDistances = charDistances;
+	    this.intDistances = intDistances;
+	}
+
+	/**
+	 * @return the distance of the location with the given packed index, -1 if
+	 *         it cannot reach the goal.
+	 */
+	private int get(int index)
+	{
+	    if (charDistances != null)
+	    {
+		char distance = charDistances[index];
+		return distance == UNREACHED_CHAR ? -1 : distance;
+	    }
+	    return intDistances[index];
+	}
+    }
+
+    /**
+     * Creates the distance field of the goal location of the given maze. Nothing
+     * is computed until the field is first used.
+     * 
+     * @param maze
+     *            the maze.
+     */
+    public GoalDistanceField(Maze maze)
+    {
+	this(maze, null);
+    }
+
+    /**
+     * Creates the distance field of the given location of a maze. Nothing is
+     * computed until the field is first used.
+     * 
+     * @param maze
+     *            the maze.
+     * @param goal
+     *            the location the distances are measured to, null for the goal
+     *            location of the maze, as it is each time the field is used.
+     */
+    public GoalDistanceField(Maze maze, Location goal)
+    {
+	this.maze = maze;
+	this.goalLocation = goal == null ? null : new Location(goal.getRow(), goal.getColumn());
+    }
+
+    /**
+     * @param maze
+     *            the maze.
+     * @return the distance field of the goal location of the given maze, shared
+     *         by all the callers for the same maze while one of them keeps a
+     *         reference to it.
+     */
+    public static GoalDistanceField forMaze(Maze maze)
+    {
+	synchronized (fields)
+	{
+	    WeakReference<GoalDistanceField> reference = fields.get(maze);
+	    GoalDistanceField field = reference == null ? null : reference.get();
+	    if (field == null)
+	    {
+		field = new GoalDistanceField(maze);
+		fields.put(maze, new WeakReference<GoalDistanceField>(field));
+	    }
+	    return field;
+	}
+    }
+
+    /**
+     * @return the maze of the field.
+     */
+    public Maze getMaze()
+    {
+	return maze;
+    }
+
+    /**
+     * @param location
+     *            a location of the maze.
+     * @return the length of the shortest path from the location to the goal
+     *         location, in moves, -1 if there is no path.
+     */
+    public int getDistance(Location location)
+    {
+	return getDistance(maze.getIndex(location));
+    }
+
+    /**
+     * @param index
+     *            the packed index of a location of the maze.
+     * @return the length of the shortest path from the location to the goal
+     *         location, in moves, -1 if there is no path.
+     */
+    public int getDistance(int index)
+    {
+	return update().get(index);
+    }
+
+    /**
+     * Extracts the shortest path from the given location to the goal location.
+     * 
+     * @param start
+     *            the starting location.
+     * @return the locations of the path, from the starting location to the goal
+     *         location included, an empty array if there is no path.
+     */
+    public Location[] getPath(Location start)
+    {
+	int[] path = new int[Math.max(0, getDistance(start) + 1)];
+	int length = getPath(maze.getIndex(start), path);
+
+	Location[] ret = new Location[length];
+	for (int i = 0; i < length; i++)
+	{
+	    ret[i] = new Location(maze.getRow(path[i]), maze.getColumn(path[i]));
+	}
+	return ret;
+    }
+
+    /**
+     * Extracts the shortest path from the given location to the goal location by
+     * greedy descent.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param path
+     *            the buffer receiving the packed indices of the path, from the
+     *            starting location to the goal location, it must have room for
+     *            the distance of the start location plus one indices.
+     * @return the number of locations of the path, 0 if there is no path.
+     */
+    public int getPath(int start, int[] path)
+    {
+	// the same distances all along the path, even if computed again meanwhile
+	final Distances current = update();
+	final int stride = maze.getStride();
+
+	int distance = current.get(start);
+	if (distance < 0)
+	{
+	    return 0;
+	}
+
+	int location = start;
+	path[0] = location;
+	for (int i = 1; i <= distance; i++)
+	{
+	    // forward, backward, to the right, to the left
+	    int target = distance - i;
+	    if (current.get(location + stride) == target)
+	    {
+		location += stride;
+	    }
+	    else if (current.get(location - stride) == target)
+	    {
+		location -= stride;
+	    }
+	    else if (current.get(location - 1) == target)
+	    {
+		location -= 1;
+	    }
+	    else
+	    {
+		location += 1;
+	    }
+	    path[i] = location;
+	}
+
+	return distance + 1;
+    }
+
+    /**
+     * @return the distances for the maze as it is now, computed again if the maze
+     *         or its goal location have changed since they were last computed.
+     */
+    private Distances update()
+    {
+	Distances current = distances;
+	long modificationCount = maze.getModificationCount();
+	int goal = maze.getIndex(goalLocation != null ? goalLocation : maze.getGoalLocation());
+
+	if (current != null && current.modificationCount == modificationCount && current.goal == goal)
+	{
+	    return current;
+	}
+
+	synchronized (this)
+	{
+	    current = distances;
+	    if (current == null || current.modificationCount != modificationCount || current.goal != goal)
+	    {
+		current = compute(modificationCount, goal);
+		distances = current;
+	    }
+	    return current;
+	}
+    }
+
+    /**
+     * Breadth first search from the goal location, recording the distance of
+     * every location reached.
+     */
+    private Distances compute(long modificationCount, int goal)
+    {
+	final int size = maze.getSize();
+	final int stride = maze.getStride();
+	final int[] moves = { stride, -stride, -1, 1 };
+
+	int[] distance = new int[size];
+	Arrays.fill(distance, -1);
+
+	int maxDistance = 0;
+	if (isFree(goal))
+	{
+	    LocationQueue queue = new LocationQueue();
+	    distance[goal] = 0;
+	    queue.addToBackOfQueue(goal);
+
+	    while (queue.isEmpty() == false)
+	    {
+		int location = queue.removeFromFrontOfQueue();
+		int next = distance[location] + 1;
+
+		for (int move : moves)
+		{
+		    int neighbour = location + move;
+		    if (distance[neighbour] < 0 && isFree(neighbour))
+		    {
+			distance[neighbour] = next;
+			maxDistance = next;
+			queue.addToBackOfQueue(neighbour);
+		    }
+		}
+	    }
+	}
+
+	if (maxDistance >= UNREACHED_CHAR)
+	{
+	    return new Distances(modificationCount, goal, null, distance);
+	}
+
+	char[] charDistances = new char[size];
+	for (int i = 0; i < size; i++)
+	{
+	    charDistances[i] = distance[i] < 0 ? UNREACHED_CHAR : (char) distance[i];
+	}
+	return new Distances(modificationCount, goal, charDistances, null);
+    }
+
+    /**
+     * @return true if a path can go through the cell with the given packed index,
+     *         as for {@link AbstractSearchEngine#isPossibleMove(int)}.
+     */
+    private boolean isFree(int index)
+    {
+	short value = maze.getValueAt(index);
+
+	return value == 0 || value == MazeSearchGlobals.GOAL_LOCATION_VALUE
+		|| value == MazeSearchGlobals.START_LOCATION_VALUE;
+    }
+}
@@ -0,0 +1,507 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Landmark distance tables for the ALT (A*, Landmarks, Triangle inequality)
+ * heuristic. A few locations of the maze are chosen as landmarks, and the
+ * length of the shortest path from each landmark to every location is computed
+ * once by a breadth first search. For any landmark L and locations a and b the
+ * triangle inequality gives
+ * 
+ * d(a, b) >= |d(L, a) - d(L, b)|
+ * 
+ * a lower bound of the number of moves from a to b that, on mazes with many
+ * obstacles, is much closer to the real one than the Manhattan distance.
+ * 
+ * The landmarks are spread along the borders of the maze, where the bounds are
+ * the best for the paths crossing it, each one taken in the largest connected
+ * component near its border point. The breadth first searches of the
+ * landmarks run in parallel on the common {@link ForkJoinPool}, and each table
+ * is stored in a char array, 2 bytes per cell: distances above MAX_DISTANCE are
+ * stored as MAX_DISTANCE, which keeps the bounds valid. The tables are computed
+ * on first use and again whenever the maze has been modified, as told by
+ * {@link Maze#getModificationCount()}. See
+ * {@link chap2.search.maze.io.LandmarkFile} to keep them in a file next to the
+ * maze file.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class LandmarkTable
+{
+    /**
+     * The number of landmarks used by default.
+     */
+    public static final int DEFAULT_LANDMARKS = 8;
+
+    /**
+     * The largest distance stored in the tables, longer distances are stored as
+     * this one.
+     */
+    public static final int MAX_DISTANCE = Character.MAX_VALUE - 1;
+
+    // distance of the locations that the landmark cannot reach
+    private static final char UNREACHED = Character.MAX_VALUE;
+
+    // number of landmarks used by the bounds of one search
+    private static final int ACTIVE_LANDMARKS = 4;
+
+    // tables shared by the users of a maze, as long as one of them keeps them
+    private static final Map<Maze, WeakReference<LandmarkTable>> tables = new WeakHashMap<Maze, WeakReference<LandmarkTable>>();
+
+    private final Maze maze;
+
+    private final int count;
+
+    // current tables, replaced as a whole when computed again
+    private volatile Landmarks landmarks = null;
+
+    /**
+     * Landmarks and distance tables computed for the maze as it was at
+     * modificationCount. Never modified once computed.
+     */
+    private static class Landmarks
+    {
+	private final long modificationCount;
+
+	// packed indices of the landmarks
+	private final int[] locations;
+
+	private final char[][] distances;
+
+	private Landmarks(long modificationCount, int[] locations, char[][] distances)
+	{
+	    this.modificationCount = modificationCount;
+	    this.locations = locations;
+	    this.distances = distances;
+	}
+    }
+
+    /**
+     * Lower bounds of the number of moves to one goal location, from the
+     * landmarks that give the best bound for a given start location.
+     */
+    public static final class Estimator
+    {
+	private final char[][] distances;
+
+	// distance of the goal location from each landmark
+	private final int[] goalDistances;
+
+	private Estimator(char[][] distances, int[] goalDistances)
+	{
+	    this.distances = distances;
+	    this.goalDistances = goalDistances;
+	}
+
+	/**
+	 * @param index
+	 *            the packed index of a location of the maze.
+	 * @return a lower bound of the number of moves from the location to the
+	 *         goal location.
+	 */
+	public int estimate(int index)
+	{
+	    int bound = 0;
+	    for (int i = 0; i < distances.length; i++)
+	    {
+		char distance = distances[i][index];
+		if (distance != UNREACHED)
+		{
+		    int difference = Math.abs(distance - goalDistances[i]);
+		    if (difference > bound)
+		    {
+			bound = difference;
+		    }
+		}
+	    }
+	    return bound;
+	}
+    }
+
+    /**
+     * Breadth first searches of a range of landmarks, split in halves until a
+     * single landmark is left.
+     */
+    private class SearchTask extends RecursiveAction
+    {
+	private static final long serialVersionUID = 1L;
+
+	private final int[] locations;
+
+	private final char[][] distances;
+
+	private final int from;
+
+	private final int to;
+
+	private SearchTask(int[] locations, char[][] distances, int from, int to)
+	{
+	    this.locations = locations;
+	    this.distances = distances;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute()
+	{
+	    if (to - from == 1)
+	    {
+		distances[from] = search(locations[from]);
+	    }
+	    else
+	    {
+		int middle = (from + to) >>> 1;
+		invokeAll(new SearchTask(locations, distances, from, middle),
+			new SearchTask(locations, distances, middle, to));
+	    }
+	}
+    }
+
+    /**
+     * Creates the landmark tables of the given maze, with the default number of
+     * landmarks. Nothing is computed until the tables are first used.
+     * 
+     * @param maze
+     *            the maze.
+     */
+    public LandmarkTable(Maze maze)
+    {
+	this(maze, DEFAULT_LANDMARKS);
+    }
+
+    /**
+     * Creates the landmark tables of the given maze. Nothing is computed until
+     * the tables are first used.
+     * 
+     * @param maze
+     *            the maze.
+     * @param count
+     *            the number of landmarks.
+     */
+    public LandmarkTable(Maze maze, int count)
+    {
+	if (count < 1)
+	{
+	    throw new IllegalArgumentException("At least one landmark is needed, not " + count + ".");
+	}
+
+	this.maze = maze;
+	this.count = count;
+    }
+
+    /**
+     * Creates landmark tables from tables already computed for the maze as it is
+     * now, for example read from a file.
+     * 
+     * @param maze
+     *            the maze.
+     * @param locations
+     *            the packed indices of the landmarks.
+     * @param distances
+     *            for each landmark, the distance of every location of the maze,
+     *            by packed index, as returned by
+     *            {@link LandmarkTable#getDistance(int, int)} but with
+     *            Character.MAX_VALUE for the locations that cannot be reached.
+     */
+    public LandmarkTable(Maze maze, int[] locations, char[][] distances)
+    {
+	this(maze, locations.length);
+
+	if (distances.length != locations.length)
+	{
+	    throw new IllegalArgumentException(distances.length + " distance tables for " + locations.length
+		    + " landmarks.");
+	}
+	for (char[] table : distances)
+	{
+	    if (table.length != maze.getSize())
+	    {
+		throw new IllegalArgumentException("Distance table of " + table.length + " locations for a maze of "
+			+ maze.getSize() + " locations.");
+	    }
+	}
+
+	landmarks = new Landmarks(maze.getModificationCount(), locations.clone(), distances.clone());
+    }
+
+    /**
+     * @param maze
+     *            the maze.
+     * @return the landmark tables of the given maze, with the default number of
+     *         landmarks, shared by all the callers for the same maze while one
+     *         of them keeps a reference to them.
+     */
+    public static LandmarkTable forMaze(Maze maze)
+    {
+	synchronized (tables)
+	{
+	    WeakReference<LandmarkTable> reference = tables.get(maze);
+	    LandmarkTable table = reference == null ? null : reference.get();
+	    if (table == null)
+	    {
+		table = new LandmarkTable(maze);
+		tables.put(maze, new WeakReference<LandmarkTable>(table));
+	    }
+	    return table;
+	}
+    }
+
+    /**
+     * @return the maze of the tables.
+     */
+    public Maze getMaze()
+    {
+	return maze;
+    }
+
+    /**
+     * @return the number of landmarks.
+     */
+    public int getLandmarkCount()
+    {
+	return count;
+    }
+
+    /**
+     * @param landmark
+     *            the number of a landmark, from 0 to getLandmarkCount() - 1.
+     * @return the packed index of the landmark.
+     */
+    public int getLandmark(int landmark)
+    {
+	return update().locations[landmark];
+    }
+
+    /**
+     * @param landmark
+     *            the number of a landmark, from 0 to getLandmarkCount() - 1.
+     * @param index
+     *            the packed index of a location of the maze.
+     * @return the length of the shortest path from the landmark to the location,
+     *         in moves, MAX_DISTANCE if it is longer, -1 if there is no path.
+     */
+    public int getDistance(int landmark, int index)
+    {
+	char distance = update().distances[landmark][index];
+	return distance == UNREACHED ? -1 : distance;
+    }
+
+    /**
+     * @param start
+     *            the packed index of the start location of a search.
+     * @param goal
+     *            the packed index of its goal location.
+     * @return the lower bounds to the goal location, from the landmarks giving
+     *         the best bound for the start location.
+     */
+    public Estimator getEstimator(int start, int goal)
+    {
+	final Landmarks current = update();
+
+	// bound of the landmarks reaching the goal, -1 for the other ones
+	int[] bounds = new int[count];
+	int reaching = 0;
+	for (int i = 0; i < count; i++)
+	{
+	    char goalDistance = current.distances[i][goal];
+	    char startDistance = current.distances[i][start];
+	    if (goalDistance == UNREACHED)
+	    {
+		bounds[i] = -1;
+	    }
+	    else
+	    {
+		bounds[i] = startDistance == UNREACHED ? 0 : Math.abs(startDistance - goalDistance);
+		reaching++;
+	    }
+	}
+
+	// the active landmarks, by decreasing bound
+	int active = Math.min(ACTIVE_LANDMARKS, reaching);
+	char[][] distances = new char[active][];
+	int[] goalDistances = new int[active];
+	for (int i = 0; i < active; i++)
+	{
+	    int best = 0;
+	    for (int j = 1; j < count; j++)
+	    {
+		if (bounds[j] > bounds[best])
+		{
+		    best = j;
+		}
+	    }
+	    distances[i] = current.distances[best];
+	    goalDistances[i] = current.distances[best][goal];
+	    bounds[best] = -1;
+	}
+	return new Estimator(distances, goalDistances);
+    }
+
+    /**
+     * @return the tables for the maze as it is now, computed again if the maze
+     *         has changed since they were last computed.
+     */
+    private Landmarks update()
+    {
+	Landmarks current = landmarks;
+	long modificationCount = maze.getModificationCount();
+
+	if (current != null && current.modificationCount == modificationCount)
+	{
+	    return current;
+	}
+
+	synchronized (this)
+	{
+	    current = landmarks;
+	    if (current == null || current.modificationCount != modificationCount)
+	    {
+		int[] locations = selectLandmarks();
+		char[][] distances = new char[count][];
+		ForkJoinPool.commonPool().invoke(new SearchTask(locations, distances, 0, count));
+
+		current = new Landmarks(modificationCount, locations, distances);
+		landmarks = current;
+	    }
+	    return current;
+	}
+    }
+
+    /**
+     * Spreads the landmarks at regular intervals along the borders of the maze.
+     * From each border point, the landmark is the first location toward the
+     * center of the maze that belongs to a component covering a quarter of the
+     * maze at least, or else the location of the largest component met. The
+     * components are labelled for the selection only, so that the table does
+     * not keep labels of the maze up to date as it changes.
+     * 
+     * @return the packed indices of the landmarks.
+     */
+    private int[] selectLandmarks()
+    {
+	final int rows = maze.getRows();
+	final int columns = maze.getColumns();
+	final long perimeter = 2L * (rows + columns);
+	final ComponentLabels labels = new ComponentLabels(maze);
+
+	int[] locations = new int[count];
+	for (int i = 0; i < count; i++)
+	{
+	    // border point, clockwise from the top left corner
+	    long position = perimeter * i / count;
+	    int row;
+	    int column;
+	    if (position < columns)
+	    {
+		row = 0;
+		column = (int) position;
+	    }
+	    else if (position < columns + rows)
+	    {
+		row = (int) (position - columns);
+		column = columns - 1;
+	    }
+	    else if (position < 2L * columns + rows)
+	    {
+		row = rows - 1;
+		column = (int) (2L * columns + rows - 1 - position);
+	    }
+	    else
+	    {
+		row = (int) (perimeter - 1 - position);
+		column = 0;
+	    }
+
+	    int steps = Math.max(Math.abs(rows / 2 - row), Math.abs(columns / 2 - column));
+	    int best = maze.getIndex(row, column);
+	    int bestSize = 0;
+	    for (int step = 0; step <= steps; step++)
+	    {
+		int index = maze.getIndex(row + (int) ((long) (rows / 2 - row) * step / Math.max(1, steps)), column
+			+ (int) ((long) (columns / 2 - column) * step / Math.max(1, steps)));
+		if (isFree(index))
+		{
+		    int size = labels.getComponentSize(labels.getLabel(index));
+		    if (size > bestSize)
+		    {
+			best = index;
+			bestSize = size;
+		    }
+		    if (4L * size >= (long) rows * columns)
+		    {
+			break;
+		    }
+		}
+	    }
+	    locations[i] = best;
+	}
+	labels.dispose();
+
+	return locations;
+    }
+
+    /**
+     * Breadth first search from a landmark, recording the distance of every
+     * location reached.
+     */
+    private char[] search(int landmark)
+    {
+	final int stride = maze.getStride();
+	final int[] moves = { stride, -stride, -1, 1 };
+
+	char[] distance = new char[maze.getSize()];
+	Arrays.fill(distance, UNREACHED);
+	if (isFree(landmark) == false)
+	{
+	    return distance;
+	}
+
+	int[] queue = new int[maze.getSize()];
+	int head = 0;
+	int tail = 0;
+	distance[landmark] = 0;
+	queue[tail++] = landmark;
+
+	while (head < tail)
+	{
+	    int location = queue[head++];
+	    char next = (char) Math.min(distance[location] + 1, MAX_DISTANCE);
+
+	    for (int move : moves)
+	    {
+		int neighbour = location + move;
+		if (distance[neighbour] == UNREACHED && isFree(neighbour))
+		{
+		    distance[neighbour] = next;
+		    queue[tail++] = neighbour;
+		}
+	    }
+	}
+
+	return distance;
+    }
+
+    /**
+     * @return true if a path can go through the cell with the given packed index,
+     *         as for {@link AbstractSearchEngine#isPossibleMove(int)}.
+     */
+    private boolean isFree(int index)
+    {
+	short value = maze.getValueAt(index);
+
+	return value == 0 || value == MazeSearchGlobals.GOAL_LOCATION_VALUE
+		|| value == MazeSearchGlobals.START_LOCATION_VALUE;
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * We use a queue data structure for storing possible moves, placing possible
+ * moves on the back of the queue as they are calculated, and pulling test moves
+ * from the front of the queue. The effect of a breadth first search is that it
+ * "fans out" uniformly from the starting node until the goal node is found.
+ * 
+ * Locations are stored as packed indices (see {@link Maze#getIndex(int, int)})
+ * in a ring buffer of ints. The capacity of the buffer is always a power of two,
+ * so that wrapping around is a simple mask, and the buffer doubles in size when
+ * it is full: no location is ever overwritten, however large the search
+ * frontier grows.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class LocationQueue
+{
+    private int[] queue = null;
+
+    private int	  tail	= 0;
+
+    private int	  head	= 0;
+
+    // queue.length - 1, used to wrap head and tail around the buffer
+    private int	  mask	= 0;
+
+    /**
+     * @param num
+     *            the initial capacity of the queue, rounded up to a power of two.
+     */
+    public LocationQueue(int num)
+    {
+	int capacity = Integer.highestOneBit(Math.max(num, 2) - 1) << 1;
+
+	queue = new int[capacity];
+	mask = capacity - 1;
+    }
+
+    public LocationQueue()
+    {
+	this(400);
+    }
+
+    public void addToBackOfQueue(int n)
+    {
+	queue[tail] = n;
+	tail = (tail + 1) & mask;
+
+	if (tail == head)
+	{
+	    grow();
+	}
+    }
+
+    /**
+     * Removes the location at the front of the queue. The queue must not be
+     * empty.
+     * 
+     * @return the location at the front of the queue.
+     */
+    public int removeFromFrontOfQueue()
+    {
+	int ret = queue[head];
+	head = (head + 1) & mask;
+	return ret;
+    }
+
+    public boolean isEmpty()
+    {
+	return head == tail;
+    }
+
+    /**
+     * @return the location at the front of the queue. The queue must not be
+     *         empty.
+     */
+    public int peekAtFrontOfQueue()
+    {
+	return queue[head];
+    }
+
+    /**
+     * @return the number of locations in the queue.
+     */
+    public int size()
+    {
+	return (tail - head) & mask;
+    }
+
+    /**
+     * @return the current capacity of the queue.
+     */
+    public int capacity()
+    {
+	return queue.length;
+    }
+
+    /**
+     * Removes all the locations from the queue, keeping its capacity.
+     */
+    public void clear()
+    {
+	head = tail = 0;
+    }
+
+    /**
+     * Doubles the capacity of the full queue, moving the locations so that the
+     * front of the queue is at the beginning of the new buffer.
+     */
+    private void grow()
+    {
+	int length = queue.length;
+	if (length == 1 << 30)
+	{
+	    throw new IllegalStateException("LocationQueue capacity exceeded.");
+	}
+
+	int[] newQueue = new int[length << 1];
+	System.arraycopy(queue, head, newQueue, 0, length - head);
+	System.arraycopy(queue, 0, newQueue, length - head, head);
+
+	queue = newQueue;
+	mask = newQueue.length - 1;
+	head = 0;
+	tail = length;
+    }
+
+    /**
+     * Developer test harness. Stress tests the queue against
+     * {@link ArrayDeque}, letting the queue grow up to millions of locations while
+     * its content is wrapped around the end of the buffer.
+     * 
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+	int locations = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+
+	LocationQueue queue = new LocationQueue(4);
+	ArrayDeque<Integer> expected = new ArrayDeque<Integer>();
+	Random random = new Random(42);
+
+	long startTime = System.nanoTime();
+	int maxSize = 0;
+	for (int i = 0; i < locations; i++)
+	{
+	    queue.addToBackOfQueue(i);
+	    expected.addLast(i);
+
+	    // remove on average three locations every eight additions, so that the queue
+	    // keeps growing while its head moves around the buffer
+	    if (random.nextInt(4) == 0)
+	    {
+		for (int j = random.nextInt(4); j > 0 && expected.isEmpty() == false; j--)
+		{
+		    if (queue.removeFromFrontOfQueue() != expected.removeFirst())
+		    {
+			throw new IllegalStateException("Wrong location removed after " + i + " additions.");
+		    }
+		}
+	    }
+	    maxSize = Math.max(maxSize, queue.size());
+	}
+
+	while (expected.isEmpty() == false)
+	{
+	    if (queue.peekAtFrontOfQueue() != expected.peekFirst() || queue.size() != expected.size())
+	    {
+		throw new IllegalStateException("Queue content differs while draining.");
+	    }
+	    if (queue.removeFromFrontOfQueue() != expected.removeFirst())
+	    {
+		throw new IllegalStateException("Wrong location removed while draining.");
+	    }
+	}
+
+	if (queue.isEmpty() == false)
+	{
+	    throw new IllegalStateException("Queue not empty after draining.");
+	}
+
+	System.out.println(locations + " locations queued, up to " + maxSize + " at once (capacity "
+		+ queue.capacity() + ") in " + (System.nanoTime() - startTime) / 1000000 + " ms: OK.");
+    }
+}
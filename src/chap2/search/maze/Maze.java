@@ -5,12 +5,30 @@
  */
 package chap2.search.maze;
 
+import java.util.Arrays;
+
 /**
  * This class represents a search space as a 2D maze. The class Maze is used to
  * record the data for a two-dimensional maze, including which grid locations
  * contain walls or obstacles. From an abstract point of view a maze can be seen
  * as a matrix with a certain amount of rows and columns.
  * 
+ * The maze cells, including a one cell wide border of obstacles all around the
+ * maze, are stored row after row in a single short array. A cell can be
+ * addressed either by its row and column indices or by its packed index
+ * (row + 1) * stride + (column + 1), where the stride is the number of columns
+ * plus 2 (see {@link Maze#getIndex(int, int)}). Thanks to the border, the
+ * neighbours of any cell inside the maze are simply index + 1, index - 1,
+ * index + stride and index - stride, without any bounds checking.
+ * 
+ * Concurrency policy: reads are not synchronized. Writes are serialized on an
+ * internal lock and published by incrementing the volatile modification count
+ * (see {@link Maze#getModificationCount()}), so a reader that reads the
+ * modification count before reading the cells sees every write made before
+ * that count was reached. Searches are expected to run while nobody is writing
+ * to the maze: to search a maze that keeps being written, search an immutable
+ * snapshot of it instead (see {@link Maze#snapshot()}).
+ * 
  * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
  */
 public class Maze
@@ -27,15 +45,43 @@ public class Maze
     // goal location of the maze
     private Location  goalLocation  = new Location();
 
+    // number of cells in a row of the grid, borders included
+    private int	      stride	    = 0;
+
     /**
      * The maze (or search space) data is stored as a short integer rather than as a
      * boolean so that breath-first style searches can use the array to store search
-     * depth. A value of -1 indicates a barrier in the maze.
+     * depth. A value of -1 indicates a barrier in the maze. It is null when a
+     * subclass stores the cells itself.
+     */
+    private short[]   maze;
+
+    // lock used to serialize writes to the maze
+    private final Object writeLock = new Object();
+
+    // number of writes made to the maze, used to publish them to the readers
+    private volatile long modificationCount = 0;
+
+    // listeners notified of the writes, replaced as a whole when one is added
+    private MazeListener[] listeners = new MazeListener[0];
+
+    /**
+     * Snapshots share the cells in tiles of TILE_SIZE consecutive packed indices.
+     * The last snapshot taken is kept, with one bit per tile written since then:
+     * the next snapshot copies the tiles written and shares the other ones.
      */
-    private short[][] maze;
+    static final int	   TILE_SHIFT	 = 12;
+
+    static final int	   TILE_SIZE	 = 1 << TILE_SHIFT;
+
+    private MazeSnapshot   snapshot	 = null;
+
+    private long[]	   writtenTiles	 = null;
 
     /**
-     * Creates a maze with the given number of rows and columns.
+     * Creates a random maze with the given number of rows and columns, about a
+     * third of its locations being obstacles. Use a {@link MazeGenerator} to get
+     * reproducible mazes.
      * 
      * @param rows
      *            the number of rows for the maze.
@@ -44,41 +90,39 @@ public class Maze
      */
     public Maze(int rows, int columns)
     {
-	this.rows = rows;
-	this.columns = columns;
-
-	// Rows and columns are increment by 2 in order to be able to add borders to the
-	// maze.
-	maze = new short[getRows() + 2][getColumns() + 2];
+	this(rows, columns, new MazeGenerator(System.nanoTime(), MazeGenerator.DEFAULT_DENSITY));
+    }
 
-	for (int i = 0; i < getRows() + 2; i++)
-	{
-	    for (int j = 0; j < getColumns() + 2; j++)
-	    {
-		maze[i][j] = 0;
-	    }
-	}
+    /**
+     * Creates a maze with the given number of rows and columns, whose obstacles
+     * are placed by the given generator.
+     * 
+     * @param rows
+     *            the number of rows for the maze.
+     * @param columns
+     *            the number of columns for the maze.
+     * @param generator
+     *            the generator placing the obstacles.
+     */
+    public Maze(int rows, int columns, MazeGenerator generator)
+    {
+	this(rows, columns, new Location(), new Location());
+	maze = new short[getSize()];
 
 	// Adding top and bottom borders.
-	for (int i = 0; i < getColumns() + 2; i++)
+	for (int i = 0; i < stride; i++)
 	{
-	    maze[0][i] = maze[getRows() + 1][i] = MazeSearchGlobals.OBSTACLE;
+	    maze[i] = maze[(getRows() + 1) * stride + i] = MazeSearchGlobals.OBSTACLE;
 	}
 
 	// Adding left and right borders.
 	for (int i = 0; i < getRows() + 2; i++)
 	{
-	    maze[i][0] = maze[i][getColumns() + 1] = MazeSearchGlobals.OBSTACLE;
+	    maze[i * stride] = maze[i * stride + stride - 1] = MazeSearchGlobals.OBSTACLE;
 	}
 
 	// Randomizes the maze by putting up arbitrary obstacles.
-	int max_obsticles = (getRows() * getColumns()) / 3;
-	for (int i = 0; i < max_obsticles; i++)
-	{
-	    int x = (int) (Math.random() * getRows());
-	    int y = (int) (Math.random() * getColumns());
-	    setValue(x, y, MazeSearchGlobals.OBSTACLE);
-	}
+	generator.fill(maze, getRows(), getColumns());
 
 	// Setting the start location.
 	// TODO: let the user decide the starting location
@@ -93,6 +137,37 @@ public class Maze
 	setValue(goalLocation, MazeSearchGlobals.GOAL_LOCATION_VALUE);
     }
 
+    /**
+     * Creates a maze whose cells are not stored in a short array. Subclasses
+     * provide the cells by overriding {@link Maze#getValueAt(int)} and
+     * {@link Maze#storeValueAt(int, short)}.
+     * 
+     * @param rows
+     *            the number of rows for the maze.
+     * @param columns
+     *            the number of columns for the maze.
+     * @param startLocation
+     *            the starting location of the maze.
+     * @param goalLocation
+     *            the goal location of the maze.
+     */
+    protected Maze(int rows, int columns, Location startLocation, Location goalLocation)
+    {
+	// Rows and columns are increment by 2 in order to be able to add borders to the
+	// maze.
+	if ((rows + 2L) * (columns + 2) > Integer.MAX_VALUE)
+	{
+	    throw new IllegalArgumentException("A " + rows + "x" + columns
+		    + " maze has too many cells to be addressed by packed indices.");
+	}
+
+	this.rows = rows;
+	this.columns = columns;
+	this.stride = columns + 2;
+	this.startLocation = startLocation;
+	this.goalLocation = goalLocation;
+    }
+
     /**
      * @param row
      *            the location row index.
@@ -102,9 +177,9 @@ public class Maze
      *            the new value for the location in the maze identified by the given
      *            indices row and column.
      */
-    synchronized public void setValue(int row, int column, short value)
+    public void setValue(int row, int column, short value)
     {
-	maze[row + 1][column + 1] = value;
+	setValueAt(getIndex(row, column), value);
     }
 
     /**
@@ -114,7 +189,7 @@ public class Maze
      * @param value
      *            the new value for the given location.
      */
-    synchronized public void setValue(Location location, short value)
+    public void setValue(Location location, short value)
     {
 	setValue(location.getRow(), location.getColumn(), value);
     }
@@ -127,9 +202,240 @@ public class Maze
      * @return the current value of the location in the maze identified by the given
      *         indices row and column.
      */
-    synchronized public short getValue(int row, int column)
+    public short getValue(int row, int column)
+    {
+	return getValueAt(getIndex(row, column));
+    }
+
+    /**
+     * Sets the value of the cell with the given packed index. Writes are
+     * serialized and published to the readers through the modification count,
+     * then the listeners of the maze are notified.
+     * 
+     * @param index
+     *            the packed index of the cell, see {@link Maze#getIndex(int, int)}.
+     * @param value
+     *            the new value for the cell.
+     */
+    public void setValueAt(int index, short value)
+    {
+	synchronized (writeLock)
+	{
+	    short oldValue = listeners.length > 0 ? getValueAt(index) : value;
+
+	    storeValueAt(index, value);
+	    modificationCount++;
+
+	    if (writtenTiles != null)
+	    {
+		int tile = index >>> TILE_SHIFT;
+		writtenTiles[tile >>> 6] |= 1L << tile;
+	    }
+
+	    for (MazeListener listener : listeners)
+	    {
+		listener.valueChanged(this, index, oldValue, value);
+	    }
+	}
+    }
+
+    /**
+     * Takes an immutable snapshot of the maze as it is now. The snapshot can be
+     * searched without any locking by any number of threads while the maze keeps
+     * being written. Snapshots share the cells that have not been written between
+     * them, in tiles of a few thousand cells: the first snapshot copies the whole
+     * maze, the next ones only the tiles written since the previous one, and a
+     * snapshot of a maze that has not been written since is the previous
+     * snapshot itself.
+     * 
+     * @return the snapshot.
+     */
+    public MazeSnapshot snapshot()
+    {
+	synchronized (writeLock)
+	{
+	    if (snapshot != null && snapshot.getVersion() == modificationCount)
+	    {
+		return snapshot;
+	    }
+
+	    final int size = getSize();
+	    final int count = (size + TILE_SIZE - 1) >>> TILE_SHIFT;
+
+	    short[][] tiles;
+	    if (snapshot == null)
+	    {
+		tiles = new short[count][];
+		writtenTiles = new long[(count + 63) >>> 6];
+		Arrays.fill(writtenTiles, -1L);
+	    }
+	    else
+	    {
+		tiles = snapshot.getTiles().clone();
+	    }
+
+	    for (int tile = 0; tile < count; tile++)
+	    {
+		if ((writtenTiles[tile >>> 6] & (1L << tile)) != 0)
+		{
+		    int from = tile << TILE_SHIFT;
+		    if (maze != null)
+		    {
+			// the last tile is padded with zeros
+			tiles[tile] = Arrays.copyOfRange(maze, from, from + TILE_SIZE);
+		    }
+		    else
+		    {
+			tiles[tile] = new short[TILE_SIZE];
+			for (int i = 0, last = Math.min(TILE_SIZE, size - from); i < last; i++)
+			{
+			    tiles[tile][i] = getValueAt(from + i);
+			}
+		    }
+		}
+	    }
+	    Arrays.fill(writtenTiles, 0L);
+
+	    snapshot = new MazeSnapshot(rows, columns, new Location(startLocation.getRow(), startLocation.getColumn()),
+		    new Location(goalLocation.getRow(), goalLocation.getColumn()), tiles, modificationCount);
+	    return snapshot;
+	}
+    }
+
+    /**
+     * Adds a listener notified of every write made to the maze from now on.
+     * 
+     * @param listener
+     *            the listener to add.
+     */
+    public void addMazeListener(MazeListener listener)
+    {
+	synchronized (writeLock)
+	{
+	    MazeListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+	    added[listeners.length] = listener;
+	    listeners = added;
+	}
+    }
+
+    /**
+     * Removes a listener added by {@link Maze#addMazeListener(MazeListener)}.
+     * 
+     * @param listener
+     *            the listener to remove.
+     */
+    public void removeMazeListener(MazeListener listener)
+    {
+	synchronized (writeLock)
+	{
+	    for (int i = 0; i < listeners.length; i++)
+	    {
+		if (listeners[i] == listener)
+		{
+		    MazeListener[] removed = new MazeListener[listeners.length - 1];
+		    System.arraycopy(listeners, 0, removed, 0, i);
+		    System.arraycopy(listeners, i + 1, removed, i, removed.length - i);
+		    listeners = removed;
+		    return;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Stores the value of a cell, called by {@link Maze#setValueAt(int, short)}
+     * while holding the write lock.
+     * 
+     * @param index
+     *            the packed index of the cell.
+     * @param value
+     *            the new value for the cell.
+     */
+    protected void storeValueAt(int index, short value)
+    {
+	maze[index] = value;
+    }
+
+    /**
+     * @param index
+     *            the packed index of the cell, see {@link Maze#getIndex(int, int)}.
+     * @return the current value of the cell with the given packed index.
+     */
+    public short getValueAt(int index)
+    {
+	return maze[index];
+    }
+
+    /**
+     * @param row
+     *            the location row index, from -1 (top border) to rows (bottom
+     *            border).
+     * @param column
+     *            the location column index, from -1 (left border) to columns
+     *            (right border).
+     * @return the packed index of the cell identified by the given row and column
+     *         indices.
+     */
+    public int getIndex(int row, int column)
+    {
+	return (row + 1) * stride + column + 1;
+    }
+
+    /**
+     * @param location
+     *            the location in the maze.
+     * @return the packed index of the given location.
+     */
+    public int getIndex(Location location)
+    {
+	return getIndex(location.getRow(), location.getColumn());
+    }
+
+    /**
+     * @param index
+     *            the packed index of a cell.
+     * @return the row index of the cell with the given packed index.
+     */
+    public int getRow(int index)
+    {
+	return index / stride - 1;
+    }
+
+    /**
+     * @param index
+     *            the packed index of a cell.
+     * @return the column index of the cell with the given packed index.
+     */
+    public int getColumn(int index)
+    {
+	return index % stride - 1;
+    }
+
+    /**
+     * @return the number of cells in a row of the grid, borders included. Adding
+     *         or subtracting the stride to a packed index moves one row down or up.
+     */
+    public int getStride()
+    {
+	return stride;
+    }
+
+    /**
+     * @return the number of cells in the grid, borders included. Packed indices
+     *         range from 0 to size - 1.
+     */
+    public int getSize()
+    {
+	return (rows + 2) * stride;
+    }
+
+    /**
+     * @return the number of writes made to the maze so far. Reading it publishes
+     *         every write counted to the calling thread.
+     */
+    public long getModificationCount()
     {
-	return maze[row + 1][column + 1];
+	return modificationCount;
     }
 
     /**
@@ -171,9 +477,9 @@ public class Maze
     {
 	for (int i = 0; i < getRows() + 2; i++)
 	{
-	    for (int j = 0; j < getColumns() + 2; j++)
+	    for (int j = 0; j < stride; j++)
 	    {
-		System.out.print(maze[i][j]);
+		System.out.print(getValueAt(i * stride + j));
 	    }
 	    System.out.println();
 	}
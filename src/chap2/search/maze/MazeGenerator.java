@@ -0,0 +1,314 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Seeded, parallel generator of random mazes. Every location of the maze is an
+ * obstacle with the given probability (the obstacle density), except the start
+ * location and the goal location.
+ * 
+ * The rows of the maze are split into blocks of about BLOCK_CELLS cells, and
+ * each block is filled from its own {@link SplittableRandom}, split from the
+ * seed in block order before any block is filled. The blocks are then filled
+ * in parallel on a {@link ForkJoinPool}, writing directly into the cells of the
+ * new maze. Since the block boundaries and the random sequence of each block
+ * only depend on the seed and on the number of columns, the same seed always
+ * produces the same maze, whatever the number of threads.
+ * 
+ * With the default parallelism the blocks are filled on the common pool, whose
+ * threads and the calling thread make one thread per available processor. Any
+ * other parallelism gets a pool of its own, created by the first generation and
+ * kept by the generator for the next ones, so that generating many small mazes
+ * does not start new threads each time.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class MazeGenerator
+{
+    /**
+     * Obstacle density of the mazes created by {@link Maze#Maze(int, int)}.
+     */
+    public static final double DEFAULT_DENSITY = 1.0 / 3;
+
+    // approximate number of cells filled by a single task
+    private static final int   BLOCK_CELLS	   = 1 << 16;
+
+    // seed of the random number generator
+    private final long	       seed;
+
+    // probability of a location to be an obstacle
+    private final double       density;
+
+    // number of threads filling the maze
+    private int		       parallelism	   = Runtime.getRuntime().availableProcessors();
+
+    // pool filling the mazes when the common pool does not have the parallelism,
+    // created by the first generation that needs it and replaced when the
+    // parallelism changes
+    private ForkJoinPool       pool		   = null;
+
+    /**
+     * Creates a generator of mazes.
+     * 
+     * @param seed
+     *            the seed of the random number generator.
+     * @param density
+     *            the probability of a location to be an obstacle, from 0 to 1.
+     */
+    public MazeGenerator(long seed, double density)
+    {
+	if (density < 0 || density > 1)
+	{
+	    throw new IllegalArgumentException("Obstacle density must be between 0 and 1: " + density);
+	}
+
+	this.seed = seed;
+	this.density = density;
+    }
+
+    /**
+     * Sets the number of threads used to fill the mazes. It changes the time
+     * taken to generate a maze, never the maze itself.
+     * 
+     * @param parallelism
+     *            the number of threads, 1 to generate on the calling thread only.
+     * @return this generator.
+     */
+    public MazeGenerator setParallelism(int parallelism)
+    {
+	if (parallelism < 1)
+	{
+	    throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+	}
+
+	this.parallelism = parallelism;
+	return this;
+    }
+
+    /**
+     * @return the number of threads used to fill the mazes.
+     */
+    public int getParallelism()
+    {
+	return parallelism;
+    }
+
+    /**
+     * @return the seed of the random number generator.
+     */
+    public long getSeed()
+    {
+	return seed;
+    }
+
+    /**
+     * @return the probability of a location to be an obstacle.
+     */
+    public double getDensity()
+    {
+	return density;
+    }
+
+    /**
+     * Generates a new random maze.
+     * 
+     * @param rows
+     *            the number of rows for the maze.
+     * @param columns
+     *            the number of columns for the maze.
+     * @return the new maze.
+     */
+    public Maze generate(int rows, int columns)
+    {
+	return new Maze(rows, columns, this);
+    }
+
+    /**
+     * Fills the locations of a maze, borders excluded, with obstacles and empty
+     * cells. Called by the maze constructor before the maze is published, so the
+     * cells are written without going through the write lock of the maze.
+     * 
+     * @param cells
+     *            the cells of the maze, see {@link Maze#getIndex(int, int)}.
+     * @param rows
+     *            the number of rows of the maze.
+     * @param columns
+     *            the number of columns of the maze.
+     */
+    void fill(short[] cells, int rows, int columns)
+    {
+	int rowsPerBlock = Math.max(1, BLOCK_CELLS / Math.max(1, columns));
+	int blocks = (rows + rowsPerBlock - 1) / rowsPerBlock;
+
+	// the generators are split in block order, so that they do not depend on
+	// which thread fills which block
+	SplittableRandom random = new SplittableRandom(seed);
+	SplittableRandom[] blockRandoms = new SplittableRandom[blocks];
+	for (int i = 0; i < blocks; i++)
+	{
+	    blockRandoms[i] = random.split();
+	}
+
+	FillTask task = new FillTask(cells, rows, columns, rowsPerBlock, blockRandoms, 0, blocks);
+	if (parallelism == 1 || blocks == 1)
+	{
+	    task.fillBlocks();
+	}
+	else
+	{
+	    getPool().invoke(task);
+	}
+    }
+
+    /**
+     * @return the pool filling the mazes: the common pool if the parallelism is
+     *         the default one or the one of the common pool, or else the pool of
+     *         this generator.
+     */
+    private synchronized ForkJoinPool getPool()
+    {
+	if (parallelism == Runtime.getRuntime().availableProcessors()
+		|| parallelism == ForkJoinPool.getCommonPoolParallelism())
+	{
+	    return ForkJoinPool.commonPool();
+	}
+
+	if (pool == null || pool.getParallelism() != parallelism)
+	{
+	    if (pool != null)
+	    {
+		pool.shutdown();
+	    }
+	    pool = new ForkJoinPool(parallelism);
+	}
+	return pool;
+    }
+
+    /**
+     * Fills a range of blocks of rows, splitting the range in halves until it is
+     * a single block.
+     */
+    private class FillTask extends RecursiveAction
+    {
+	private static final long	 serialVersionUID = 1L;
+
+	private final short[]		 cells;
+
+	private final int		 rows;
+
+	private final int		 columns;
+
+	private final int		 rowsPerBlock;
+
+	private final SplittableRandom[] blockRandoms;
+
+	private final int		 fromBlock;
+
+	private final int		 toBlock;
+
+	FillTask(short[] cells, int rows, int columns, int rowsPerBlock, SplittableRandom[] blockRandoms,
+		int fromBlock, int toBlock)
+	{
+	    this.cells = cells;
+	    this.rows = rows;
+	    this.columns = columns;
+	    this.rowsPerBlock = rowsPerBlock;
+	    this.blockRandoms = blockRandoms;
+	    this.fromBlock = fromBlock;
+	    this.toBlock = toBlock;
+	}
+
+	@Override
+	protected void compute()
+	{
+	    if (toBlock - fromBlock == 1)
+	    {
+		fillBlocks();
+	    }
+	    else
+	    {
+		int middle = (fromBlock + toBlock) >>> 1;
+		invokeAll(new FillTask(cells, rows, columns, rowsPerBlock, blockRandoms, fromBlock, middle),
+			new FillTask(cells, rows, columns, rowsPerBlock, blockRandoms, middle, toBlock));
+	    }
+	}
+
+	void fillBlocks()
+	{
+	    final int stride = columns + 2;
+
+	    for (int block = fromBlock; block < toBlock; block++)
+	    {
+		SplittableRandom random = blockRandoms[block];
+		int lastRow = Math.min(rows, (block + 1) * rowsPerBlock);
+
+		for (int i = block * rowsPerBlock; i < lastRow; i++)
+		{
+		    int index = (i + 1) * stride + 1;
+		    for (int j = 0; j < columns; j++, index++)
+		    {
+			cells[index] = random.nextDouble() < density ? MazeSearchGlobals.OBSTACLE : 0;
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Developer test harness. Generates the same maze with one thread and with
+     * several threads (by default one per available processor), checks that the
+     * two mazes are identical and prints the generation times. The default maze
+     * has 100 million cells, which needs a heap of at least 512 MB.
+     * 
+     * @param args
+     *            the number of rows, the number of columns, the seed and the
+     *            number of threads.
+     */
+    public static void main(String[] args)
+    {
+	int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+	int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+	long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+
+	MazeGenerator generator = new MazeGenerator(seed, DEFAULT_DENSITY);
+	int processors = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+	for (int iteration = 0; iteration < 3; iteration++)
+	{
+	    long startTime = System.nanoTime();
+	    Maze sequential = generator.setParallelism(1).generate(rows, columns);
+	    long sequentialTime = System.nanoTime() - startTime;
+
+	    startTime = System.nanoTime();
+	    Maze parallel = generator.setParallelism(processors).generate(rows, columns);
+	    long parallelTime = System.nanoTime() - startTime;
+
+	    long obstacles = 0;
+	    for (int index = 0; index < sequential.getSize(); index++)
+	    {
+		if (sequential.getValueAt(index) != parallel.getValueAt(index))
+		{
+		    throw new IllegalStateException("Mazes differ at location " + sequential.getRow(index) + ", "
+			    + sequential.getColumn(index) + ".");
+		}
+		if (sequential.getValueAt(index) == MazeSearchGlobals.OBSTACLE)
+		{
+		    obstacles++;
+		}
+	    }
+
+	    // the borders are obstacles too
+	    obstacles -= 2L * (rows + columns + 2);
+	    System.out.println(rows + "x" + columns + " maze, density " + (double) obstacles / rows / columns
+		    + ": 1 thread " + sequentialTime / 1000000 + " ms, " + processors + " threads "
+		    + parallelTime / 1000000 + " ms, identical.");
+	}
+    }
+}
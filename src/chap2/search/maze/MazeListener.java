@@ -0,0 +1,31 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+/**
+ * Listener notified of the writes made to a maze, see
+ * {@link Maze#addMazeListener(MazeListener)}. It is used by the structures
+ * derived from the maze that are cheaper to update than to compute again.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public interface MazeListener
+{
+    /**
+     * Called after the value of a cell has been written, while holding the write
+     * lock of the maze, so that the calls are serialized.
+     * 
+     * @param maze
+     *            the maze written.
+     * @param index
+     *            the packed index of the cell, see {@link Maze#getIndex(int, int)}.
+     * @param oldValue
+     *            the value of the cell before the write.
+     * @param newValue
+     *            the value of the cell after the write.
+     */
+    void valueChanged(Maze maze, int index, short oldValue, short newValue);
+}
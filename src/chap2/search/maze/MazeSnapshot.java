@@ -0,0 +1,260 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+import chap2.search.maze.depthfirst.DepthFirstSearchEngine;
+
+/**
+ * An immutable snapshot of a maze, taken by {@link Maze#snapshot()}. Its cells
+ * never change, so that any number of search engines can read it from any
+ * number of threads without locking, while the maze it was taken from keeps
+ * being written. The cells are stored in tiles of consecutive packed indices,
+ * shared with the other snapshots of the same maze, and a cell is read with
+ * two array accesses instead of one.
+ * 
+ * Writing to a snapshot throws an UnsupportedOperationException, its
+ * modification count stays 0. The modification count of the maze when the
+ * snapshot was taken is given by {@link MazeSnapshot#getVersion()}.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class MazeSnapshot extends Maze
+{
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    // cells of the snapshot, shared with the other snapshots of the maze
+    private final short[][]  tiles;
+
+    // modification count of the maze when the snapshot was taken
+    private final long	     version;
+
+    /**
+     * Creates a snapshot, see {@link Maze#snapshot()}.
+     */
+    MazeSnapshot(int rows, int columns, Location startLocation, Location goalLocation, short[][] tiles, long version)
+    {
+	super(rows, columns, startLocation, goalLocation);
+
+	this.tiles = tiles;
+	this.version = version;
+    }
+
+    @Override
+    public short getValueAt(int index)
+    {
+	return tiles[index >>> TILE_SHIFT][index & TILE_MASK];
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     *             always, a snapshot cannot be modified.
+     */
+    @Override
+    protected void storeValueAt(int index, short value)
+    {
+	throw new UnsupportedOperationException("A maze snapshot cannot be modified.");
+    }
+
+    /**
+     * @return the snapshot itself, which never changes.
+     */
+    @Override
+    public MazeSnapshot snapshot()
+    {
+	return this;
+    }
+
+    /**
+     * @return the modification count of the maze when the snapshot was taken.
+     */
+    public long getVersion()
+    {
+	return version;
+    }
+
+    /**
+     * @return the tiles of the snapshot, which must not be modified.
+     */
+    short[][] getTiles()
+    {
+	return tiles;
+    }
+
+    /**
+     * Developer test harness. Checks the snapshots searched concurrently while
+     * the maze is written, then measures the time taken by the snapshots.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze and the number of
+     *            searching threads.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+	int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+	try
+	{
+	    checkConcurrentSearches(size, threads);
+	}
+	catch (Exception e)
+	{
+	    throw new IllegalStateException("Snapshot check failed.", e);
+	}
+
+	// cost of the snapshots, and of searching them
+	Maze large = new MazeGenerator(42L, 0.25).generate(2000, 2000);
+	long startTime = System.nanoTime();
+	MazeSnapshot first = large.snapshot();
+	long firstTime = System.nanoTime() - startTime;
+
+	Random random = new Random(43);
+	for (int i = 0; i < 100; i++)
+	{
+	    large.setValue(random.nextInt(2000), random.nextInt(2000), MazeSearchGlobals.OBSTACLE);
+	}
+	startTime = System.nanoTime();
+	MazeSnapshot next = large.snapshot();
+	long nextTime = System.nanoTime() - startTime;
+
+	BreadthFirstSearchEngine onMaze = new BreadthFirstSearchEngine(large);
+	BreadthFirstSearchEngine onSnapshot = new BreadthFirstSearchEngine(next);
+	for (int round = 0; round < 2; round++)
+	{
+	    startTime = System.nanoTime();
+	    onMaze.search();
+	    long mazeTime = System.nanoTime() - startTime;
+	    startTime = System.nanoTime();
+	    onSnapshot.search();
+	    long snapshotTime = System.nanoTime() - startTime;
+
+	    System.out.println(String.format(
+		    "2000x2000 maze: first snapshot %.3f ms, after 100 writes %.3f ms (%d of %d tiles shared), "
+			    + "breadth first search %d ms on the maze, %d ms on the snapshot", firstTime / 1e6,
+		    nextTime / 1e6, countShared(first, next), next.getTiles().length, mazeTime / 1000000,
+		    snapshotTime / 1000000));
+	}
+    }
+
+    /**
+     * Searches snapshots of a maze from several threads, with depth first and
+     * breadth first search engines, while another thread keeps moving obstacles
+     * in the maze, and checks that each search finds the same path length as a
+     * search of a private copy of the snapshot.
+     */
+    private static void checkConcurrentSearches(final int size, int threads) throws Exception
+    {
+	final Maze maze = new MazeGenerator(42L, 0.25).generate(size, size);
+	final AtomicBoolean writing = new AtomicBoolean(true);
+
+	Thread writer = new Thread()
+	{
+	    @Override
+	    public void run()
+	    {
+		Random random = new Random(42);
+		while (writing.get())
+		{
+		    int row = random.nextInt(size);
+		    int column = random.nextInt(size);
+		    short value = maze.getValue(row, column);
+		    if (value == 0)
+		    {
+			maze.setValue(row, column, MazeSearchGlobals.OBSTACLE);
+		    }
+		    else if (value == MazeSearchGlobals.OBSTACLE)
+		    {
+			maze.setValue(row, column, (short) 0);
+		    }
+		}
+	    }
+	};
+	writer.start();
+
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	try
+	{
+	    List<Future<Integer>> searches = new ArrayList<Future<Integer>>();
+	    for (int i = 0; i < threads; i++)
+	    {
+		final boolean depthFirst = i % 2 == 0;
+		searches.add(pool.submit(new Callable<Integer>()
+		{
+		    @Override
+		    public Integer call()
+		    {
+			int checked = 0;
+			for (int round = 0; round < 20; round++)
+			{
+			    MazeSnapshot snapshot = maze.snapshot();
+			    Maze copy = new Maze(size, size, new MazeGenerator(0L, 0.0));
+			    for (int row = 0; row < size; row++)
+			    {
+				for (int column = 0; column < size; column++)
+				{
+				    copy.setValue(row, column, snapshot.getValue(row, column));
+				}
+			    }
+
+			    AbstractSearchEngine engine = depthFirst ? new DepthFirstSearchEngine(snapshot)
+				    : new BreadthFirstSearchEngine(snapshot);
+			    AbstractSearchEngine reference = depthFirst ? new DepthFirstSearchEngine(copy)
+				    : new BreadthFirstSearchEngine(copy);
+			    engine.search();
+			    reference.search();
+			    if (engine.getMaxDepth() != reference.getMaxDepth())
+			    {
+				throw new IllegalStateException("Different path lengths on a snapshot.");
+			    }
+			    checked++;
+			}
+			return checked;
+		    }
+		}));
+	    }
+
+	    int checked = 0;
+	    for (Future<Integer> search : searches)
+	    {
+		checked += search.get();
+	    }
+	    writing.set(false);
+	    writer.join();
+	    System.out.println(checked + " searches of snapshots taken while writing: OK.");
+	}
+	finally
+	{
+	    writing.set(false);
+	    pool.shutdown();
+	}
+    }
+
+    /**
+     * @return the number of tiles shared by two snapshots.
+     */
+    private static int countShared(MazeSnapshot a, MazeSnapshot b)
+    {
+	int shared = 0;
+	for (int i = 0; i < a.tiles.length; i++)
+	{
+	    if (a.tiles[i] == b.tiles[i])
+	    {
+		shared++;
+	    }
+	}
+	return shared;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+/**
+ * Compact predecessor array for the searches of a maze. A location can only be
+ * reached from one of its four neighbours, so instead of the packed index of the
+ * predecessor only the direction of the move that reached the location is
+ * stored, in 2 bits per cell packed into an array of longs: 16 times less memory
+ * than an int array of packed indices.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class PredecessorArray
+{
+    // Directions of the move that reached a location.
+    private static final int FORWARD  = 0;
+
+    private static final int BACKWARD = 1;
+
+    private static final int RIGHT    = 2;
+
+    private static final int LEFT     = 3;
+
+    // 32 directions of 2 bits per long
+    private final long[]     directions;
+
+    private final int	     stride;
+
+    /**
+     * Creates a predecessor array for the given maze.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public PredecessorArray(Maze maze)
+    {
+	directions = new long[(maze.getSize() + 31) >>> 5];
+	stride = maze.getStride();
+    }
+
+    /**
+     * Records the predecessor of a location.
+     * 
+     * @param index
+     *            the packed index of the location.
+     * @param predecessor
+     *            the packed index of its predecessor, one of its four neighbours.
+     */
+    public void set(int index, int predecessor)
+    {
+	int difference = index - predecessor;
+	long direction = difference == stride ? FORWARD
+		: difference == -stride ? BACKWARD : difference == -1 ? RIGHT : LEFT;
+
+	int shift = (index & 31) << 1;
+	int word = index >>> 5;
+	directions[word] = (directions[word] & ~(3L << shift)) | (direction << shift);
+    }
+
+    /**
+     * @param index
+     *            the packed index of a location whose predecessor has been set.
+     * @return the packed index of the predecessor of the location.
+     */
+    public int get(int index)
+    {
+	int direction = (int) (directions[index >>> 5] >>> ((index & 31) << 1)) & 3;
+
+	switch (direction)
+	{
+	case FORWARD:
+	    return index - stride;
+	case BACKWARD:
+	    return index + stride;
+	case RIGHT:
+	    return index + 1;
+	default:
+	    return index - 1;
+	}
+    }
+}
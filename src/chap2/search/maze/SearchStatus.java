@@ -0,0 +1,42 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze;
+
+/**
+ * Outcome of a search, see {@link AbstractSearchEngine#getStatus()}.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public enum SearchStatus
+{
+    /**
+     * A path has been found.
+     */
+    FOUND,
+
+    /**
+     * There is no path between the start and goal locations.
+     */
+    NOT_FOUND,
+
+    /**
+     * The search has been cancelled, through its cancellation token or by
+     * {@link AbstractSearchEngine#stopSearching()}, before finding a path.
+     */
+    CANCELLED,
+
+    /**
+     * The search has reached its time limit or its deadline before finding a
+     * path.
+     */
+    DEADLINE_EXCEEDED,
+
+    /**
+     * The search has expanded the largest number of locations allowed before
+     * finding a path.
+     */
+    NODE_LIMIT_EXCEEDED
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.astar;
+
+import java.util.Arrays;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.Location;
+import chap2.search.maze.LocationBitSet;
+import chap2.search.maze.Maze;
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+
+/**
+ * A* search. Like the breadth first search this engine finds a shortest path
+ * from the start location to the goal location, but instead of fanning out
+ * uniformly in every direction it always expands the open location with the
+ * smallest estimated total cost f = g + h, where g is the number of moves from
+ * the start location and h is the Manhattan distance to the goal location. The
+ * Manhattan distance never overestimates the number of moves left in a maze
+ * where we can only move forward, backward, to the right and to the left, so the
+ * path found is still a shortest one. Subclasses can use a better estimate by
+ * overriding {@link AStarSearchEngine#estimateCost(int)}.
+ * 
+ * Locations are identified by their packed index in the maze (see
+ * {@link Maze#getIndex(int, int)}), so that the open list and the search state
+ * can be stored in int arrays instead of Location objects.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class AStarSearchEngine extends AbstractSearchEngine
+{
+    /**
+     * Search buffers, allocated by the first search and reused by the next ones.
+     * The entries of costFromStart are only valid for the locations whose stamp
+     * is the generation of the current search, so that starting a new search does
+     * not require to reset the whole array.
+     */
+    private int[]	   costFromStart = null;
+
+    private int[]	   stamps	 = null;
+
+    private int		   generation	 = 0;
+
+    private int[]	   predecessor	 = null;
+
+    private LocationBitSet closed	 = null;
+
+    private OpenList	   open		 = null;
+
+    // goal location of the current search, for the Manhattan distance
+    private int		   goalRow;
+
+    private int		   goalColumn;
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then uses the auxiliary method doSearchOn2DGrid for performing an
+     * A* search for the goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public AStarSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+
+	search();
+    }
+
+    /**
+     * Creates an A* search engine for the given maze. Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public AStarSearchEngine(Maze maze)
+    {
+	super(maze);
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	doSearchOn2DGrid(start, goal);
+    }
+
+    /**
+     * The array costFromStart holds the number of moves of the best path found so
+     * far to each location (g), the array predecessor is used to calculate the
+     * shortest path once the goal is found, and the set closed keeps us from
+     * expanding the same location twice.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location.
+     */
+    private void doSearchOn2DGrid(int start, int goal)
+    {
+	final Maze maze = getMaze();
+	final int stride = maze.getStride();
+
+	// forward, backward, to the right, to the left
+	final int moves[] = { stride, -stride, -1, 1 };
+
+	if (costFromStart == null)
+	{
+	    costFromStart = new int[maze.getSize()];
+	    stamps = new int[maze.getSize()];
+	    predecessor = new int[maze.getSize()];
+	    closed = new LocationBitSet(maze.getSize());
+	    open = new OpenList();
+	}
+	else
+	{
+	    closed.clear();
+	    open.clear();
+	}
+
+	generation++;
+	if (generation == 0)
+	{
+	    Arrays.fill(stamps, 0);
+	    generation = 1;
+	}
+
+	startEstimates(start, goal);
+	setCostFromStart(start, 0);
+	open.add(start, 0, estimateCost(start));
+	boolean success = false;
+
+	while (open.isEmpty() == false && isSearching())
+	{
+	    int head = open.removeFirst();
+
+	    // the open list may hold older, more expensive entries for a location
+	    if (closed.get(head))
+	    {
+		continue;
+	    }
+	    closed.set(head);
+
+	    if (head == goal)
+	    {
+		success = true;
+		break; // we are done
+	    }
+
+	    nodeExpanded();
+
+	    int cost = getCostFromStart(head) + 1;
+
+	    for (int i = 0; i < 4; i++)
+	    {
+		// the maze borders are obstacles, so no bounds checking is needed
+		int next = head + moves[i];
+
+		if (isPossibleMove(next) && cost < getCostFromStart(next))
+		{
+		    setCostFromStart(next, cost);
+		    predecessor[next] = head;
+		    open.add(next, cost, estimateCost(next));
+		}
+	    }
+	}
+
+	// now calculate the shortest path from the predecessor array, from the goal
+	// back to the start location as done by the breadth first search.
+	setMaxDepth(0);
+	if (success)
+	{
+	    int location = goal;
+	    setSearchPathAt(getMaxDepth(), location);
+	    setMaxDepth(getMaxDepth() + 1);
+	    while (location != start)
+	    {
+		location = predecessor[location];
+		setSearchPathAt(getMaxDepth(), location);
+		setMaxDepth(getMaxDepth() + 1);
+	    }
+	}
+    }
+
+    /**
+     * @return the number of moves of the best path found so far by the current
+     *         search to the given location, Integer.MAX_VALUE if none.
+     */
+    private int getCostFromStart(int index)
+    {
+	return stamps[index] == generation ? costFromStart[index] : Integer.MAX_VALUE;
+    }
+
+    private void setCostFromStart(int index, int cost)
+    {
+	costFromStart[index] = cost;
+	stamps[index] = generation;
+    }
+
+    /**
+     * Called at the beginning of each search, before any estimate of the
+     * remaining cost is requested.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location.
+     */
+    protected void startEstimates(int start, int goal)
+    {
+	goalRow = getMaze().getRow(goal);
+	goalColumn = getMaze().getColumn(goal);
+    }
+
+    /**
+     * Estimates the number of moves from a location to the goal location of the
+     * current search (h). The estimate must never be greater than the real
+     * number of moves, for the path found to be a shortest one.
+     * 
+     * @param index
+     *            the packed index of a location.
+     * @return the Manhattan distance between the location and the goal location.
+     */
+    protected int estimateCost(int index)
+    {
+	final Maze maze = getMaze();
+	return Math.abs(maze.getRow(index) - goalRow) + Math.abs(maze.getColumn(index) - goalColumn);
+    }
+
+    /**
+     * Developer test harness. Solves the same maze with a breadth first search and
+     * with an A* search, and compares the path lengths and expanded locations.
+     * 
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+	int rows = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+	int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+
+	Maze maze = new Maze(rows, columns);
+
+	BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+	breadthFirst.search();
+	AStarSearchEngine aStar = new AStarSearchEngine(maze);
+	aStar.search();
+
+	System.out.println("Maze of size " + rows + " by " + columns + ".");
+	System.out.println("Breadth first search: path length " + breadthFirst.getMaxDepth() + ", expanded nodes "
+		+ breadthFirst.getExpandedNodes() + ".");
+	System.out.println("A* search:            path length " + aStar.getMaxDepth() + ", expanded nodes "
+		+ aStar.getExpandedNodes() + ".");
+    }
+}
@@ -0,0 +1,566 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.astar;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeListener;
+import chap2.search.maze.MazeSearchGlobals;
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+
+/**
+ * Incremental search with the D* Lite algorithm (Koenig and Likhachev). The
+ * search runs backward, from the goal location towards the start location, and
+ * keeps for every location two estimates of its distance to the goal: g, the
+ * distance found by the last expansion of the location, and rhs, the best
+ * distance through its neighbours. A location is consistent when the two are
+ * equal, and the search expands the inconsistent locations in the order of
+ * their keys, as A* would, until the start location is consistent.
+ * 
+ * The state is kept from one search to the next. The engine listens to the
+ * writes made to the maze (see {@link MazeListener}) and records the locations
+ * that become or stop being obstacles, then the next search to the same goal
+ * only makes the locations around them inconsistent again and repairs the part
+ * of the search affected by the change, instead of searching from scratch. The
+ * start location may move between the searches, as an agent walking along the
+ * path does: the keys are then corrected by a single offset, km, instead of
+ * being computed again. A search to another goal starts from scratch.
+ * 
+ * As for {@link AStarSearchEngine} the search path goes from the goal location
+ * back to the start location.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class DStarLiteSearchEngine extends AbstractSearchEngine implements MazeListener
+{
+    // cost of the moves to or from an obstacle, and distance of the locations
+    // that cannot reach the goal
+    private static final int INFINITY	   = Integer.MAX_VALUE / 4;
+
+    // Search state, allocated by the first search and kept by the next ones.
+    private int[]	     g		   = null;
+
+    private int[]	     rhs	   = null;
+
+    private KeyedQueue	     queue	   = null;
+
+    // goal of the search state, -1 if there is none
+    private int		     goal	   = -1;
+
+    // start location of the last search, and key offset
+    private int		     lastStart	   = -1;
+
+    private int		     km		   = 0;
+
+    // locations whose obstacle changed since the last search
+    private int[]	     changes	   = new int[16];
+
+    private int		     changeCount   = 0;
+
+    // forward, backward, to the right, to the left
+    private final int[]	     moves;
+
+    /**
+     * Priority queue of the inconsistent locations, a binary min-heap of packed
+     * location indices ordered by their key, with the position of every location
+     * in the heap so that the key of a location can be changed and a location can
+     * be removed. The two components of a key are packed in a long, the first in
+     * the high 32 bits, so that keys compare as longs.
+     */
+    private static class KeyedQueue
+    {
+	private int[]  locations = new int[400];
+
+	private long[] keys	 = new long[400];
+
+	// position in the heap plus one of every location, 0 if not in the heap
+	private int[]  positions;
+
+	private int    size	 = 0;
+
+	private KeyedQueue(int cells)
+	{
+	    positions = new int[cells];
+	}
+
+	private boolean contains(int location)
+	{
+	    return positions[location] != 0;
+	}
+
+	private long topKey()
+	{
+	    return size == 0 ? Long.MAX_VALUE : keys[0];
+	}
+
+	private int top()
+	{
+	    return locations[0];
+	}
+
+	private void insert(int location, long key)
+	{
+	    if (size == locations.length)
+	    {
+		locations = Arrays.copyOf(locations, size * 2);
+		keys = Arrays.copyOf(keys, size * 2);
+	    }
+
+	    siftUp(size++, location, key);
+	}
+
+	private void update(int location, long key)
+	{
+	    int i = positions[location] - 1;
+	    if (key < keys[i])
+	    {
+		siftUp(i, location, key);
+	    }
+	    else
+	    {
+		siftDown(i, location, key);
+	    }
+	}
+
+	private void remove(int location)
+	{
+	    int i = positions[location] - 1;
+	    positions[location] = 0;
+
+	    size--;
+	    if (i < size)
+	    {
+		// move the last location to the hole
+		int last = locations[size];
+		long key = keys[size];
+		if (key < keys[i])
+		{
+		    siftUp(i, last, key);
+		}
+		else
+		{
+		    siftDown(i, last, key);
+		}
+	    }
+	}
+
+	private void clear()
+	{
+	    for (int i = 0; i < size; i++)
+	    {
+		positions[locations[i]] = 0;
+	    }
+	    size = 0;
+	}
+
+	private void siftUp(int i, int location, long key)
+	{
+	    while (i > 0)
+	    {
+		int parent = (i - 1) >>> 1;
+		if (keys[parent] <= key)
+		{
+		    break;
+		}
+		set(i, locations[parent], keys[parent]);
+		i = parent;
+	    }
+	    set(i, location, key);
+	}
+
+	private void siftDown(int i, int location, long key)
+	{
+	    int half = size >>> 1;
+	    while (i < half)
+	    {
+		int child = 2 * i + 1;
+		if (child + 1 < size && keys[child + 1] < keys[child])
+		{
+		    child++;
+		}
+		if (key <= keys[child])
+		{
+		    break;
+		}
+		set(i, locations[child], keys[child]);
+		i = child;
+	    }
+	    set(i, location, key);
+	}
+
+	private void set(int i, int location, long key)
+	{
+	    locations[i] = location;
+	    keys[i] = key;
+	    positions[location] = i + 1;
+	}
+    }
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then performs a D* Lite search for the goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public DStarLiteSearchEngine(int rows, int columns)
+    {
+	this(new Maze(rows, columns));
+
+	search();
+    }
+
+    /**
+     * Creates a D* Lite search engine for the given maze, listening to its writes
+     * from now on. Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public DStarLiteSearchEngine(Maze maze)
+    {
+	super(maze);
+
+	final int stride = maze.getStride();
+	moves = new int[] { stride, -stride, -1, 1 };
+
+	maze.addMazeListener(this);
+    }
+
+    /**
+     * Stops listening to the writes made to the maze, the engine must no longer
+     * be used.
+     */
+    public void dispose()
+    {
+	getMaze().removeMazeListener(this);
+    }
+
+    /**
+     * Records the locations that become or stop being obstacles, to be repaired
+     * by the next search.
+     */
+    @Override
+    public void valueChanged(Maze maze, int index, short oldValue, short newValue)
+    {
+	if (goal < 0 || isFree(oldValue) == isFree(newValue))
+	{
+	    return;
+	}
+
+	if (changeCount == changes.length)
+	{
+	    changes = Arrays.copyOf(changes, changeCount * 2);
+	}
+	changes[changeCount++] = index;
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	if (g == null)
+	{
+	    g = new int[getMaze().getSize()];
+	    rhs = new int[getMaze().getSize()];
+	    queue = new KeyedQueue(getMaze().getSize());
+	}
+
+	if (goal != this.goal)
+	{
+	    initialize(start, goal);
+	}
+	else
+	{
+	    // the keys already in the queue were computed for the previous start
+	    // location, they stay lower bounds once km grows by the distance moved
+	    km += distance(lastStart, start);
+	    lastStart = start;
+
+	    for (int i = 0; i < changeCount; i++)
+	    {
+		int location = changes[i];
+		updateRhs(location);
+		for (int move : moves)
+		{
+		    updateRhs(location + move);
+		}
+	    }
+	}
+	changeCount = 0;
+
+	computeShortestPath(start);
+	setMaxDepth(0);
+	if (isSearching() == false)
+	{
+	    // stopped by its limits: the state is kept, the next search goes on from it
+	    return;
+	}
+
+	// now walk down the distances from the start location to the goal, then
+	// store the path from the goal back to the start location. The search may
+	// stop with the start location still waiting in the queue, its distance is
+	// then rhs, while the locations of the path all are consistent.
+	int distance = Math.min(g[start], rhs[start]);
+	if (distance < INFINITY && isPossibleMove(start))
+	{
+	    int length = distance + 1;
+	    int location = start;
+	    setSearchPathAt(length - 1, location);
+	    for (int i = length - 2; i >= 0; i--)
+	    {
+		int best = -1;
+		int bestCost = INFINITY;
+		for (int move : moves)
+		{
+		    int next = location + move;
+		    if (isPossibleMove(next) && g[next] < bestCost)
+		    {
+			best = next;
+			bestCost = g[next];
+		    }
+		}
+		location = best;
+		setSearchPathAt(i, location);
+	    }
+	    setMaxDepth(length);
+	}
+    }
+
+    /**
+     * Discards the search state and starts a new search to the given goal.
+     */
+    private void initialize(int start, int goal)
+    {
+	Arrays.fill(g, INFINITY);
+	Arrays.fill(rhs, INFINITY);
+	queue.clear();
+
+	this.goal = goal;
+	lastStart = start;
+	km = 0;
+
+	rhs[goal] = 0;
+	queue.insert(goal, key(goal, start));
+    }
+
+    /**
+     * Expands the inconsistent locations until the start location is consistent
+     * and no location with a smaller key is left.
+     */
+    private void computeShortestPath(int start)
+    {
+	while ((queue.topKey() < key(start, start) || rhs[start] > g[start]) && isSearching())
+	{
+	    int location = queue.top();
+	    long oldKey = queue.topKey();
+	    long newKey = key(location, start);
+
+	    if (oldKey < newKey)
+	    {
+		// the key was computed for an older start location
+		queue.update(location, newKey);
+	    }
+	    else if (g[location] > rhs[location])
+	    {
+		// the location gets closer: its neighbours may get closer through it
+		nodeExpanded();
+		g[location] = rhs[location];
+		queue.remove(location);
+
+		if (isPossibleMove(location))
+		{
+		    for (int move : moves)
+		    {
+			int neighbour = location + move;
+			if (neighbour != goal && isPossibleMove(neighbour) && g[location] + 1 < rhs[neighbour])
+			{
+			    rhs[neighbour] = g[location] + 1;
+			    updateVertex(neighbour, start);
+			}
+		    }
+		}
+	    }
+	    else
+	    {
+		// the location got farther: so may the neighbours that went through it
+		nodeExpanded();
+		int oldG = g[location];
+		g[location] = INFINITY;
+
+		for (int move : moves)
+		{
+		    int neighbour = location + move;
+		    if (rhs[neighbour] == oldG + 1)
+		    {
+			updateRhs(neighbour);
+		    }
+		}
+		updateRhs(location);
+	    }
+	}
+    }
+
+    /**
+     * Computes again the best distance of a location through its neighbours, and
+     * updates its place in the queue.
+     */
+    private void updateRhs(int location)
+    {
+	if (location != goal)
+	{
+	    int best = INFINITY;
+	    if (isPossibleMove(location))
+	    {
+		for (int move : moves)
+		{
+		    int neighbour = location + move;
+		    if (isPossibleMove(neighbour) && g[neighbour] + 1 < best)
+		    {
+			best = g[neighbour] + 1;
+		    }
+		}
+	    }
+	    rhs[location] = best;
+	}
+
+	updateVertex(location, lastStart);
+    }
+
+    /**
+     * Puts an inconsistent location in the queue with its current key, and
+     * removes a consistent one.
+     */
+    private void updateVertex(int location, int start)
+    {
+	if (g[location] != rhs[location])
+	{
+	    if (queue.contains(location))
+	    {
+		queue.update(location, key(location, start));
+	    }
+	    else
+	    {
+		queue.insert(location, key(location, start));
+	    }
+	}
+	else if (queue.contains(location))
+	{
+	    queue.remove(location);
+	}
+    }
+
+    /**
+     * @return the key of a location: its estimated length of the path from the
+     *         start location through it, then its distance to the goal.
+     */
+    private long key(int location, int start)
+    {
+	long distance = Math.min(g[location], rhs[location]);
+	return ((distance + distance(start, location) + km) << 32) | distance;
+    }
+
+    /**
+     * @return the Manhattan distance between the cells with the given packed
+     *         indices.
+     */
+    private int distance(int from, int to)
+    {
+	final Maze maze = getMaze();
+	return Math.abs(maze.getRow(from) - maze.getRow(to)) + Math.abs(maze.getColumn(from) - maze.getColumn(to));
+    }
+
+    /**
+     * @return true if a path can go through a cell with the given value, as for
+     *         {@link AbstractSearchEngine#isPossibleMove(int)}.
+     */
+    private static boolean isFree(short value)
+    {
+	return value == 0 || value == MazeSearchGlobals.GOAL_LOCATION_VALUE
+		|| value == MazeSearchGlobals.START_LOCATION_VALUE;
+    }
+
+    /**
+     * Developer test harness. An agent walks along the path to the goal of a
+     * random maze, while obstacles are added on its path and removed around it.
+     * The path is searched again after each change and checked against the
+     * breadth first search, and the time taken by the incremental searches is
+     * compared with the first search.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze, and the number of
+     *            changes.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+	int changes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+	Maze maze = new MazeGenerator(42L, 0.25).generate(size, size);
+	DStarLiteSearchEngine dStarLite = new DStarLiteSearchEngine(maze);
+	BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+	Random random = new Random(42);
+
+	Location goal = maze.getGoalLocation();
+	Location start = maze.getStartLocation();
+
+	// do not let the corners of the start and goal locations be walled in
+	maze.setValue(0, 1, (short) 0);
+	maze.setValue(1, 0, (short) 0);
+	maze.setValue(size - 1, size - 2, (short) 0);
+	maze.setValue(size - 2, size - 1, (short) 0);
+
+	long startTime = System.nanoTime();
+	dStarLite.search(start, goal);
+	long firstTime = System.nanoTime() - startTime;
+	System.out.println(String.format("First search: path of %d locations, %d expanded, %.2f ms",
+		dStarLite.getMaxDepth(), dStarLite.getExpandedNodes(), firstTime / 1000000.0));
+
+	long replanTime = 0;
+	long replanExpanded = 0;
+	int replans = 0;
+	for (int i = 0; i < changes && dStarLite.getMaxDepth() > 3; i++)
+	{
+	    // the agent moves a few steps along the path
+	    int steps = Math.min(random.nextInt(4), dStarLite.getMaxDepth() - 3);
+	    start = dStarLite.getSearchPathAt(dStarLite.getMaxDepth() - 1 - steps);
+
+	    // an obstacle appears on the path ahead, another one disappears nearby
+	    Location blocked = dStarLite.getSearchPathAt(random.nextInt(dStarLite.getMaxDepth() - 1 - steps));
+	    if (blocked.getRow() != goal.getRow() || blocked.getColumn() != goal.getColumn())
+	    {
+		maze.setValue(blocked, MazeSearchGlobals.OBSTACLE);
+	    }
+	    int row = Math.min(size - 1, Math.max(0, start.getRow() + random.nextInt(21) - 10));
+	    int column = Math.min(size - 1, Math.max(0, start.getColumn() + random.nextInt(21) - 10));
+	    if (maze.getValue(row, column) == MazeSearchGlobals.OBSTACLE)
+	    {
+		maze.setValue(row, column, (short) 0);
+	    }
+
+	    startTime = System.nanoTime();
+	    dStarLite.search(start, goal);
+	    replanTime += System.nanoTime() - startTime;
+	    replanExpanded += dStarLite.getExpandedNodes();
+	    replans++;
+
+	    breadthFirst.search(start, goal);
+	    if (breadthFirst.getMaxDepth() != dStarLite.getMaxDepth())
+	    {
+		throw new IllegalStateException("Different path lengths: " + dStarLite.getMaxDepth() + " instead of "
+			+ breadthFirst.getMaxDepth() + ".");
+	    }
+	}
+
+	System.out.println(String.format("%d replans checked: %.1f expanded, %.3f ms per replan", replans,
+		(double) replanExpanded / Math.max(1, replans), replanTime / 1000000.0 / Math.max(1, replans)));
+    }
+}
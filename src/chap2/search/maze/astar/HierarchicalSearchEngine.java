@@ -0,0 +1,1184 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.astar;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeListener;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * Hierarchical path-finding A* (HPA*, Botea, Muller and Schaeffer). The maze is
+ * split into square clusters of a fixed size. Along the border between two
+ * clusters, every run of locations that are free on both sides is an entrance:
+ * short runs get one transition in their middle, long ones one at each end. The
+ * locations of the transitions are the nodes of an abstract graph, whose edges
+ * are the moves across the borders, of cost 1, and the shortest paths between
+ * the nodes of a cluster that stay inside the cluster, computed by a breadth
+ * first search from every node of the cluster.
+ * 
+ * A search connects the start and goal locations to the nodes of their
+ * clusters, searches the abstract graph with A*, and then refines each edge of
+ * the abstract path into locations with a breadth first search bounded to one
+ * cluster. A search within a single cluster first tries a path inside the
+ * cluster. The paths found are close to the shortest, but not always the
+ * shortest, since they cross the borders only at the transitions. The abstract
+ * search visits a few nodes per cluster instead of all its locations, and the
+ * refinement is proportional to the length of the path.
+ * 
+ * The clusters are built in parallel by the constructor, in time proportional
+ * to the size of the maze: a few seconds for a 2000x2000 maze, which the search
+ * limits do not bound. The engine listens to the writes made to the maze (see
+ * {@link MazeListener}): a location that becomes or stops being an obstacle
+ * marks its cluster to be built again before the next search, and also the
+ * cluster on the other side when it is on a border, whose entrances it changes.
+ * 
+ * As for {@link AStarSearchEngine} the search path goes from the goal location
+ * back to the start location.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class HierarchicalSearchEngine extends AbstractSearchEngine implements MazeListener
+{
+    /**
+     * Default number of rows and columns of a cluster.
+     */
+    public static final int  DEFAULT_CLUSTER_SIZE = 32;
+
+    // runs of free locations longer than this get two transitions
+    private static final int MAX_SINGLE_ENTRANCE  = 6;
+
+    // distance between nodes that cannot reach each other
+    private static final int INFINITY		  = Integer.MAX_VALUE / 4;
+
+    // abstract node ids of the goal location, and of the start location as a
+    // parent
+    private static final int GOAL_NODE		  = -1;
+
+    private static final int START_NODE		  = -2;
+
+    // number of clusters to build sequentially
+    private static final int BUILD_THRESHOLD	  = 16;
+
+    // clusters with more nodes keep all their inner paths, the search for the
+    // redundant ones taking a time cubic in the number of nodes
+    private static final int MAX_PRUNED_NODES	  = 32;
+
+    private final int	     clusterSize;
+
+    private final int	     clusterRows;
+
+    private final int	     clusterColumns;
+
+    // an abstract node id is the cluster index shifted by nodeBits, plus the node
+    // number in the cluster
+    private final int	     nodeBits;
+
+    // clusters, built by the constructor
+    private Cluster[]	     clusters		  = null;
+
+    // clusters to build again before the next search
+    private final boolean[]  dirty;
+
+    private int[]	     dirtyClusters	  = new int[16];
+
+    private int		     dirtyCount		  = 0;
+
+    // Search buffers, allocated by the first search and reused by the next ones.
+    private ClusterSearch    clusterSearch	  = null;
+
+    private NodeTable	     nodes		  = null;
+
+    private OpenList	     open		  = null;
+
+    private int[]	     route		  = new int[64];
+
+    private int		     routeLength	  = 0;
+
+    // number of abstract nodes expanded by the last search
+    private int		     abstractExpanded	  = 0;
+
+    /**
+     * The abstract nodes of a cluster and their edges.
+     */
+    private static class Cluster
+    {
+	// packed indices of the nodes
+	private int[] nodes;
+
+	// moves across the borders while the cluster is built: node number, packed
+	// index of the node reached
+	private int[] exitNodes;
+
+	// paths between the nodes inside the cluster: the paths of node i are from
+	// edgeStarts[i] to edgeStarts[i + 1], with the node reached and the length
+	private int[] edgeStarts;
+
+	private int[] edgeNodes;
+
+	private int[] edgeCosts;
+
+	// moves across the borders, sorted by node: the moves of node i are from
+	// exitStarts[i] to exitStarts[i + 1]
+	private int[] exitStarts;
+
+	// packed index of the node reached by each move, and its abstract node id
+	private int[] exitLocations;
+
+	private int[] exitTargets;
+    }
+
+    /**
+     * Open addressing hash table of the abstract nodes reached by a search: cost
+     * from the start location, parent node and closed flag.
+     */
+    private static class NodeTable
+    {
+	private static final int EMPTY	= Integer.MIN_VALUE;
+
+	private int[]		 keys	= new int[1024];
+
+	private int[]		 costs	= new int[1024];
+
+	private int[]		 parents = new int[1024];
+
+	private boolean[]	 closed	= new boolean[1024];
+
+	private int		 size	= 0;
+
+	private NodeTable()
+	{
+	    Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * @return the slot of the given node, added with an infinite cost if it is
+	 *         not in the table.
+	 */
+	private int slot(int node)
+	{
+	    if (size * 2 >= keys.length)
+	    {
+		grow();
+	    }
+
+	    int mask = keys.length - 1;
+	    int slot = (node * 0x9E3779B9) >>> 7 & mask;
+	    while (keys[slot] != node)
+	    {
+		if (keys[slot] == EMPTY)
+		{
+		    keys[slot] = node;
+		    costs[slot] = INFINITY;
+		    closed[slot] = false;
+		    size++;
+		    break;
+		}
+		slot = (slot + 1) & mask;
+	    }
+	    return slot;
+	}
+
+	private void grow()
+	{
+	    int[] oldKeys = keys;
+	    int[] oldCosts = costs;
+	    int[] oldParents = parents;
+	    boolean[] oldClosed = closed;
+
+	    keys = new int[oldKeys.length * 2];
+	    costs = new int[keys.length];
+	    parents = new int[keys.length];
+	    closed = new boolean[keys.length];
+	    Arrays.fill(keys, EMPTY);
+	    size = 0;
+
+	    for (int i = 0; i < oldKeys.length; i++)
+	    {
+		if (oldKeys[i] != EMPTY)
+		{
+		    int slot = slot(oldKeys[i]);
+		    costs[slot] = oldCosts[i];
+		    parents[slot] = oldParents[i];
+		    closed[slot] = oldClosed[i];
+		}
+	    }
+	}
+
+	private void clear()
+	{
+	    if (size > 0)
+	    {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	    }
+	}
+    }
+
+    /**
+     * Breadth first search bounded to one cluster. The cluster is first copied
+     * into a grid of free flags with a border of obstacles, as the maze is, so
+     * that the search needs no bounds checking: a location has the local index
+     * (row + 1) * (clusterSize + 2) + column + 1, relative to the top left
+     * location of the cluster. Each thread building clusters has its own.
+     */
+    private class ClusterSearch
+    {
+	private final int	localStride = clusterSize + 2;
+
+	private final boolean[]	free	    = new boolean[localStride * localStride];
+
+	private final int[]	distance    = new int[localStride * localStride];
+
+	private final int[]	predecessor = new int[localStride * localStride];
+
+	private final int[]	stamps	    = new int[localStride * localStride];
+
+	private final int[]	queue	    = new int[localStride * localStride];
+
+	private int		generation  = 0;
+
+	// cluster copied into free, for the maze as it was at modificationCount
+	private int		loaded	    = -1;
+
+	private long		modificationCount;
+
+	// bounds of the cluster searched
+	private int		firstRow;
+
+	private int		firstColumn;
+
+	private int		base;
+
+	/**
+	 * Copies the free locations of a cluster, unless they are already there.
+	 */
+	private void load(int cluster)
+	{
+	    final Maze maze = getMaze();
+	    if (cluster == loaded && modificationCount == maze.getModificationCount())
+	    {
+		return;
+	    }
+	    loaded = cluster;
+	    modificationCount = maze.getModificationCount();
+
+	    final int stride = maze.getStride();
+	    firstRow = (cluster / clusterColumns) * clusterSize;
+	    firstColumn = (cluster % clusterColumns) * clusterSize;
+	    base = maze.getIndex(firstRow, firstColumn);
+	    int height = Math.min(clusterSize, maze.getRows() - firstRow);
+	    int width = Math.min(clusterSize, maze.getColumns() - firstColumn);
+
+	    Arrays.fill(free, false);
+	    for (int row = 0; row < height; row++)
+	    {
+		int local = (row + 1) * localStride + 1;
+		int index = base + row * stride;
+		for (int column = 0; column < width; column++)
+		{
+		    free[local + column] = isPossibleMove(index + column);
+		}
+	    }
+	}
+
+	/**
+	 * Searches the cluster from the given location, until the target is
+	 * reached or, if the target is -1, the whole cluster has been searched.
+	 * 
+	 * @return true if the target has been reached.
+	 */
+	private boolean search(int cluster, int from, int target)
+	{
+	    load(cluster);
+
+	    generation++;
+	    if (generation == 0)
+	    {
+		Arrays.fill(stamps, 0);
+		generation = 1;
+	    }
+
+	    int source = toLocal(from);
+	    int goal = target < 0 ? -1 : toLocal(target);
+	    stamps[source] = generation;
+	    distance[source] = 0;
+	    int head = 0;
+	    int tail = 0;
+	    queue[tail++] = source;
+
+	    while (head < tail)
+	    {
+		int local = queue[head++];
+		if (local == goal)
+		{
+		    return true;
+		}
+
+		// forward, backward, to the right, to the left
+		tail = visit(local, local + localStride, tail);
+		tail = visit(local, local - localStride, tail);
+		tail = visit(local, local - 1, tail);
+		tail = visit(local, local + 1, tail);
+	    }
+
+	    return false;
+	}
+
+	private int visit(int from, int local, int tail)
+	{
+	    if (free[local] && stamps[local] != generation)
+	    {
+		stamps[local] = generation;
+		distance[local] = distance[from] + 1;
+		predecessor[local] = from;
+		queue[tail++] = local;
+	    }
+	    return tail;
+	}
+
+	/**
+	 * @return the distance of a location of the cluster from the location the
+	 *         last search started from, INFINITY if it has not been reached.
+	 */
+	private int distanceTo(int index)
+	{
+	    int local = toLocal(index);
+	    return stamps[local] == generation ? distance[local] : INFINITY;
+	}
+
+	/**
+	 * Appends to the route the path found by the last search to the given
+	 * location, without the location the search started from.
+	 */
+	private void appendPath(int index)
+	{
+	    final int stride = getMaze().getStride();
+
+	    int length = distanceTo(index);
+	    ensureRoute(routeLength + length);
+
+	    int local = toLocal(index);
+	    for (int i = routeLength + length - 1; i >= routeLength; i--)
+	    {
+		int row = local / localStride - 1;
+		int column = local - (row + 1) * localStride - 1;
+		route[i] = base + row * stride + column;
+		local = predecessor[local];
+	    }
+	    routeLength += length;
+	}
+
+	private int toLocal(int index)
+	{
+	    final Maze maze = getMaze();
+	    return (maze.getRow(index) - firstRow + 1) * localStride + maze.getColumn(index) - firstColumn + 1;
+	}
+    }
+
+    /**
+     * Builds the clusters of a range of cluster indices, splitting the range
+     * between threads.
+     */
+    private class BuildTask extends RecursiveAction
+    {
+	private static final long serialVersionUID = 1L;
+
+	private final int	  from;
+
+	private final int	  to;
+
+	private BuildTask(int from, int to)
+	{
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute()
+	{
+	    if (to - from <= BUILD_THRESHOLD)
+	    {
+		ClusterSearch search = new ClusterSearch();
+		for (int i = from; i < to; i++)
+		{
+		    clusters[i] = build(i, search);
+		}
+	    }
+	    else
+	    {
+		int middle = (from + to) >>> 1;
+		invokeAll(new BuildTask(from, middle), new BuildTask(middle, to));
+	    }
+	}
+    }
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then performs a hierarchical search for the goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public HierarchicalSearchEngine(int rows, int columns)
+    {
+	this(new Maze(rows, columns), DEFAULT_CLUSTER_SIZE);
+
+	search();
+    }
+
+    /**
+     * Creates a hierarchical search engine for the given maze, with clusters of
+     * the default size.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public HierarchicalSearchEngine(Maze maze)
+    {
+	this(maze, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * Creates a hierarchical search engine for the given maze, builds its
+     * clusters and listens to its writes from now on.
+     * 
+     * @param maze
+     *            the maze to search.
+     * @param clusterSize
+     *            the number of rows and columns of a cluster.
+     */
+    public HierarchicalSearchEngine(Maze maze, int clusterSize)
+    {
+	super(maze);
+
+	if (clusterSize < 2)
+	{
+	    throw new IllegalArgumentException("The cluster size must be at least 2: " + clusterSize);
+	}
+
+	this.clusterSize = clusterSize;
+	clusterRows = (maze.getRows() + clusterSize - 1) / clusterSize;
+	clusterColumns = (maze.getColumns() + clusterSize - 1) / clusterSize;
+
+	// at most clusterSize / 2 + 1 transitions on each of the four borders
+	nodeBits = 32 - Integer.numberOfLeadingZeros(2 * clusterSize + 4);
+	if (((long) clusterRows * clusterColumns << nodeBits) > Integer.MAX_VALUE)
+	{
+	    throw new IllegalArgumentException("Too many clusters, use larger clusters.");
+	}
+
+	dirty = new boolean[clusterRows * clusterColumns];
+
+	buildClusters();
+	maze.addMazeListener(this);
+    }
+
+    /**
+     * Stops listening to the writes made to the maze, the engine must no longer
+     * be used.
+     */
+    public void dispose()
+    {
+	getMaze().removeMazeListener(this);
+    }
+
+    /**
+     * Marks the clusters whose entrances or inner paths change when a location
+     * becomes or stops being an obstacle.
+     */
+    @Override
+    public void valueChanged(Maze maze, int index, short oldValue, short newValue)
+    {
+	if (isFree(oldValue) == isFree(newValue))
+	{
+	    return;
+	}
+
+	int row = maze.getRow(index);
+	int column = maze.getColumn(index);
+	int clusterRow = row / clusterSize;
+	int clusterColumn = column / clusterSize;
+
+	markDirty(clusterRow, clusterColumn);
+
+	// the entrances of a border belong to the clusters of both sides
+	if (row % clusterSize == 0)
+	{
+	    markDirty(clusterRow - 1, clusterColumn);
+	}
+	if (row % clusterSize == clusterSize - 1)
+	{
+	    markDirty(clusterRow + 1, clusterColumn);
+	}
+	if (column % clusterSize == 0)
+	{
+	    markDirty(clusterRow, clusterColumn - 1);
+	}
+	if (column % clusterSize == clusterSize - 1)
+	{
+	    markDirty(clusterRow, clusterColumn + 1);
+	}
+    }
+
+    private void markDirty(int clusterRow, int clusterColumn)
+    {
+	if (clusterRow < 0 || clusterRow >= clusterRows || clusterColumn < 0 || clusterColumn >= clusterColumns)
+	{
+	    return;
+	}
+
+	int cluster = clusterRow * clusterColumns + clusterColumn;
+	if (dirty[cluster] == false)
+	{
+	    dirty[cluster] = true;
+	    if (dirtyCount == dirtyClusters.length)
+	    {
+		dirtyClusters = Arrays.copyOf(dirtyClusters, dirtyCount * 2);
+	    }
+	    dirtyClusters[dirtyCount++] = cluster;
+	}
+    }
+
+    /**
+     * Builds all the clusters again, in parallel. The constructor builds them,
+     * and a search builds again only the clusters changed since the previous
+     * one: this is faster after writes to most of the clusters.
+     */
+    public void buildClusters()
+    {
+	clusters = new Cluster[clusterRows * clusterColumns];
+	ForkJoinPool.commonPool().invoke(new BuildTask(0, clusters.length));
+	for (int i = 0; i < clusters.length; i++)
+	{
+	    link(i);
+	}
+
+	Arrays.fill(dirty, false);
+	dirtyCount = 0;
+    }
+
+    /**
+     * Finds the entrances on the borders of a cluster, and the distances between
+     * them inside the cluster.
+     */
+    private Cluster build(int cluster, ClusterSearch search)
+    {
+	final Maze maze = getMaze();
+	final int stride = maze.getStride();
+
+	int clusterRow = cluster / clusterColumns;
+	int clusterColumn = cluster % clusterColumns;
+	int firstRow = clusterRow * clusterSize;
+	int firstColumn = clusterColumn * clusterSize;
+	int height = Math.min(clusterSize, maze.getRows() - firstRow);
+	int width = Math.min(clusterSize, maze.getColumns() - firstColumn);
+
+	Cluster result = new Cluster();
+	result.nodes = new int[8];
+	result.exitNodes = new int[8];
+	result.exitLocations = new int[8];
+	int[] counts = new int[2];
+
+	// backward, forward, to the right, to the left: the entrances of a border
+	// are found in the same order from both its sides
+	if (clusterRow > 0)
+	{
+	    entrances(result, counts, maze.getIndex(firstRow, firstColumn), 1, -stride, width);
+	}
+	if (clusterRow + 1 < clusterRows)
+	{
+	    entrances(result, counts, maze.getIndex(firstRow + height - 1, firstColumn), 1, stride, width);
+	}
+	if (clusterColumn > 0)
+	{
+	    entrances(result, counts, maze.getIndex(firstRow, firstColumn), stride, -1, height);
+	}
+	if (clusterColumn + 1 < clusterColumns)
+	{
+	    entrances(result, counts, maze.getIndex(firstRow, firstColumn + width - 1), stride, 1, height);
+	}
+
+	int count = counts[0];
+	result.nodes = Arrays.copyOf(result.nodes, count);
+
+	// sort the moves across the borders by node
+	int[] exitNodes = result.exitNodes;
+	int[] exitLocations = result.exitLocations;
+	result.exitStarts = new int[count + 1];
+	for (int e = 0; e < counts[1]; e++)
+	{
+	    result.exitStarts[exitNodes[e] + 1]++;
+	}
+	for (int i = 0; i < count; i++)
+	{
+	    result.exitStarts[i + 1] += result.exitStarts[i];
+	}
+	int[] next = Arrays.copyOf(result.exitStarts, count);
+	result.exitLocations = new int[counts[1]];
+	for (int e = 0; e < counts[1]; e++)
+	{
+	    result.exitLocations[next[exitNodes[e]]++] = exitLocations[e];
+	}
+	result.exitNodes = null;
+	result.exitTargets = new int[counts[1]];
+
+	int[] distances = new int[count * count];
+	for (int i = 0; i < count; i++)
+	{
+	    search.search(cluster, result.nodes[i], -1);
+	    for (int j = 0; j < count; j++)
+	    {
+		distances[i * count + j] = search.distanceTo(result.nodes[j]);
+	    }
+	}
+
+	// keep only the paths that do not go through another node as short: the
+	// distances in the abstract graph stay the same, with fewer edges
+	final boolean prune = count <= MAX_PRUNED_NODES;
+	int[] edgeNodes = new int[count * count];
+	int[] edgeCosts = new int[count * count];
+	int edges = 0;
+	result.edgeStarts = new int[count + 1];
+	for (int i = 0; i < count; i++)
+	{
+	    for (int j = 0; j < count; j++)
+	    {
+		int distance = distances[i * count + j];
+		if (i == j || distance >= INFINITY)
+		{
+		    continue;
+		}
+
+		boolean redundant = false;
+		for (int k = 0; prune && k < count && redundant == false; k++)
+		{
+		    redundant = k != i && k != j && distances[i * count + k] + distances[k * count + j] <= distance;
+		}
+		if (redundant == false)
+		{
+		    edgeNodes[edges] = j;
+		    edgeCosts[edges] = distance;
+		    edges++;
+		}
+	    }
+	    result.edgeStarts[i + 1] = edges;
+	}
+	result.edgeNodes = Arrays.copyOf(edgeNodes, edges);
+	result.edgeCosts = Arrays.copyOf(edgeCosts, edges);
+
+	return result;
+    }
+
+    /**
+     * Adds the transitions of one border of a cluster.
+     * 
+     * @param first
+     *            the packed index of the first location of the border inside the
+     *            cluster.
+     * @param step
+     *            the move from a location of the border to the next one.
+     * @param across
+     *            the move from a location of the border to the location on the
+     *            other side.
+     * @param length
+     *            the number of locations of the border.
+     */
+    private void entrances(Cluster cluster, int[] counts, int first, int step, int across, int length)
+    {
+	int runStart = -1;
+	for (int i = 0; i <= length; i++)
+	{
+	    int index = first + i * step;
+	    boolean open = i < length && isPossibleMove(index) && isPossibleMove(index + across);
+
+	    if (open && runStart < 0)
+	    {
+		runStart = i;
+	    }
+	    else if (open == false && runStart >= 0)
+	    {
+		int runLength = i - runStart;
+		if (runLength <= MAX_SINGLE_ENTRANCE)
+		{
+		    int middle = first + (runStart + runLength / 2) * step;
+		    addExit(cluster, counts, middle, middle + across);
+		}
+		else
+		{
+		    int start = first + runStart * step;
+		    int end = first + (i - 1) * step;
+		    addExit(cluster, counts, start, start + across);
+		    addExit(cluster, counts, end, end + across);
+		}
+		runStart = -1;
+	    }
+	}
+    }
+
+    private void addExit(Cluster cluster, int[] counts, int node, int exit)
+    {
+	int number = findNode(cluster.nodes, counts[0], node);
+	if (number < 0)
+	{
+	    if (counts[0] == cluster.nodes.length)
+	    {
+		cluster.nodes = Arrays.copyOf(cluster.nodes, counts[0] * 2);
+	    }
+	    number = counts[0]++;
+	    cluster.nodes[number] = node;
+	}
+
+	if (counts[1] == cluster.exitNodes.length)
+	{
+	    cluster.exitNodes = Arrays.copyOf(cluster.exitNodes, counts[1] * 2);
+	    cluster.exitLocations = Arrays.copyOf(cluster.exitLocations, counts[1] * 2);
+	}
+	cluster.exitNodes[counts[1]] = number;
+	cluster.exitLocations[counts[1]] = exit;
+	counts[1]++;
+    }
+
+    /**
+     * @return the number of the node with the given packed index, -1 if none.
+     */
+    private static int findNode(int[] nodes, int count, int index)
+    {
+	for (int i = 0; i < count; i++)
+	{
+	    if (nodes[i] == index)
+	    {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Finds the abstract node ids of the nodes reached by the moves across the
+     * borders of a cluster, once the clusters on the other sides are built.
+     */
+    private void link(int cluster)
+    {
+	Cluster result = clusters[cluster];
+	for (int e = 0; e < result.exitLocations.length; e++)
+	{
+	    int exit = result.exitLocations[e];
+	    int other = clusterOf(exit);
+	    result.exitTargets[e] = (other << nodeBits) | findNode(clusters[other].nodes, clusters[other].nodes.length, exit);
+	}
+    }
+
+    /**
+     * Builds again the clusters changed by the writes to the maze, and links
+     * them and their neighbours again, whose node numbers may have changed.
+     */
+    private void rebuildDirtyClusters()
+    {
+	if (dirtyCount == 0)
+	{
+	    return;
+	}
+
+	if (clusterSearch == null)
+	{
+	    clusterSearch = new ClusterSearch();
+	}
+	for (int i = 0; i < dirtyCount; i++)
+	{
+	    int cluster = dirtyClusters[i];
+	    clusters[cluster] = build(cluster, clusterSearch);
+	}
+
+	for (int i = 0; i < dirtyCount; i++)
+	{
+	    int cluster = dirtyClusters[i];
+	    int clusterRow = cluster / clusterColumns;
+	    int clusterColumn = cluster % clusterColumns;
+
+	    link(cluster);
+	    relink(clusterRow - 1, clusterColumn);
+	    relink(clusterRow + 1, clusterColumn);
+	    relink(clusterRow, clusterColumn - 1);
+	    relink(clusterRow, clusterColumn + 1);
+	}
+
+	for (int i = 0; i < dirtyCount; i++)
+	{
+	    dirty[dirtyClusters[i]] = false;
+	}
+	dirtyCount = 0;
+    }
+
+    /**
+     * Links again a neighbour of a cluster built again, unless it has been built
+     * again itself.
+     */
+    private void relink(int clusterRow, int clusterColumn)
+    {
+	if (clusterRow >= 0 && clusterRow < clusterRows && clusterColumn >= 0 && clusterColumn < clusterColumns
+		&& dirty[clusterRow * clusterColumns + clusterColumn] == false)
+	{
+	    link(clusterRow * clusterColumns + clusterColumn);
+	}
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	if (clusterSearch == null)
+	{
+	    clusterSearch = new ClusterSearch();
+	    nodes = new NodeTable();
+	    open = new OpenList();
+	}
+	rebuildDirtyClusters();
+
+	setMaxDepth(0);
+	abstractExpanded = 0;
+	routeLength = 0;
+	if (isPossibleMove(start) == false || isPossibleMove(goal) == false)
+	{
+	    return;
+	}
+
+	int startCluster = clusterOf(start);
+	int goalCluster = clusterOf(goal);
+	route[routeLength++] = start;
+
+	// a path inside the cluster, if any, is close enough
+	if (startCluster == goalCluster && clusterSearch.search(startCluster, start, goal))
+	{
+	    clusterSearch.appendPath(goal);
+	    storePath();
+	    return;
+	}
+
+	if (searchAbstractGraph(start, goal, startCluster, goalCluster) == false)
+	{
+	    routeLength = 0;
+	    return;
+	}
+
+	storePath();
+    }
+
+    /**
+     * Searches the abstract graph, with the start and goal locations connected to
+     * the nodes of their clusters, and refines the abstract path found into the
+     * route.
+     * 
+     * @return true if a path has been found.
+     */
+    private boolean searchAbstractGraph(int start, int goal, int startCluster, int goalCluster)
+    {
+	final Maze maze = getMaze();
+	final int goalRow = maze.getRow(goal);
+	final int goalColumn = maze.getColumn(goal);
+
+	// distances from the goal to the nodes of its cluster
+	Cluster target = clusters[goalCluster];
+	clusterSearch.search(goalCluster, goal, -1);
+	int[] goalDistances = new int[target.nodes.length];
+	for (int i = 0; i < goalDistances.length; i++)
+	{
+	    goalDistances[i] = clusterSearch.distanceTo(target.nodes[i]);
+	}
+
+	nodes.clear();
+	open.clear();
+
+	// distances from the start location to the nodes of its cluster
+	Cluster source = clusters[startCluster];
+	clusterSearch.search(startCluster, start, -1);
+	for (int i = 0; i < source.nodes.length; i++)
+	{
+	    int distance = clusterSearch.distanceTo(source.nodes[i]);
+	    if (distance < INFINITY)
+	    {
+		relax((startCluster << nodeBits) | i, distance, START_NODE, source.nodes[i], goalRow, goalColumn);
+	    }
+	}
+
+	boolean found = false;
+	while (open.isEmpty() == false && isSearching())
+	{
+	    int node = open.removeFirst();
+	    if (node == GOAL_NODE)
+	    {
+		found = true;
+		break;
+	    }
+
+	    int slot = nodes.slot(node);
+	    if (nodes.closed[slot])
+	    {
+		continue;
+	    }
+	    nodes.closed[slot] = true;
+	    abstractExpanded++;
+	    nodeExpanded();
+
+	    int cost = nodes.costs[slot];
+	    int clusterIndex = node >>> nodeBits;
+	    int number = node & ((1 << nodeBits) - 1);
+	    Cluster cluster = clusters[clusterIndex];
+	    int count = cluster.nodes.length;
+
+	    if (clusterIndex == goalCluster && goalDistances[number] < INFINITY)
+	    {
+		relax(GOAL_NODE, cost + goalDistances[number], node, goal, goalRow, goalColumn);
+	    }
+
+	    // paths inside the cluster
+	    for (int e = cluster.edgeStarts[number]; e < cluster.edgeStarts[number + 1]; e++)
+	    {
+		int j = cluster.edgeNodes[e];
+		relax((clusterIndex << nodeBits) | j, cost + cluster.edgeCosts[e], node, cluster.nodes[j], goalRow,
+			goalColumn);
+	    }
+
+	    // moves across the borders
+	    for (int e = cluster.exitStarts[number]; e < cluster.exitStarts[number + 1]; e++)
+	    {
+		relax(cluster.exitTargets[e], cost + 1, node, cluster.exitLocations[e], goalRow, goalColumn);
+	    }
+	}
+
+	if (found == false)
+	{
+	    return false;
+	}
+
+	// the abstract path, from the goal back to the start location
+	int[] path = new int[16];
+	int length = 0;
+	for (int node = nodes.parents[nodes.slot(GOAL_NODE)]; node != START_NODE; node = nodes.parents[nodes
+		.slot(node)])
+	{
+	    if (length == path.length)
+	    {
+		path = Arrays.copyOf(path, length * 2);
+	    }
+	    path[length++] = clusters[node >>> nodeBits].nodes[node & ((1 << nodeBits) - 1)];
+	}
+
+	// refine it: across a border the nodes are neighbours, otherwise search the
+	// cluster between them
+	int previous = start;
+	for (int i = length - 1; i >= -1; i--)
+	{
+	    int next = i >= 0 ? path[i] : goal;
+	    int cluster = clusterOf(next);
+	    if (cluster != clusterOf(previous))
+	    {
+		ensureRoute(routeLength + 1);
+		route[routeLength++] = next;
+	    }
+	    else if (next != previous)
+	    {
+		clusterSearch.search(cluster, previous, next);
+		clusterSearch.appendPath(next);
+	    }
+	    previous = next;
+	}
+
+	return true;
+    }
+
+    /**
+     * Records a cheaper way to reach an abstract node, and adds it to the open
+     * list.
+     */
+    private void relax(int node, int cost, int parent, int index, int goalRow, int goalColumn)
+    {
+	int slot = nodes.slot(node);
+	if (nodes.closed[slot] == false && cost < nodes.costs[slot])
+	{
+	    nodes.costs[slot] = cost;
+	    nodes.parents[slot] = parent;
+
+	    final Maze maze = getMaze();
+	    int remaining = Math.abs(maze.getRow(index) - goalRow) + Math.abs(maze.getColumn(index) - goalColumn);
+	    open.add(node, cost, remaining);
+	}
+    }
+
+    /**
+     * Stores the route, from the start location to the goal location, as the
+     * search path from the goal back to the start location.
+     */
+    private void storePath()
+    {
+	for (int i = 0; i < routeLength; i++)
+	{
+	    setSearchPathAt(i, route[routeLength - 1 - i]);
+	}
+	setMaxDepth(routeLength);
+    }
+
+    private void ensureRoute(int length)
+    {
+	if (length > route.length)
+	{
+	    route = Arrays.copyOf(route, Math.max(route.length * 2, length));
+	}
+    }
+
+    /**
+     * @return the index of the cluster of the location with the given packed
+     *         index.
+     */
+    private int clusterOf(int index)
+    {
+	final Maze maze = getMaze();
+	return (maze.getRow(index) / clusterSize) * clusterColumns + maze.getColumn(index) / clusterSize;
+    }
+
+    /**
+     * @return the number of abstract nodes expanded by the last search.
+     */
+    public int getAbstractExpandedNodes()
+    {
+	return abstractExpanded;
+    }
+
+    /**
+     * @return true if a path can go through a cell with the given value, as for
+     *         {@link AbstractSearchEngine#isPossibleMove(int)}.
+     */
+    private static boolean isFree(short value)
+    {
+	return value == 0 || value == MazeSearchGlobals.GOAL_LOCATION_VALUE
+		|| value == MazeSearchGlobals.START_LOCATION_VALUE;
+    }
+
+    /**
+     * Developer test harness. Compares the paths found with the A* search between
+     * random locations of a random maze, before and after random writes to the
+     * maze, and the time taken by the two.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze, and the number of
+     *            queries.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+	int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+	Maze maze = new MazeGenerator(42L, 0.25).generate(size, size);
+	AStarSearchEngine aStar = new AStarSearchEngine(maze);
+	Random random = new Random(42);
+
+	long startTime = System.nanoTime();
+	HierarchicalSearchEngine hierarchical = new HierarchicalSearchEngine(maze);
+	System.out.println(String.format("%d clusters built in %d ms", hierarchical.clusters.length,
+		(System.nanoTime() - startTime) / 1000000));
+
+	for (int round = 0; round < 2; round++)
+	{
+	    long hierarchicalTime = 0;
+	    long aStarTime = 0;
+	    long hierarchicalLength = 0;
+	    long aStarLength = 0;
+	    long abstractExpanded = 0;
+	    int found = 0;
+
+	    for (int i = 0; i < queries; i++)
+	    {
+		Location start = randomFreeLocation(maze, random);
+		Location goal = randomFreeLocation(maze, random);
+
+		startTime = System.nanoTime();
+		boolean hierarchicalFound = hierarchical.search(start, goal);
+		hierarchicalTime += System.nanoTime() - startTime;
+		abstractExpanded += hierarchical.getAbstractExpandedNodes();
+
+		startTime = System.nanoTime();
+		boolean aStarFound = aStar.search(start, goal);
+		aStarTime += System.nanoTime() - startTime;
+
+		if (hierarchicalFound != aStarFound)
+		{
+		    throw new IllegalStateException("Different results from " + start + " to " + goal + ".");
+		}
+		if (hierarchicalFound)
+		{
+		    checkPath(maze, hierarchical, start, goal);
+		    found++;
+		    hierarchicalLength += hierarchical.getMaxDepth();
+		    aStarLength += aStar.getMaxDepth();
+		}
+	    }
+
+	    System.out.println(String.format(
+		    "%d queries, %d paths found: hierarchical %.3f ms and %d abstract nodes per query, A* %.3f ms, "
+			    + "paths %.2f%% longer",
+		    queries, found, hierarchicalTime / 1000000.0 / queries, abstractExpanded / queries,
+		    aStarTime / 1000000.0 / queries, 100.0 * (hierarchicalLength - aStarLength) / aStarLength));
+
+	    // random writes: the clusters changed are built again by the next search
+	    for (int i = 0; i < 1000; i++)
+	    {
+		int row = random.nextInt(size);
+		int column = random.nextInt(size);
+		short value = maze.getValue(row, column);
+		if (value == 0 || value == MazeSearchGlobals.OBSTACLE)
+		{
+		    maze.setValue(row, column, value == 0 ? MazeSearchGlobals.OBSTACLE : 0);
+		}
+	    }
+	    startTime = System.nanoTime();
+	    int rebuilt = hierarchical.dirtyCount;
+	    hierarchical.rebuildDirtyClusters();
+	    System.out.println(String.format("1000 writes: %d clusters built again in %.2f ms", rebuilt,
+		    (System.nanoTime() - startTime) / 1000000.0));
+	}
+    }
+
+    private static Location randomFreeLocation(Maze maze, Random random)
+    {
+	Location location;
+	do
+	{
+	    location = new Location(random.nextInt(maze.getRows()), random.nextInt(maze.getColumns()));
+	}
+	while (maze.getValue(location.getRow(), location.getColumn()) == MazeSearchGlobals.OBSTACLE);
+	return location;
+    }
+
+    /**
+     * Checks that the search path goes from the goal to the start location by
+     * moves between free neighbours.
+     */
+    private static void checkPath(Maze maze, AbstractSearchEngine engine, Location start, Location goal)
+    {
+	Location[] path = engine.getSearchPath();
+	if (path[0].getRow() != goal.getRow() || path[0].getColumn() != goal.getColumn()
+		|| path[path.length - 1].getRow() != start.getRow()
+		|| path[path.length - 1].getColumn() != start.getColumn())
+	{
+	    throw new IllegalStateException("The path does not join the start and goal locations.");
+	}
+	for (int i = 1; i < path.length; i++)
+	{
+	    int moves = Math.abs(path[i].getRow() - path[i - 1].getRow())
+		    + Math.abs(path[i].getColumn() - path[i - 1].getColumn());
+	    if (moves != 1 || maze.getValue(path[i].getRow(), path[i].getColumn()) == MazeSearchGlobals.OBSTACLE)
+	    {
+		throw new IllegalStateException("Invalid move in the path at " + path[i] + ".");
+	    }
+	}
+    }
+}
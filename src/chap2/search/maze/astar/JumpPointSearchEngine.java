@@ -0,0 +1,602 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.astar;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.Location;
+import chap2.search.maze.LocationBitSet;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+
+/**
+ * Jump point search (JPS) for mazes where we can only move forward, backward,
+ * to the right and to the left. Like {@link AStarSearchEngine} it expands the
+ * open location with the smallest estimated total cost, but instead of adding
+ * every neighbour to the open list it "jumps" in a straight line from each
+ * expanded location until it reaches a jump point: a location where a shortest
+ * path may have to turn. All the locations skipped over are never added to the
+ * open list, so on open mazes only a small fraction of the locations are
+ * expanded.
+ * 
+ * The pruning rules are those of jump point search on 4-connected grids:
+ * <ul>
+ * <li>moving horizontally, a location is a jump point if the location above or
+ * below it is free while the one behind that is an obstacle (a forced
+ * neighbour);</li>
+ * <li>moving vertically, a location is a jump point if it has a forced
+ * neighbour to its left or right, or if a horizontal jump from it finds a jump
+ * point;</li>
+ * <li>the goal location is always a jump point.</li>
+ * </ul>
+ * A jump point reached moving horizontally goes on horizontally and may turn up
+ * or down; one reached moving vertically goes on vertically and may turn left
+ * or right.
+ * 
+ * Optionally (JPS+) the jumps can be precomputed: for every location and every
+ * direction the distance to the next jump point that does not depend on the
+ * goal, or to the next obstacle, is stored in a table, so that a jump costs a
+ * few array reads instead of a scan. The tables use 16 bytes per cell, and are
+ * computed again when the maze is modified (see
+ * {@link Maze#getModificationCount()}).
+ * 
+ * The expanded nodes counted are the jump points expanded. As for the breadth
+ * first search, the search path goes from the goal location back to the start
+ * location, through every location in between, so its length is the same as
+ * the one of {@link BreadthFirstSearchEngine}.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class JumpPointSearchEngine extends AbstractSearchEngine
+{
+    // forward, backward, to the right, to the left, as returned by getPossibleMoves
+    private static final int FORWARD  = 0;
+
+    private static final int BACKWARD = 1;
+
+    private static final int RIGHT    = 2;
+
+    private static final int LEFT     = 3;
+
+    // true to precompute the jumps (JPS+)
+    private final boolean    precomputed;
+
+    /**
+     * Jump tables of JPS+, one per direction. A positive entry is the distance to
+     * the next jump point in that direction, any other entry is minus the number
+     * of free locations before the next obstacle. Computed for the maze as it was
+     * at modification count tablesModificationCount.
+     */
+    private int[][]	     jumps		     = null;
+
+    private long	     tablesModificationCount = -1;
+
+    // Search buffers, allocated by the first search and reused by the next ones.
+    private int[]	     costFromStart	     = null;
+
+    private int[]	     stamps		     = null;
+
+    private int		     generation		     = 0;
+
+    private int[]	     predecessor	     = null;
+
+    private LocationBitSet   closed		     = null;
+
+    private OpenList	     open		     = null;
+
+    private int[]	     moves		     = null;
+
+    // goal of the current search
+    private int		     goal		     = 0;
+
+    private int		     goalRow		     = 0;
+
+    private int		     goalColumn		     = 0;
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then performs a jump point search for the goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public JumpPointSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+
+	precomputed = false;
+	search();
+    }
+
+    /**
+     * Creates a jump point search engine for the given maze, without precomputed
+     * jumps. Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public JumpPointSearchEngine(Maze maze)
+    {
+	this(maze, false);
+    }
+
+    /**
+     * Creates a jump point search engine for the given maze.
+     * 
+     * @param maze
+     *            the maze to search.
+     * @param precomputed
+     *            true to precompute the jumps (JPS+), which is done by the first
+     *            search or by {@link JumpPointSearchEngine#precomputeJumps()}.
+     */
+    public JumpPointSearchEngine(Maze maze, boolean precomputed)
+    {
+	super(maze);
+
+	this.precomputed = precomputed;
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	doSearchOn2DGrid(start, goal);
+    }
+
+    /**
+     * A* search over the jump points: the cost of moving from a jump point to the
+     * next one is the number of locations between them.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location.
+     */
+    private void doSearchOn2DGrid(int start, int goal)
+    {
+	final Maze maze = getMaze();
+	final int stride = maze.getStride();
+
+	if (precomputed && tablesModificationCount != maze.getModificationCount())
+	{
+	    precomputeJumps();
+	}
+
+	if (costFromStart == null)
+	{
+	    costFromStart = new int[maze.getSize()];
+	    stamps = new int[maze.getSize()];
+	    predecessor = new int[maze.getSize()];
+	    closed = new LocationBitSet(maze.getSize());
+	    open = new OpenList();
+	    moves = new int[] { stride, -stride, -1, 1 };
+	}
+	else
+	{
+	    closed.clear();
+	    open.clear();
+	}
+
+	generation++;
+	if (generation == 0)
+	{
+	    Arrays.fill(stamps, 0);
+	    generation = 1;
+	}
+
+	this.goal = goal;
+	this.goalRow = maze.getRow(goal);
+	this.goalColumn = maze.getColumn(goal);
+
+	setCostFromStart(start, 0);
+	predecessor[start] = start;
+	open.add(start, 0, manhattanDistance(start));
+	boolean success = false;
+
+	while (open.isEmpty() == false && isSearching())
+	{
+	    int head = open.removeFirst();
+
+	    if (closed.get(head))
+	    {
+		continue;
+	    }
+	    closed.set(head);
+
+	    if (head == goal)
+	    {
+		success = true;
+		break; // we are done
+	    }
+
+	    nodeExpanded();
+
+	    // prune the directions that a shortest path through head never takes
+	    int parent = predecessor[head];
+	    int first = 0;
+	    int last = 3;
+	    if (parent != head)
+	    {
+		boolean vertical = (head - parent) % stride == 0;
+		int ahead = vertical ? (head > parent ? FORWARD : BACKWARD) : (head > parent ? LEFT : RIGHT);
+
+		// moving vertically we go on or turn left or right, moving horizontally
+		// we go on or turn up or down
+		first = vertical ? RIGHT : FORWARD;
+		last = vertical ? LEFT : BACKWARD;
+		expand(head, ahead);
+	    }
+	    for (int direction = first; direction <= last; direction++)
+	    {
+		expand(head, direction);
+	    }
+	}
+
+	// now calculate the path from the jump points, from the goal back to the
+	// start location as done by the breadth first search.
+	setMaxDepth(0);
+	if (success)
+	{
+	    int location = goal;
+	    while (location != start)
+	    {
+		int jumpPoint = predecessor[location];
+		int difference = location - jumpPoint;
+		int step = difference % stride == 0 ? (difference > 0 ? -stride : stride) : (difference > 0 ? -1 : 1);
+
+		for (; location != jumpPoint; location += step)
+		{
+		    setSearchPathAt(getMaxDepth(), location);
+		    setMaxDepth(getMaxDepth() + 1);
+		}
+	    }
+	    setSearchPathAt(getMaxDepth(), start);
+	    setMaxDepth(getMaxDepth() + 1);
+	}
+    }
+
+    /**
+     * Jumps from a jump point in the given direction, and adds the jump point
+     * found, if any, to the open list.
+     */
+    private void expand(int head, int direction)
+    {
+	int jumpPoint = precomputed ? jumpPrecomputed(head, direction) : jump(head, direction);
+	if (jumpPoint < 0)
+	{
+	    return;
+	}
+
+	int difference = Math.abs(jumpPoint - head);
+	int distance = direction <= BACKWARD ? difference / moves[FORWARD] : difference;
+	int cost = getCostFromStart(head) + distance;
+
+	if (cost < getCostFromStart(jumpPoint))
+	{
+	    setCostFromStart(jumpPoint, cost);
+	    predecessor[jumpPoint] = head;
+	    open.add(jumpPoint, cost, manhattanDistance(jumpPoint));
+	}
+    }
+
+    /**
+     * Scans from a location in the given direction for the next jump point.
+     * 
+     * @return the packed index of the jump point, or -1 if an obstacle is reached
+     *         first.
+     */
+    private int jump(int from, int direction)
+    {
+	if (direction >= RIGHT)
+	{
+	    return jumpHorizontally(from, moves[direction]);
+	}
+
+	final int move = moves[direction];
+	for (int next = from + move;; next += move)
+	{
+	    if (isPossibleMove(next) == false)
+	    {
+		return -1;
+	    }
+	    if (next == goal || isForcedVertically(next, move) || jumpHorizontally(next, -1) >= 0
+		    || jumpHorizontally(next, 1) >= 0)
+	    {
+		return next;
+	    }
+	}
+    }
+
+    private int jumpHorizontally(int from, int move)
+    {
+	for (int next = from + move;; next += move)
+	{
+	    if (isPossibleMove(next) == false)
+	    {
+		return -1;
+	    }
+	    if (next == goal || isForcedHorizontally(next, move))
+	    {
+		return next;
+	    }
+	}
+    }
+
+    /**
+     * @return true if the location, reached by a horizontal move, has a free
+     *         location above or below it that the location behind it cannot
+     *         reach directly.
+     */
+    private boolean isForcedHorizontally(int index, int move)
+    {
+	final int stride = moves[FORWARD];
+
+	return (isPossibleMove(index - stride) && isPossibleMove(index - move - stride) == false)
+		|| (isPossibleMove(index + stride) && isPossibleMove(index - move + stride) == false);
+    }
+
+    /**
+     * @return true if the location, reached by a vertical move, has a free
+     *         location to its left or right that the location behind it cannot
+     *         reach directly.
+     */
+    private boolean isForcedVertically(int index, int move)
+    {
+	return (isPossibleMove(index - 1) && isPossibleMove(index - move - 1) == false)
+		|| (isPossibleMove(index + 1) && isPossibleMove(index - move + 1) == false);
+    }
+
+    /**
+     * Jumps from a location in the given direction using the JPS+ tables: the
+     * next jump point is the closest of the one in the table and of the goal, if
+     * the goal can be reached in a straight line or, moving vertically, after
+     * turning once on the row of the goal.
+     * 
+     * @return the packed index of the jump point, or -1 if an obstacle is reached
+     *         first.
+     */
+    private int jumpPrecomputed(int from, int direction)
+    {
+	final Maze maze = getMaze();
+	final int move = moves[direction];
+
+	int entry = jumps[direction][from];
+	int reach = entry > 0 ? entry : -entry;
+	int distance = entry > 0 ? entry : Integer.MAX_VALUE;
+
+	int row = maze.getRow(from);
+	int column = maze.getColumn(from);
+
+	if (direction >= RIGHT)
+	{
+	    int toGoal = (goalColumn - column) * move;
+	    if (goalRow == row && toGoal > 0 && toGoal <= reach)
+	    {
+		distance = Math.min(distance, toGoal);
+	    }
+	}
+	else
+	{
+	    int toGoalRow = (goalRow - row) * (direction == FORWARD ? 1 : -1);
+	    if (toGoalRow > 0 && toGoalRow <= reach && toGoalRow < distance)
+	    {
+		// the location on the row of the goal is a jump point if the goal can be
+		// reached from it horizontally
+		int crossing = from + toGoalRow * move;
+		int toGoal = goalColumn - column;
+		int sideways = toGoal > 0 ? jumps[LEFT][crossing] : jumps[RIGHT][crossing];
+
+		if (toGoal == 0 || Math.abs(toGoal) <= (sideways > 0 ? sideways : -sideways))
+		{
+		    distance = toGoalRow;
+		}
+	    }
+	}
+
+	return distance == Integer.MAX_VALUE ? -1 : from + distance * move;
+    }
+
+    /**
+     * Computes the JPS+ jump tables for the current content of the maze. The
+     * horizontal tables are computed first, since the vertical jump points depend
+     * on them. Each table is filled scanning against its direction, so that the
+     * entry of a location is derived from the entry of the next location.
+     */
+    public void precomputeJumps()
+    {
+	final Maze maze = getMaze();
+	final int stride = maze.getStride();
+	final int rows = maze.getRows();
+	final int columns = maze.getColumns();
+
+	long modificationCount = maze.getModificationCount();
+	if (jumps == null)
+	{
+	    jumps = new int[4][maze.getSize()];
+	}
+	if (moves == null)
+	{
+	    moves = new int[] { stride, -stride, -1, 1 };
+	}
+
+	for (int i = 0; i < rows; i++)
+	{
+	    int rowStart = maze.getIndex(i, 0);
+	    int rowEnd = maze.getIndex(i, columns - 1);
+
+	    for (int index = rowEnd; index >= rowStart; index--)
+	    {
+		jumps[LEFT][index] = nextEntry(jumps[LEFT], index + 1, isPossibleMove(index + 1)
+			&& isForcedHorizontally(index + 1, 1));
+	    }
+	    for (int index = rowStart; index <= rowEnd; index++)
+	    {
+		jumps[RIGHT][index] = nextEntry(jumps[RIGHT], index - 1, isPossibleMove(index - 1)
+			&& isForcedHorizontally(index - 1, -1));
+	    }
+	}
+
+	for (int j = 0; j < columns; j++)
+	{
+	    int columnStart = maze.getIndex(0, j);
+	    int columnEnd = maze.getIndex(rows - 1, j);
+
+	    for (int index = columnEnd; index >= columnStart; index -= stride)
+	    {
+		int next = index + stride;
+		jumps[FORWARD][index] = nextEntry(jumps[FORWARD], next,
+			isPossibleMove(next) && isVerticalJumpPoint(next, stride));
+	    }
+	    for (int index = columnStart; index <= columnEnd; index += stride)
+	    {
+		int next = index - stride;
+		jumps[BACKWARD][index] = nextEntry(jumps[BACKWARD], next,
+			isPossibleMove(next) && isVerticalJumpPoint(next, -stride));
+	    }
+	}
+
+	tablesModificationCount = modificationCount;
+    }
+
+    /**
+     * @return true if the location, reached by a vertical move, is a jump point
+     *         whatever the goal, according to the horizontal jump tables.
+     */
+    private boolean isVerticalJumpPoint(int index, int move)
+    {
+	return isForcedVertically(index, move) || jumps[LEFT][index] > 0 || jumps[RIGHT][index] > 0;
+    }
+
+    /**
+     * @return the table entry of a location whose next location in the direction
+     *         of the table is given.
+     */
+    private int nextEntry(int[] table, int next, boolean jumpPoint)
+    {
+	if (isPossibleMove(next) == false)
+	{
+	    return 0;
+	}
+	if (jumpPoint)
+	{
+	    return 1;
+	}
+
+	// the border cells are never read, they are obstacles
+	int entry = table[next];
+	return entry > 0 ? entry + 1 : entry - 1;
+    }
+
+    /**
+     * @return the number of moves of the best path found so far by the current
+     *         search to the given location, Integer.MAX_VALUE if none.
+     */
+    private int getCostFromStart(int index)
+    {
+	return stamps[index] == generation ? costFromStart[index] : Integer.MAX_VALUE;
+    }
+
+    private void setCostFromStart(int index, int cost)
+    {
+	costFromStart[index] = cost;
+	stamps[index] = generation;
+    }
+
+    /**
+     * @return the Manhattan distance between the cell with the given packed index
+     *         and the goal location.
+     */
+    private int manhattanDistance(int index)
+    {
+	final Maze maze = getMaze();
+
+	return Math.abs(maze.getRow(index) - goalRow) + Math.abs(maze.getColumn(index) - goalColumn);
+    }
+
+    /**
+     * Developer test harness. Checks that jump point search, with and without
+     * precomputed jumps, finds paths as long as the breadth first search on random
+     * mazes of several densities, then compares the speed of the engines on a
+     * large open maze.
+     * 
+     * @param args
+     *            the number of rows and columns of the large maze, and its
+     *            obstacle density.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+	double largeDensity = args.length > 1 ? Double.parseDouble(args[1]) : 0.05;
+	Random random = new Random(42);
+
+	for (double density : new double[] { 0.0, 0.1, 0.2, 0.3, 0.4 })
+	{
+	    for (int i = 0; i < 200; i++)
+	    {
+		int rows = 1 + random.nextInt(40);
+		int columns = 1 + random.nextInt(40);
+		Maze maze = new MazeGenerator(random.nextLong(), density).generate(rows, columns);
+
+		BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+		JumpPointSearchEngine jumpPoint = new JumpPointSearchEngine(maze);
+		JumpPointSearchEngine jumpPointPlus = new JumpPointSearchEngine(maze, true);
+
+		for (int j = 0; j < 20; j++)
+		{
+		    Location start = new Location(random.nextInt(rows), random.nextInt(columns));
+		    Location goal = new Location(random.nextInt(rows), random.nextInt(columns));
+		    if (maze.getValue(start.getRow(), start.getColumn()) == MazeSearchGlobals.OBSTACLE
+			    || maze.getValue(goal.getRow(), goal.getColumn()) == MazeSearchGlobals.OBSTACLE)
+		    {
+			continue;
+		    }
+
+		    breadthFirst.search(start, goal);
+		    jumpPoint.search(start, goal);
+		    jumpPointPlus.search(start, goal);
+
+		    if (breadthFirst.getMaxDepth() != jumpPoint.getMaxDepth()
+			    || breadthFirst.getMaxDepth() != jumpPointPlus.getMaxDepth())
+		    {
+			maze.print();
+			throw new IllegalStateException("Different path lengths from " + start.getRow() + ", "
+				+ start.getColumn() + " to " + goal.getRow() + ", " + goal.getColumn() + ": "
+				+ breadthFirst.getMaxDepth() + ", " + jumpPoint.getMaxDepth() + ", "
+				+ jumpPointPlus.getMaxDepth() + ".");
+		    }
+		}
+	    }
+	}
+	System.out.println("Same path lengths as the breadth first search on 5000 random mazes.");
+
+	Maze maze = new MazeGenerator(42L, largeDensity).generate(size, size);
+	AbstractSearchEngine[] engines = { new BreadthFirstSearchEngine(maze), new AStarSearchEngine(maze),
+		new JumpPointSearchEngine(maze), new JumpPointSearchEngine(maze, true) };
+	String[] names = { "Breadth first search", "A* search", "Jump point search", "Jump point search+" };
+
+	long startTime = System.nanoTime();
+	((JumpPointSearchEngine) engines[3]).precomputeJumps();
+	System.out.println("Jumps of the " + size + "x" + size + " maze precomputed in "
+		+ (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+	for (int iteration = 0; iteration < 3; iteration++)
+	{
+	    for (int i = 0; i < engines.length; i++)
+	    {
+		startTime = System.nanoTime();
+		engines[i].search();
+		long time = System.nanoTime() - startTime;
+
+		System.out.println(String.format("%-22s path length %6d, expanded nodes %9d, %6d ms", names[i],
+			engines[i].getMaxDepth(), engines[i].getExpandedNodes(), time / 1000000));
+	    }
+	}
+    }
+}
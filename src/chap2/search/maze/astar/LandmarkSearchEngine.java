@@ -0,0 +1,191 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.astar;
+
+import java.util.Random;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.LandmarkTable;
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * A* search with the ALT heuristic: the estimate of the number of moves left is
+ * the largest of the Manhattan distance and of the lower bounds given by the
+ * landmarks of a {@link LandmarkTable} through the triangle inequality. On mazes
+ * with many obstacles the Manhattan distance is far below the real number of
+ * moves and A* expands almost as many locations as a breadth first search,
+ * while the landmark bounds follow the detours of the maze, so that far fewer
+ * locations are expanded. The path found is still a shortest one.
+ * 
+ * The bounds of a search come from the landmarks giving the best bound at its
+ * start location. The tables are computed on the first search, see
+ * {@link LandmarkTable}.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class LandmarkSearchEngine extends AStarSearchEngine
+{
+    // not initialized here: the search of the default constructor runs before
+    // the field initializers of this class
+    private LandmarkTable	     table;
+
+    // bounds of the current search
+    private LandmarkTable.Estimator estimator;
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then performs an A* search for the goal with the landmark
+     * tables shared by the users of the maze.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public LandmarkSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+    }
+
+    /**
+     * Creates a landmark search engine for the given maze, using the landmark
+     * tables shared by the users of the maze (see
+     * {@link LandmarkTable#forMaze(Maze)}). Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public LandmarkSearchEngine(Maze maze)
+    {
+	super(maze);
+    }
+
+    /**
+     * Creates a landmark search engine for the given maze and landmark tables.
+     * Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     * @param table
+     *            the landmark tables of the maze.
+     */
+    public LandmarkSearchEngine(Maze maze, LandmarkTable table)
+    {
+	super(maze);
+
+	if (table.getMaze() != maze)
+	{
+	    throw new IllegalArgumentException("The landmark tables are not the ones of the maze.");
+	}
+	this.table = table;
+    }
+
+    /**
+     * @return the landmark tables used by the engine.
+     */
+    public LandmarkTable getLandmarkTable()
+    {
+	if (table == null)
+	{
+	    table = LandmarkTable.forMaze(getMaze());
+	}
+	return table;
+    }
+
+    @Override
+    protected void startEstimates(int start, int goal)
+    {
+	super.startEstimates(start, goal);
+
+	estimator = getLandmarkTable().getEstimator(start, goal);
+    }
+
+    @Override
+    protected int estimateCost(int index)
+    {
+	return Math.max(super.estimateCost(index), estimator.estimate(index));
+    }
+
+    /**
+     * Developer test harness. Solves random queries on a maze with the default
+     * obstacle density with A* and with the landmark bounds, checks that the path
+     * lengths are the same and compares the expanded locations and the time
+     * taken.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze, the number of
+     *            queries and the number of landmarks.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+	int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+	int landmarks = args.length > 2 ? Integer.parseInt(args[2]) : LandmarkTable.DEFAULT_LANDMARKS;
+
+	Maze maze = new MazeGenerator(42L, MazeGenerator.DEFAULT_DENSITY).generate(size, size);
+	Random random = new Random(42);
+
+	long startTime = System.nanoTime();
+	LandmarkTable table = new LandmarkTable(maze, landmarks);
+	table.getLandmark(0);
+	System.out.println(landmarks + " landmark tables computed in " + (System.nanoTime() - startTime) / 1000000
+		+ " ms.");
+
+	AStarSearchEngine aStar = new AStarSearchEngine(maze);
+	LandmarkSearchEngine alt = new LandmarkSearchEngine(maze, table);
+
+	// locations out of the obstacles
+	Location[] locations = new Location[2 * queries];
+	for (int i = 0; i < locations.length; i++)
+	{
+	    do
+	    {
+		locations[i] = new Location(random.nextInt(size), random.nextInt(size));
+	    }
+	    while (maze.getValue(locations[i].getRow(), locations[i].getColumn()) == MazeSearchGlobals.OBSTACLE);
+	}
+
+	for (int round = 0; round < 2; round++)
+	{
+	    long aStarTime = 0;
+	    long altTime = 0;
+	    long aStarExpanded = 0;
+	    long altExpanded = 0;
+	    int found = 0;
+
+	    for (int i = 0; i < queries; i++)
+	    {
+		startTime = System.nanoTime();
+		boolean aStarFound = aStar.search(locations[2 * i], locations[2 * i + 1]);
+		aStarTime += System.nanoTime() - startTime;
+		aStarExpanded += aStar.getExpandedNodes();
+
+		startTime = System.nanoTime();
+		boolean altFound = alt.search(locations[2 * i], locations[2 * i + 1]);
+		altTime += System.nanoTime() - startTime;
+		altExpanded += alt.getExpandedNodes();
+
+		if (aStarFound != altFound || aStar.getMaxDepth() != alt.getMaxDepth())
+		{
+		    throw new IllegalStateException("Different paths from " + locations[2 * i] + " to "
+			    + locations[2 * i + 1] + ".");
+		}
+		if (altFound)
+		{
+		    found++;
+		}
+	    }
+
+	    System.out.println(String.format(
+		    "%d queries, %d paths found: A* %.3f ms and %d expanded nodes per query, landmarks %.3f ms and %d expanded nodes",
+		    queries, found, aStarTime / 1e6 / queries, aStarExpanded / queries, altTime / 1e6 / queries,
+		    altExpanded / queries));
+	}
+    }
+}
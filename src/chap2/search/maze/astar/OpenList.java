@@ -0,0 +1,119 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.astar;
+
+import java.util.Arrays;
+
+/**
+ * Open list of the A* style searches, a binary min-heap of locations stored in
+ * three parallel int arrays: the packed location index, its estimated total
+ * cost f = g + h and its estimated remaining cost h. Ties on f are broken in
+ * favour of the location closest to the goal, which reduces the number of
+ * expanded locations on open mazes. The arrays double in size when full.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class OpenList
+{
+    private int[] locations = null;
+
+    private int[] totalCosts = null;
+
+    private int[] remainingCosts = null;
+
+    private int size = 0;
+
+    public OpenList(int num)
+    {
+	locations = new int[num];
+	totalCosts = new int[num];
+	remainingCosts = new int[num];
+    }
+
+    public OpenList()
+    {
+	this(400);
+    }
+
+    public void add(int location, int costFromStart, int remainingCost)
+    {
+	if (size == locations.length)
+	{
+	    locations = Arrays.copyOf(locations, size * 2);
+	    totalCosts = Arrays.copyOf(totalCosts, size * 2);
+	    remainingCosts = Arrays.copyOf(remainingCosts, size * 2);
+	}
+
+	int totalCost = costFromStart + remainingCost;
+
+	// sift up
+	int i = size++;
+	while (i > 0)
+	{
+	    int parent = (i - 1) >>> 1;
+	    if (lessThan(parent, totalCost, remainingCost))
+	    {
+		break;
+	    }
+	    set(i, locations[parent], totalCosts[parent], remainingCosts[parent]);
+	    i = parent;
+	}
+	set(i, location, totalCost, remainingCost);
+    }
+
+    public int removeFirst()
+    {
+	int ret = locations[0];
+
+	size--;
+	int location = locations[size];
+	int totalCost = totalCosts[size];
+	int remainingCost = remainingCosts[size];
+
+	// sift down
+	int i = 0;
+	int half = size >>> 1;
+	while (i < half)
+	{
+	    int child = 2 * i + 1;
+	    if (child + 1 < size && lessThan(child + 1, totalCosts[child], remainingCosts[child]))
+	    {
+		child++;
+	    }
+	    if (lessThan(child, totalCost, remainingCost) == false)
+	    {
+		break;
+	    }
+	    set(i, locations[child], totalCosts[child], remainingCosts[child]);
+	    i = child;
+	}
+	set(i, location, totalCost, remainingCost);
+
+	return ret;
+    }
+
+    public boolean isEmpty()
+    {
+	return size == 0;
+    }
+
+    public void clear()
+    {
+	size = 0;
+    }
+
+    private boolean lessThan(int i, int totalCost, int remainingCost)
+    {
+	return totalCosts[i] < totalCost || (totalCosts[i] == totalCost && remainingCosts[i] <= remainingCost);
+    }
+
+    private void set(int i, int location, int totalCost, int remainingCost)
+    {
+	locations[i] = location;
+	totalCosts[i] = totalCost;
+	remainingCosts[i] = remainingCost;
+    }
+}
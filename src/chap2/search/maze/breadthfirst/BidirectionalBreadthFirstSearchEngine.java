@@ -0,0 +1,322 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.breadthfirst;
+
+import java.util.Random;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.Location;
+import chap2.search.maze.LocationBitSet;
+import chap2.search.maze.LocationQueue;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * Bidirectional breadth first search. Two breadth first searches are run at the
+ * same time, one forward from the start location and one backward from the goal
+ * location, until they meet in the middle. On an open maze each search only has
+ * to fan out to about half the length of the path, so far fewer locations are
+ * expanded than with {@link BreadthFirstSearchEngine}.
+ * 
+ * Each side has its own queue, its own set of visited locations and its own
+ * predecessor array. The searches alternate one whole level at a time, always
+ * growing the side with the smaller frontier. When a level of one side reaches
+ * a location already visited by the other side the shortest path is found: it
+ * is spliced together from the two predecessor arrays. As for
+ * {@link BreadthFirstSearchEngine} the search path goes from the goal location
+ * back to the start location.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class BidirectionalBreadthFirstSearchEngine extends AbstractSearchEngine
+{
+    // Search buffers, allocated by the first search and reused by the next ones.
+    private LocationBitSet forwardVisited      = null;
+
+    private LocationBitSet backwardVisited     = null;
+
+    private int[]	   forwardPredecessor  = null;
+
+    private int[]	   backwardPredecessor = null;
+
+    private LocationQueue  forwardQueue	       = null;
+
+    private LocationQueue  backwardQueue       = null;
+
+    // forward, backward, to the right, to the left
+    private int[]	   moves	       = null;
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then uses the auxiliary method doSearchOn2DGrid for performing a
+     * bidirectional breadth first search for the goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public BidirectionalBreadthFirstSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+
+	search();
+    }
+
+    /**
+     * Creates a bidirectional breadth first search engine for the given maze.
+     * Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public BidirectionalBreadthFirstSearchEngine(Maze maze)
+    {
+	super(maze);
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	doSearchOn2DGrid(start, goal);
+    }
+
+    /**
+     * Alternates the forward and backward searches one level at a time until they
+     * meet, then calculates the shortest path from the two predecessor arrays.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location.
+     */
+    private void doSearchOn2DGrid(int start, int goal)
+    {
+	final Maze maze = getMaze();
+
+	// the backward search would start from an obstacle, and the path end on it
+	setMaxDepth(0);
+	if (isPossibleMove(goal) == false)
+	{
+	    return;
+	}
+
+	if (forwardVisited == null)
+	{
+	    forwardVisited = new LocationBitSet(maze.getSize());
+	    backwardVisited = new LocationBitSet(maze.getSize());
+	    forwardPredecessor = new int[maze.getSize()];
+	    backwardPredecessor = new int[maze.getSize()];
+	    forwardQueue = new LocationQueue();
+	    backwardQueue = new LocationQueue();
+	    moves = new int[] { maze.getStride(), -maze.getStride(), -1, 1 };
+	}
+	else
+	{
+	    forwardVisited.clear();
+	    backwardVisited.clear();
+	    forwardQueue.clear();
+	    backwardQueue.clear();
+	}
+
+	forwardVisited.set(start);
+	forwardQueue.addToBackOfQueue(start);
+	backwardVisited.set(goal);
+	backwardQueue.addToBackOfQueue(goal);
+
+	// the location where the two searches meet, -1 until they do
+	int meeting = start == goal ? start : -1;
+
+	while (meeting == -1 && forwardQueue.isEmpty() == false && backwardQueue.isEmpty() == false
+		&& isSearching())
+	{
+	    if (forwardQueue.size() <= backwardQueue.size())
+	    {
+		meeting = expandLevel(forwardQueue, forwardVisited, forwardPredecessor, backwardVisited);
+	    }
+	    else
+	    {
+		meeting = expandLevel(backwardQueue, backwardVisited, backwardPredecessor, forwardVisited);
+	    }
+	}
+
+	// now splice the shortest path from the two predecessor arrays: from the goal
+	// to the meeting location, then from the meeting location back to the start.
+	setMaxDepth(0);
+	if (meeting != -1)
+	{
+	    int toGoal = 0;
+	    for (int location = meeting; location != goal; location = backwardPredecessor[location])
+	    {
+		toGoal++;
+	    }
+
+	    int location = meeting;
+	    for (int i = toGoal; i >= 0; i--)
+	    {
+		setSearchPathAt(i, location);
+		if (i > 0)
+		{
+		    location = backwardPredecessor[location];
+		}
+	    }
+	    setMaxDepth(toGoal + 1);
+
+	    for (location = meeting; location != start;)
+	    {
+		location = forwardPredecessor[location];
+		setSearchPathAt(getMaxDepth(), location);
+		setMaxDepth(getMaxDepth() + 1);
+	    }
+	}
+    }
+
+    /**
+     * Expands every location of the current level of one of the two searches.
+     * Before the level is expanded no location has been visited by both searches,
+     * so the first location reached that was already visited by the other search
+     * lies on a shortest path. Moves are possible in both directions between any
+     * two locations that are not obstacles, so the same possible moves are used by
+     * the forward and the backward search.
+     * 
+     * @param queue
+     *            the queue of the search, holding exactly one level.
+     * @param visited
+     *            the locations visited by the search.
+     * @param predecessor
+     *            the predecessor array of the search.
+     * @param otherVisited
+     *            the locations visited by the other search.
+     * @return the packed index of the location where the two searches meet, or -1
+     *         if they have not met yet.
+     */
+    private int expandLevel(LocationQueue queue, LocationBitSet visited, int[] predecessor,
+	    LocationBitSet otherVisited)
+    {
+	for (int remaining = queue.size(); remaining > 0 && isSearching(); remaining--)
+	{
+	    int head = queue.removeFromFrontOfQueue();
+	    nodeExpanded();
+
+	    for (int i = 0; i < 4; i++)
+	    {
+		int next = head + moves[i];
+
+		if (isPossibleMove(next) == false || visited.get(next))
+		{
+		    continue;
+		}
+
+		visited.set(next);
+		predecessor[next] = head;
+		if (otherVisited.get(next))
+		{
+		    return next; // we are done
+		}
+		queue.addToBackOfQueue(next);
+	    }
+	}
+
+	return -1;
+    }
+
+    /**
+     * Developer test harness. Solves random queries between free locations of
+     * seeded mazes of several obstacle densities, and a query whose goal is an
+     * obstacle, with a breadth first search and with a bidirectional breadth
+     * first search, compares the path lengths and checks that each spliced path
+     * joins the start and goal locations by moves between free neighbours.
+     * 
+     * @param args
+     *            the number of rows and columns of the mazes and the number of
+     *            queries per maze.
+     */
+    public static void main(String[] args)
+    {
+	int rows = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+	int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+	int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+	double[] densities = { 0.0, 0.1, 0.25, MazeGenerator.DEFAULT_DENSITY };
+	for (int m = 0; m < densities.length; m++)
+	{
+	    Maze maze = new MazeGenerator(42L + m, densities[m]).generate(rows, columns);
+	    Random random = new Random(42L + m);
+
+	    // a goal on an obstacle has no path, even on a maze without obstacles
+	    Location obstacle = new Location(rows / 2, columns / 2);
+	    maze.setValue(obstacle.getRow(), obstacle.getColumn(), MazeSearchGlobals.OBSTACLE);
+
+	    BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+	    BidirectionalBreadthFirstSearchEngine bidirectional = new BidirectionalBreadthFirstSearchEngine(maze);
+
+	    int found = 0;
+	    long breadthFirstExpanded = 0;
+	    long bidirectionalExpanded = 0;
+	    for (int i = 0; i < queries; i++)
+	    {
+		Location start = randomFreeLocation(maze, random);
+		Location goal = i == 0 ? start : i == 1 ? obstacle : randomFreeLocation(maze, random);
+
+		boolean breadthFirstFound = breadthFirst.search(start, goal);
+		boolean bidirectionalFound = bidirectional.search(start, goal);
+		breadthFirstExpanded += breadthFirst.getExpandedNodes();
+		bidirectionalExpanded += bidirectional.getExpandedNodes();
+
+		if (breadthFirstFound != bidirectionalFound || breadthFirst.getMaxDepth() != bidirectional.getMaxDepth())
+		{
+		    throw new IllegalStateException("Different paths from " + start + " to " + goal + ": "
+			    + breadthFirst.getMaxDepth() + " and " + bidirectional.getMaxDepth() + " locations.");
+		}
+		if (bidirectionalFound)
+		{
+		    checkPath(maze, bidirectional, start, goal);
+		    found++;
+		}
+	    }
+
+	    System.out.println(String.format(
+		    "%dx%d maze, density %.2f: %d of %d paths found and checked. Expanded nodes per query: "
+			    + "breadth first %d, bidirectional %d.", rows, columns, densities[m], found, queries,
+		    breadthFirstExpanded / queries, bidirectionalExpanded / queries));
+	}
+    }
+
+    private static Location randomFreeLocation(Maze maze, Random random)
+    {
+	Location location;
+	do
+	{
+	    location = new Location(random.nextInt(maze.getRows()), random.nextInt(maze.getColumns()));
+	}
+	while (maze.getValue(location.getRow(), location.getColumn()) == MazeSearchGlobals.OBSTACLE);
+	return location;
+    }
+
+    /**
+     * Checks that the search path goes from the goal to the start location by
+     * moves between free neighbours.
+     */
+    private static void checkPath(Maze maze, AbstractSearchEngine engine, Location start, Location goal)
+    {
+	Location[] path = engine.getSearchPath();
+	if (path[0].getRow() != goal.getRow() || path[0].getColumn() != goal.getColumn()
+		|| path[path.length - 1].getRow() != start.getRow()
+		|| path[path.length - 1].getColumn() != start.getColumn())
+	{
+	    throw new IllegalStateException("The path does not join the start and goal locations.");
+	}
+	for (int i = 1; i < path.length; i++)
+	{
+	    int moves = Math.abs(path[i].getRow() - path[i - 1].getRow())
+		    + Math.abs(path[i].getColumn() - path[i - 1].getColumn());
+	    if (moves != 1 || maze.getValue(path[i].getRow(), path[i].getColumn()) == MazeSearchGlobals.OBSTACLE)
+	    {
+		throw new IllegalStateException("Invalid move in the path at " + path[i] + ".");
+	    }
+	}
+    }
+}
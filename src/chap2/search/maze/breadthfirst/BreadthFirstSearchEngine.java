@@ -5,8 +5,16 @@
  */
 package chap2.search.maze.breadthfirst;
 
+import java.util.Random;
+
 import chap2.search.maze.AbstractSearchEngine;
 import chap2.search.maze.Location;
+import chap2.search.maze.LocationBitSet;
+import chap2.search.maze.LocationQueue;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+import chap2.search.maze.PredecessorArray;
 
 /**
  * The derived class BreadthF irstSearch is similar to the DepthF irstSearch
@@ -17,6 +25,16 @@ import chap2.search.maze.Location;
  */
 public class BreadthFirstSearchEngine extends AbstractSearchEngine
 {
+    // Search buffers, allocated by the first search and reused by the next ones.
+    private LocationBitSet   alreadyVisitedFlag = null;
+
+    private PredecessorArray predecessor	= null;
+
+    private LocationQueue    queue		= null;
+
+    // possible moves of the location being expanded
+    private final int[]	     connected		= new int[4];
+
     /**
      * Default constructor. The class constructor for BreadthF irstSearch calls the
      * super class constructor to initialize the maze, and then uses the auxiliary
@@ -29,71 +47,82 @@ public class BreadthFirstSearchEngine extends AbstractSearchEngine
     {
 	super(rows, columns);
 
-	doSearchOn2DGrid();
+	search();
     }
 
     /**
-     * The method doSearchOn2Dgrid is not recursive, it uses a loop to add new
-     * search positions to the end of an instance of class DimensionQueue and to
-     * remove and test new locations from the front of the queue. The
-     * two-dimensional array alreadyVisitedFlag keeps us from searching the same
-     * location twice. To calculate the shortest path after the goal is found, we
-     * use the predecessor array:
+     * Creates a breadth first search engine for the given maze. Searches are
+     * performed by {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
      */
-    private void doSearchOn2DGrid()
+    public BreadthFirstSearchEngine(Maze maze)
     {
-	int rows = getMaze().getRows();
-	int columns = getMaze().getColumns();
+	super(maze);
+    }
 
-	boolean alreadyVisitedFlag[][] = new boolean[rows][columns];
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	doSearchOn2DGrid(start, goal);
+    }
 
-	// float distanceToNode[][] = new float[width][height];
-	Location predecessor[][] = new Location[rows][columns];
-	LocationQueue queue = new LocationQueue();
+    /**
+     * The method doSearchOn2Dgrid is not recursive, it uses a loop to add new
+     * search positions to the end of an instance of class LocationQueue and to
+     * remove and test new locations from the front of the queue. The bit set
+     * alreadyVisitedFlag keeps us from searching the same location twice. To
+     * calculate the shortest path after the goal is found, we use the predecessor
+     * array, which stores in 2 bits per location the direction it was reached
+     * from. Locations are identified by their packed index in the maze, so no
+     * object is allocated while expanding a location. The buffers are kept for
+     * the next searches: the visited bit set is cleared in constant time, and the
+     * predecessor array needs no clearing since it is only read for visited
+     * locations.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location.
+     */
+    private void doSearchOn2DGrid(int start, int goal)
+    {
+	final Maze maze = getMaze();
 
-	for (int i = 0; i < rows; i++)
+	if (alreadyVisitedFlag == null)
 	{
-	    for (int j = 0; j < columns; j++)
-	    {
-		alreadyVisitedFlag[i][j] = false;
-		// distanceToNode[i][j] = 10000000.0f;
-		predecessor[i][j] = null;
-	    }
+	    alreadyVisitedFlag = new LocationBitSet(maze.getSize());
+	    predecessor = new PredecessorArray(maze);
+	    queue = new LocationQueue(Math.max(maze.getRows(), maze.getColumns()) * 2);
+	}
+	else
+	{
+	    alreadyVisitedFlag.clear();
+	    queue.clear();
 	}
 
-	alreadyVisitedFlag[getStartLocation().getColumn()][getStartLocation().getRow()] = true;
+	alreadyVisitedFlag.set(start);
 
-	// distanceToNode[startLoc.width][startLoc.height] = 0.0f;
-	queue.addToBackOfQueue(getStartLocation());
-	boolean success = false;
+	queue.addToBackOfQueue(start);
+	boolean success = start == goal;
 
-	outer: while (queue.isEmpty() == false)
+	outer: while (success == false && queue.isEmpty() == false && isSearching())
 	{
-	    Location head = queue.peekAtFrontOfQueue();
+	    int head = queue.peekAtFrontOfQueue();
 
-	    if (head == null)
-	    {
-		break; // ??
-	    }
-
-	    Location[] connected = getPossibleMoves(head);
+	    int count = getPossibleMoves(head, connected);
+	    nodeExpanded();
 
-	    for (int i = 0; i < 4; i++)
+	    for (int i = 0; i < count; i++)
 	    {
-		if (connected[i] == null)
-		{
-		    break;
-		}
-
-		int row = connected[i].getRow();
-		int column = connected[i].getColumn();
-		if (alreadyVisitedFlag[row][column] == false)
+		int next = connected[i];
+		if (alreadyVisitedFlag.get(next) == false)
 		{
-		    // distanceToNode[w][h] = distanceToNode[w][h] + 1.0f;
-		    alreadyVisitedFlag[row][column] = true;
-		    predecessor[row][column] = head;
-		    queue.addToBackOfQueue(connected[i]);
-		    if (equals(connected[i], getGoalLocation()))
+		    alreadyVisitedFlag.set(next);
+		    predecessor.set(next, head);
+		    queue.addToBackOfQueue(next);
+		    if (next == goal)
 		    {
 			success = true;
 			break outer; // we are done
@@ -107,90 +136,197 @@ public class BreadthFirstSearchEngine extends AbstractSearchEngine
 	setMaxDepth(0);
 	if (success)
 	{
-	    setSearchPathAt(getMaxDepth(), getGoalLocation());
+	    int location = goal;
+	    setSearchPathAt(getMaxDepth(), location);
 	    setMaxDepth(getMaxDepth() + 1);
-	    for (int i = 0; i < 100; i++)
+	    while (location != start)
 	    {
-		Location predecessorLocation = predecessor[getSearchPathAt(getMaxDepth() - 1)
-			.getRow()][getSearchPathAt(getMaxDepth() - 1).getColumn()];
+		location = predecessor.get(location);
 
-		setSearchPathAt(getMaxDepth(), predecessorLocation);
+		setSearchPathAt(getMaxDepth(), location);
 
 		setMaxDepth(getMaxDepth() + 1);
-
-		if (equals(getSearchPathAt(getMaxDepth() - 1), getStartLocation()))
-		{
-		    break; // back to starting node
-		}
 	    }
 	}
     }
 
     /**
-     * We use a queue data structure for storing possible moves, placing possible
-     * moves on the back of the queue as they are calculated, and pulling test moves
-     * from the front of the queue. The effect of a breadth first search is that it
-     * "fans out" uniformly from the starting node until the goal node is found.
+     * Developer test harness. Runs a breadth first search on a large maze without
+     * obstacles, so that the search has to expand almost every location before
+     * reaching the goal in the opposite corner, then answers many short queries
+     * with the same engine, and finally runs the search whose frontier reaches
+     * millions of locations (see {@link BreadthFirstSearchEngine#checkLargeFrontier(int)}).
+     * The default frontier of 4 million locations needs a heap of about 1 GB.
      * 
-     * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+     * @param args
+     *            the number of rows and columns of the maze without obstacles,
+     *            and the number of levels of the H-tree maze.
      */
-    protected class LocationQueue
+    public static void main(String[] args)
     {
-	private Location[] queue = null;
+	int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+	int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+	int levels = args.length > 2 ? Integer.parseInt(args[2]) : 12;
 
-	private int tail = -1;
+	Maze maze = new Maze(rows, columns);
+	for (int i = 0; i < rows; i++)
+	{
+	    for (int j = 0; j < columns; j++)
+	    {
+		if (maze.getValue(i, j) == MazeSearchGlobals.OBSTACLE)
+		{
+		    maze.setValue(i, j, (short) 0);
+		}
+	    }
+	}
 
-	private int head = -1;
+	long startTime = System.nanoTime();
+	BreadthFirstSearchEngine engine = new BreadthFirstSearchEngine(maze);
+	engine.search();
+	long elapsed = (System.nanoTime() - startTime) / 1000000;
 
-	private int len = -1;
+	System.out.println("Maze of size " + rows + " by " + columns + " without obstacles: " + engine.getExpandedNodes()
+		+ " expanded nodes in " + elapsed + " ms.");
 
-	public LocationQueue(int num)
+	// only the goal and at most two of its neighbours are left unexpanded
+	if (engine.getExpandedNodes() < (long) rows * columns - 3)
 	{
-	    queue = new Location[num];
-	    head = tail = 0;
-	    len = num;
+	    throw new IllegalStateException("The search lost part of its frontier.");
 	}
 
-	public LocationQueue()
+	// the same engine answers many short queries between random locations of the
+	// maze, without allocating new search buffers
+	Random random = new Random(42);
+	int queries = 10000;
+	startTime = System.nanoTime();
+	for (int i = 0; i < queries; i++)
 	{
-	    this(400);
-	}
+	    Location start = new Location(random.nextInt(rows), random.nextInt(columns));
+	    Location goal = new Location(start.getRow() + random.nextInt(Math.min(50, rows - start.getRow())),
+		    start.getColumn() + random.nextInt(Math.min(50, columns - start.getColumn())));
 
-	public void addToBackOfQueue(Location n)
-	{
-	    queue[tail] = n;
-	    if (tail >= (len - 1))
-	    {
-		tail = 0;
-	    }
-	    else
+	    engine.search(start, goal);
+
+	    int expected = goal.getRow() - start.getRow() + goal.getColumn() - start.getColumn() + 1;
+	    if (engine.getMaxDepth() != expected)
 	    {
-		tail++;
+		throw new IllegalStateException("Wrong path length from " + start + " to " + goal + ".");
 	    }
 	}
+	elapsed = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+
+	System.out.println(queries + " queries on the same maze in " + elapsed + " ms: " + queries * 1000 / elapsed
+		+ " queries per second.");
+
+	checkLargeFrontier(levels);
+    }
+
+    /**
+     * Searches a maze whose free locations form an H-tree: from the centre of the
+     * maze, a bar of the H leads to four smaller H, and so on, down to leaves that
+     * are all at the same distance from the centre. The frontier of a breadth
+     * first search from the centre therefore holds every leaf at once, 4^(levels -
+     * 1) locations, while on a maze without obstacles it never exceeds twice the
+     * number of rows. The search to an unreachable goal must expand every free
+     * location, and the search to the far corner, which is a leaf, must find the
+     * path length given by the shape of the tree and the same one as a
+     * bidirectional search.
+     * 
+     * @param levels
+     *            the number of levels of the H-tree, the maze has 2^(levels + 1)
+     *            - 3 rows and columns.
+     */
+    private static void checkLargeFrontier(int levels)
+    {
+	final int size = (1 << (levels + 1)) - 3;
+	final int centre = (1 << levels) - 2;
+	final long leaves = 1L << (2 * (levels - 1));
+
+	Maze maze = new MazeGenerator(42L, 1.0).generate(size, size);
+	carveHTree(maze, centre, centre, 1 << (levels - 2));
 
-	public Location removeFromFrontOfQueue()
+	long free = 0;
+	for (int i = 0; i < size; i++)
 	{
-	    Location ret = queue[head];
-	    if (head >= (len - 1))
+	    for (int j = 0; j < size; j++)
 	    {
-		head = 0;
-	    }
-	    else
-	    {
-		head++;
+		if (maze.getValue(i, j) != MazeSearchGlobals.OBSTACLE)
+		{
+		    free++;
+		}
 	    }
-	    return ret;
 	}
 
-	public boolean isEmpty()
+	Location start = new Location(centre, centre);
+	BreadthFirstSearchEngine engine = new BreadthFirstSearchEngine(maze);
+
+	// a location with an odd row and an odd column is never part of the tree
+	long startTime = System.nanoTime();
+	engine.search(start, new Location(1, 1));
+	long elapsed = (System.nanoTime() - startTime) / 1000000;
+
+	System.out.println(size + "x" + size + " H-tree maze, " + free + " free locations and " + leaves
+		+ " leaves: " + engine.getExpandedNodes() + " expanded nodes in " + elapsed
+		+ " ms, queue capacity " + engine.queue.capacity() + ".");
+
+	if (engine.getExpandedNodes() != free)
 	{
-	    return head == (tail + 1);
+	    throw new IllegalStateException("The search lost part of its frontier: " + engine.getExpandedNodes()
+		    + " expanded nodes.");
 	}
+	if (engine.queue.capacity() < leaves)
+	{
+	    throw new IllegalStateException("The frontier never held every leaf.");
+	}
+
+	// every leaf is 2^(levels + 1) - 4 moves away from the centre
+	engine.search(start, maze.getGoalLocation());
+	BidirectionalBreadthFirstSearchEngine reference = new BidirectionalBreadthFirstSearchEngine(maze);
+	reference.search(start, maze.getGoalLocation());
 
-	public Location peekAtFrontOfQueue()
+	int expected = (1 << (levels + 1)) - 3;
+	if (engine.getMaxDepth() != expected || reference.getMaxDepth() != expected)
 	{
-	    return queue[head];
+	    throw new IllegalStateException("Wrong path length to the far corner: " + engine.getMaxDepth() + ", "
+		    + reference.getMaxDepth() + " for the bidirectional search, " + expected + " expected.");
+	}
+
+	System.out.println("Path of " + expected + " locations from the centre to the far corner: OK.");
+    }
+
+    /**
+     * Carves an H centred on the given location into a maze of obstacles, and
+     * then the four smaller H centred on its ends.
+     * 
+     * @param half
+     *            half the width of the H, in moves between two locations with
+     *            even rows and columns.
+     */
+    private static void carveHTree(Maze maze, int row, int column, int half)
+    {
+	if (half == 0)
+	{
+	    return;
+	}
+
+	final int length = 2 * half;
+
+	for (int j = column - length; j <= column + length; j++)
+	{
+	    maze.setValue(row, j, (short) 0);
+	}
+	for (int i = row - length; i <= row + length; i++)
+	{
+	    maze.setValue(i, column - length, (short) 0);
+	    maze.setValue(i, column + length, (short) 0);
+	}
+
+	for (int i = row - length; i <= row + length; i += 2 * length)
+	{
+	    for (int j = column - length; j <= column + length; j += 2 * length)
+	    {
+		carveHTree(maze, i, j, half / 2);
+	    }
 	}
     }
 }
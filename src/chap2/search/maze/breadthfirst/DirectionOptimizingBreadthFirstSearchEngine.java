@@ -0,0 +1,434 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.breadthfirst;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.PredecessorArray;
+
+/**
+ * Direction optimizing breadth first search. Like
+ * {@link ParallelBreadthFirstSearchEngine} the search proceeds one level at a
+ * time, and each level is expanded in one of two ways:
+ * <ul>
+ * <li>top down: every location of the frontier claims its neighbours that have
+ * not been visited yet, as the plain breadth first search does;</li>
+ * <li>bottom up: every location not visited yet checks whether one of its
+ * neighbours is in the frontier.</li>
+ * </ul>
+ * The visited locations, the free locations and the frontier of the bottom up
+ * steps are bitmaps of one bit per cell, so a bottom up step checks 64
+ * locations at once: the frontier bits of the four neighbours of the 64
+ * locations of a word are the frontier bitmap shifted by one bit and by one
+ * row. Only the words between the rows of the first and last frontier
+ * locations are scanned.
+ * 
+ * A top down step costs about four checks per frontier location, a bottom up
+ * step a few operations per word of the scanned rows. Before each level the
+ * cheaper of the two is chosen, so that dense frontiers, as found on mazes with
+ * few obstacles, are expanded bottom up and sparse ones top down. The frontier
+ * of the top down steps is kept as a list of packed indices, and converted when
+ * the direction changes.
+ * 
+ * As for {@link BreadthFirstSearchEngine} the search path goes from the goal
+ * location back to the start location.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class DirectionOptimizingBreadthFirstSearchEngine extends AbstractSearchEngine
+{
+    /**
+     * Relative cost of checking one neighbour of a frontier location top down,
+     * compared to scanning one word of the bitmaps bottom up.
+     */
+    private static final int TOP_DOWN_COST	    = 2;
+
+    // Search buffers, allocated by the first search and reused by the next ones.
+    private long[]	     visited		    = null;
+
+    // free locations, computed for the maze as it was at freeModificationCount
+    private long[]	     free		    = null;
+
+    private long	     freeModificationCount  = -1;
+
+    // frontier bitmaps of the bottom up steps, all zero out of the bottom up steps
+    private long[]	     frontierBits	    = null;
+
+    private long[]	     nextBits		    = null;
+
+    // frontier lists of the top down steps
+    private int[]	     frontier		    = null;
+
+    private int[]	     next		    = null;
+
+    private PredecessorArray predecessor	    = null;
+
+    // current frontier: number of locations, smallest and largest packed index
+    private int		     frontierSize	    = 0;
+
+    private int		     frontierLow	    = 0;
+
+    private int		     frontierHigh	    = 0;
+
+    // true if the current frontier is in frontierBits rather than in frontier
+    private boolean	     bottomUp		    = false;
+
+    // number of levels expanded in each direction by the last search
+    private int		     topDownSteps	    = 0;
+
+    private int		     bottomUpSteps	    = 0;
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then performs a direction optimizing breadth first search for the
+     * goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public DirectionOptimizingBreadthFirstSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+
+	search();
+    }
+
+    /**
+     * Creates a direction optimizing breadth first search engine for the given
+     * maze. Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public DirectionOptimizingBreadthFirstSearchEngine(Maze maze)
+    {
+	super(maze);
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	final Maze maze = getMaze();
+	final int stride = maze.getStride();
+
+	if (visited == null)
+	{
+	    int words = (maze.getSize() + 63) >>> 6;
+	    visited = new long[words];
+	    free = new long[words];
+	    frontierBits = new long[words];
+	    nextBits = new long[words];
+	    frontier = new int[256];
+	    next = new int[256];
+	    predecessor = new PredecessorArray(maze);
+	}
+	else
+	{
+	    Arrays.fill(visited, 0L);
+	}
+
+	if (freeModificationCount != maze.getModificationCount())
+	{
+	    freeModificationCount = maze.getModificationCount();
+	    Arrays.fill(free, 0L);
+	    for (int index = 0; index < maze.getSize(); index++)
+	    {
+		if (isPossibleMove(index))
+		{
+		    free[index >>> 6] |= 1L << index;
+		}
+	    }
+	}
+
+	visited[start >>> 6] |= 1L << start;
+	frontier[0] = start;
+	frontierSize = 1;
+	frontierLow = frontierHigh = start;
+	bottomUp = false;
+	topDownSteps = bottomUpSteps = 0;
+
+	while (frontierSize > 0 && (visited[goal >>> 6] & (1L << goal)) == 0 && isSearching())
+	{
+	    nodesExpanded(frontierSize);
+
+	    // words scanned by a bottom up step: the rows of the frontier and the rows
+	    // just above and below
+	    int low = Math.max(0, frontierLow - stride) >>> 6;
+	    int high = Math.min(maze.getSize() - 1, frontierHigh + stride) >>> 6;
+
+	    if ((long) frontierSize * 4 * TOP_DOWN_COST > high - low + 1)
+	    {
+		if (bottomUp == false)
+		{
+		    for (int i = 0; i < frontierSize; i++)
+		    {
+			frontierBits[frontier[i] >>> 6] |= 1L << frontier[i];
+		    }
+		    bottomUp = true;
+		}
+		bottomUpStep(low, high, stride);
+		bottomUpSteps++;
+	    }
+	    else
+	    {
+		if (bottomUp)
+		{
+		    if (frontier.length < frontierSize)
+		    {
+			frontier = new int[frontierSize * 2];
+		    }
+		    frontierSize = 0;
+		    for (int word = frontierLow >>> 6; word <= frontierHigh >>> 6; word++)
+		    {
+			for (long bits = frontierBits[word]; bits != 0; bits &= bits - 1)
+			{
+			    frontier[frontierSize++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			frontierBits[word] = 0L;
+		    }
+		    bottomUp = false;
+		}
+		topDownStep(stride);
+		topDownSteps++;
+	    }
+	}
+
+	// clear the bitmap frontier for the next search
+	if (bottomUp && frontierSize > 0)
+	{
+	    Arrays.fill(frontierBits, frontierLow >>> 6, (frontierHigh >>> 6) + 1, 0L);
+	}
+
+	// now calculate the shortest path from the predecessor array, from the goal
+	// back to the start location.
+	setMaxDepth(0);
+	if ((visited[goal >>> 6] & (1L << goal)) != 0)
+	{
+	    int location = goal;
+	    setSearchPathAt(getMaxDepth(), location);
+	    setMaxDepth(getMaxDepth() + 1);
+	    while (location != start)
+	    {
+		location = predecessor.get(location);
+		setSearchPathAt(getMaxDepth(), location);
+		setMaxDepth(getMaxDepth() + 1);
+	    }
+	}
+    }
+
+    /**
+     * Expands the frontier list: each frontier location claims its free
+     * neighbours not visited yet.
+     */
+    private void topDownStep(int stride)
+    {
+	// every location has at most 4 neighbours, but it was reached from one of them
+	if (next.length < frontierSize * 3 + 1)
+	{
+	    next = new int[Math.max(frontierSize * 3 + 1, next.length * 2)];
+	}
+
+	int size = 0;
+	int low = Integer.MAX_VALUE;
+	int high = 0;
+
+	for (int i = 0; i < frontierSize; i++)
+	{
+	    int location = frontier[i];
+
+	    for (int j = 0; j < 4; j++)
+	    {
+		// forward, backward, to the right, to the left
+		int neighbour = location + (j == 0 ? stride : j == 1 ? -stride : j == 2 ? -1 : 1);
+		long bit = 1L << neighbour;
+		int word = neighbour >>> 6;
+
+		if ((free[word] & ~visited[word] & bit) != 0)
+		{
+		    visited[word] |= bit;
+		    predecessor.set(neighbour, location);
+		    next[size++] = neighbour;
+		    low = Math.min(low, neighbour);
+		    high = Math.max(high, neighbour);
+		}
+	    }
+	}
+
+	int[] swap = frontier;
+	frontier = next;
+	next = swap;
+	frontierSize = size;
+	frontierLow = low;
+	frontierHigh = high;
+    }
+
+    /**
+     * Expands the frontier bitmap: each free location not visited yet in the
+     * given words looks for a neighbour in the frontier, 64 locations at a time.
+     */
+    private void bottomUpStep(int low, int high, int stride)
+    {
+	int size = 0;
+	int newLow = Integer.MAX_VALUE;
+	int newHigh = 0;
+
+	for (int word = low; word <= high; word++)
+	{
+	    long candidates = free[word] & ~visited[word];
+	    if (candidates == 0)
+	    {
+		continue;
+	    }
+
+	    // bit i of each mask is set if the corresponding neighbour of location
+	    // word * 64 + i is in the frontier
+	    long fromBelow = bitsAt(frontierBits, (word << 6) + stride);
+	    long fromAbove = bitsAt(frontierBits, (word << 6) - stride);
+	    long fromLeft = bitsAt(frontierBits, (word << 6) - 1);
+	    long fromRight = bitsAt(frontierBits, (word << 6) + 1);
+
+	    long reached = candidates & (fromBelow | fromAbove | fromLeft | fromRight);
+	    if (reached == 0)
+	    {
+		continue;
+	    }
+
+	    visited[word] |= reached;
+	    nextBits[word] = reached;
+	    size += Long.bitCount(reached);
+
+	    for (long bits = reached; bits != 0; bits &= bits - 1)
+	    {
+		long bit = bits & -bits;
+		int location = (word << 6) + Long.numberOfTrailingZeros(bits);
+
+		predecessor.set(location, (fromBelow & bit) != 0 ? location + stride
+			: (fromAbove & bit) != 0 ? location - stride : (fromLeft & bit) != 0 ? location - 1 : location + 1);
+		newLow = Math.min(newLow, location);
+		newHigh = location;
+	    }
+	}
+
+	// the old frontier is no longer needed
+	Arrays.fill(frontierBits, frontierLow >>> 6, (frontierHigh >>> 6) + 1, 0L);
+
+	long[] swap = frontierBits;
+	frontierBits = nextBits;
+	nextBits = swap;
+	frontierSize = size;
+	frontierLow = newLow;
+	frontierHigh = newHigh;
+    }
+
+    /**
+     * @return the 64 bits of the bitmap starting from the given bit position,
+     *         bits out of the bitmap being zero.
+     */
+    private static long bitsAt(long[] bitmap, int position)
+    {
+	int word = position >> 6;
+	int shift = position & 63;
+
+	long low = word >= 0 && word < bitmap.length ? bitmap[word] : 0L;
+	if (shift == 0)
+	{
+	    return low;
+	}
+
+	long high = word + 1 >= 0 && word + 1 < bitmap.length ? bitmap[word + 1] : 0L;
+	return (low >>> shift) | (high << (64 - shift));
+    }
+
+    /**
+     * @return the number of levels expanded top down by the last search.
+     */
+    public int getTopDownSteps()
+    {
+	return topDownSteps;
+    }
+
+    /**
+     * @return the number of levels expanded bottom up by the last search.
+     */
+    public int getBottomUpSteps()
+    {
+	return bottomUpSteps;
+    }
+
+    /**
+     * Developer test harness. Checks the path lengths against the breadth first
+     * search on random mazes, then compares the speed of the two engines on large
+     * mazes with few obstacles.
+     * 
+     * @param args
+     *            the number of rows and columns of the large mazes.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+	Random random = new Random(42);
+
+	for (int i = 0; i < 200; i++)
+	{
+	    int rows = 1 + random.nextInt(200);
+	    int columns = 1 + random.nextInt(200);
+	    Maze maze = new MazeGenerator(random.nextLong(), 0.4 * random.nextDouble()).generate(rows, columns);
+
+	    BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+	    DirectionOptimizingBreadthFirstSearchEngine directionOptimizing = new DirectionOptimizingBreadthFirstSearchEngine(
+		    maze);
+
+	    for (int j = 0; j < 10; j++)
+	    {
+		Location start = new Location(random.nextInt(rows), random.nextInt(columns));
+		Location goal = new Location(random.nextInt(rows), random.nextInt(columns));
+
+		breadthFirst.search(start, goal);
+		directionOptimizing.search(start, goal);
+		if (breadthFirst.getMaxDepth() != directionOptimizing.getMaxDepth())
+		{
+		    throw new IllegalStateException("Different path lengths.");
+		}
+	    }
+	}
+	System.out.println("Same path lengths as the breadth first search on 2000 random queries.");
+
+	for (double density : new double[] { 0.0, 0.05, 0.1, 0.2 })
+	{
+	    Maze maze = new MazeGenerator(42L, density).generate(size, size);
+	    Location center = new Location(size / 2, size / 2);
+	    Location corner = new Location(size - 1, size - 1);
+
+	    BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+	    DirectionOptimizingBreadthFirstSearchEngine directionOptimizing = new DirectionOptimizingBreadthFirstSearchEngine(
+		    maze);
+
+	    long breadthFirstTime = Long.MAX_VALUE;
+	    long directionOptimizingTime = Long.MAX_VALUE;
+	    for (int iteration = 0; iteration < 5; iteration++)
+	    {
+		long startTime = System.nanoTime();
+		breadthFirst.search(center, corner);
+		breadthFirstTime = Math.min(breadthFirstTime, System.nanoTime() - startTime);
+
+		startTime = System.nanoTime();
+		directionOptimizing.search(center, corner);
+		directionOptimizingTime = Math.min(directionOptimizingTime, System.nanoTime() - startTime);
+	    }
+
+	    System.out.println(String.format(
+		    "density %.2f: breadth first %4d ms, direction optimizing %4d ms (%d levels top down, %d bottom up)",
+		    density, breadthFirstTime / 1000000, directionOptimizingTime / 1000000,
+		    directionOptimizing.getTopDownSteps(), directionOptimizing.getBottomUpSteps()));
+	}
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.breadthfirst;
+
+import java.util.Random;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.GoalDistanceField;
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * Search engine answering the queries from the distance field of their goal
+ * location (see {@link GoalDistanceField}). The field is computed by a single
+ * breadth first search from the goal, and then every query to the same goal
+ * only extracts its path by greedy descent, in time proportional to the length
+ * of the path. Queries to the goal location of the maze use the field shared by
+ * all the users of the maze, queries to other goals a field kept by the engine
+ * for the last goal used.
+ * 
+ * As for {@link BreadthFirstSearchEngine} the search path goes from the goal
+ * location back to the start location. The expanded nodes are the locations of
+ * the path.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class GoalDistanceSearchEngine extends AbstractSearchEngine
+{
+    // field of the goal location of the maze, shared with the other users
+    private GoalDistanceField shared = null;
+
+    // field of the last goal other than the goal location of the maze
+    private GoalDistanceField field = null;
+
+    private int		      fieldGoal	= -1;
+
+    // path buffer, from the start location to the goal location
+    private int[]	      path	= new int[16];
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then searches the goal from the distance field.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public GoalDistanceSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+
+	search();
+    }
+
+    /**
+     * Creates a goal distance search engine for the given maze. Searches are
+     * performed by {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public GoalDistanceSearchEngine(Maze maze)
+    {
+	super(maze);
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	final Maze maze = getMaze();
+
+	GoalDistanceField distances;
+	if (goal == maze.getIndex(maze.getGoalLocation()))
+	{
+	    if (shared == null)
+	    {
+		shared = GoalDistanceField.forMaze(maze);
+	    }
+	    distances = shared;
+	}
+	else
+	{
+	    if (field == null || fieldGoal != goal)
+	    {
+		field = new GoalDistanceField(maze, getGoalLocation());
+		fieldGoal = goal;
+	    }
+	    distances = field;
+	}
+
+	setMaxDepth(0);
+	int distance = distances.getDistance(start);
+	if (distance < 0)
+	{
+	    return;
+	}
+
+	if (path.length <= distance)
+	{
+	    path = new int[Math.max(path.length * 2, distance + 1)];
+	}
+	int length = distances.getPath(start, path);
+
+	for (int i = 0; i < length; i++)
+	{
+	    setSearchPathAt(i, path[length - 1 - i]);
+	}
+	setMaxDepth(length);
+	nodesExpanded(length);
+    }
+
+    /**
+     * Developer test harness. Checks the path lengths against the breadth first
+     * search from many random start locations, also after the maze is modified,
+     * then compares the time taken by the two.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze, and the number of
+     *            start locations.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+	int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+	Maze maze = new MazeGenerator(42L, 0.25).generate(size, size);
+	GoalDistanceSearchEngine field = new GoalDistanceSearchEngine(maze);
+	BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+	Random random = new Random(42);
+
+	// start locations out of the obstacles
+	Location[] starts = new Location[queries];
+	for (int i = 0; i < queries; i++)
+	{
+	    do
+	    {
+		starts[i] = new Location(random.nextInt(size), random.nextInt(size));
+	    }
+	    while (maze.getValue(starts[i].getRow(), starts[i].getColumn()) == MazeSearchGlobals.OBSTACLE);
+	}
+
+	for (int round = 0; round < 2; round++)
+	{
+	    long startTime = System.nanoTime();
+	    int found = 0;
+	    for (Location start : starts)
+	    {
+		if (breadthFirst.search(start, maze.getGoalLocation()))
+		{
+		    found++;
+		}
+	    }
+	    long breadthFirstTime = System.nanoTime() - startTime;
+
+	    startTime = System.nanoTime();
+	    for (Location start : starts)
+	    {
+		field.search(start, maze.getGoalLocation());
+	    }
+	    long fieldTime = System.nanoTime() - startTime;
+
+	    for (Location start : starts)
+	    {
+		breadthFirst.search(start, maze.getGoalLocation());
+		field.search(start, maze.getGoalLocation());
+		if (breadthFirst.getMaxDepth() != field.getMaxDepth())
+		{
+		    throw new IllegalStateException("Different path lengths from " + start + ".");
+		}
+	    }
+
+	    System.out.println(String.format(
+		    "%d queries, %d paths found: breadth first %d ms, distance field %d ms (field included)", queries,
+		    found, breadthFirstTime / 1000000, fieldTime / 1000000));
+
+	    // block the shortest path from the last start location: the field must be
+	    // computed again
+	    if (field.getMaxDepth() > 2)
+	    {
+		Location blocked = field.getSearchPathAt(field.getMaxDepth() / 2);
+		maze.setValue(blocked.getRow(), blocked.getColumn(), MazeSearchGlobals.OBSTACLE);
+		System.out.println("Blocked " + blocked + ", checking again.");
+	    }
+	}
+    }
+}
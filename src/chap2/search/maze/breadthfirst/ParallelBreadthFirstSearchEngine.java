@@ -0,0 +1,435 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.breadthfirst;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.ConcurrentLocationBitSet;
+import chap2.search.maze.Location;
+import chap2.search.maze.LocationQueue;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * Parallel, level synchronous breadth first search. Instead of expanding one
+ * location at a time from a queue, the search expands a whole level (all the
+ * locations at the same distance from the start location) at once: the
+ * frontier of the level is split into chunks that are expanded in parallel on
+ * a {@link ForkJoinPool}, and the locations they reach make up the frontier of
+ * the next level.
+ * 
+ * The visited locations are marked by compare and swap in a
+ * {@link ConcurrentLocationBitSet}, so each location is claimed by exactly one
+ * chunk, which records its distance from the start location. Each chunk
+ * appends the locations it claims to its own buffer, and the buffers are
+ * concatenated once the level is complete: no lock is taken while expanding.
+ * 
+ * Besides searching for a goal, the engine can compute the distance from a
+ * location to every location of the maze (see
+ * {@link ParallelBreadthFirstSearchEngine#computeDistances(Location)}). The
+ * shortest path is recovered from the distances, going from the goal location
+ * back to the start location as done by {@link BreadthFirstSearchEngine}.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class ParallelBreadthFirstSearchEngine extends AbstractSearchEngine
+{
+    // number of frontier locations expanded by a single task
+    private static final int	     CHUNK_SIZE	  = 1024;
+
+    // the pool running the tasks
+    private final ForkJoinPool	     pool;
+
+    // Search buffers, allocated by the first search and reused by the next ones.
+    private ConcurrentLocationBitSet visited	  = null;
+
+    // distance from the start location, valid for the visited locations only
+    private int[]		     distance	  = null;
+
+    private int[]		     frontier	  = null;
+
+    private int			     frontierSize = 0;
+
+    private int[]		     next	  = null;
+
+    // locations claimed by each chunk of the current level, and their number
+    private int[][]		     chunkBuffers = new int[0][];
+
+    private int[]		     chunkSizes	  = new int[0];
+
+    // forward, backward, to the right, to the left
+    private int[]		     moves	  = null;
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then performs a parallel breadth first search for the goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public ParallelBreadthFirstSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+
+	pool = ForkJoinPool.commonPool();
+	search();
+    }
+
+    /**
+     * Creates a parallel breadth first search engine for the given maze, running
+     * on the common pool.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public ParallelBreadthFirstSearchEngine(Maze maze)
+    {
+	this(maze, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a parallel breadth first search engine for the given maze.
+     * Searches are performed by
+     * {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     * @param pool
+     *            the pool running the expansion of the levels.
+     */
+    public ParallelBreadthFirstSearchEngine(Maze maze, ForkJoinPool pool)
+    {
+	super(maze);
+
+	this.pool = pool;
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	expandLevels(start, goal);
+
+	// now calculate the shortest path from the distances, from the goal back to
+	// the start location: each step goes to a neighbour one move closer.
+	setMaxDepth(0);
+	if (visited.get(goal))
+	{
+	    int location = goal;
+	    setSearchPathAt(getMaxDepth(), location);
+	    setMaxDepth(getMaxDepth() + 1);
+
+	    while (location != start)
+	    {
+		int previous = location;
+		for (int i = 0; i < 4; i++)
+		{
+		    int neighbour = location + moves[i];
+		    if (visited.get(neighbour) && distance[neighbour] == distance[location] - 1)
+		    {
+			previous = neighbour;
+			break;
+		    }
+		}
+
+		location = previous;
+		setSearchPathAt(getMaxDepth(), location);
+		setMaxDepth(getMaxDepth() + 1);
+	    }
+	}
+    }
+
+    /**
+     * Computes the distance from the given location to every location of the
+     * maze that can be reached from it. The distances can then be read with
+     * {@link ParallelBreadthFirstSearchEngine#getDistance(Location)}, until the
+     * next search.
+     * 
+     * @param source
+     *            the location to compute the distances from.
+     * @return the number of locations that can be reached from the source.
+     */
+    public long computeDistances(Location source)
+    {
+	return expandLevels(getMaze().getIndex(source), -1);
+    }
+
+    /**
+     * @param location
+     *            a location of the maze.
+     * @return the distance of the location from the start location of the last
+     *         search, or from the source of the last distance computation, -1 if
+     *         it has not been reached.
+     */
+    public int getDistance(Location location)
+    {
+	int index = getMaze().getIndex(location);
+
+	return visited.get(index) ? distance[index] : -1;
+    }
+
+    /**
+     * Expands the levels of the search one after the other, until the goal is
+     * reached or no location is left to expand.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location, -1 to reach every
+     *            location. When searching the goal, the locations expanded are
+     *            counted level by level by the search, which stops once one of
+     *            its limits is reached.
+     * @return the number of locations expanded.
+     */
+    private long expandLevels(int start, int goal)
+    {
+	final Maze maze = getMaze();
+
+	if (visited == null)
+	{
+	    visited = new ConcurrentLocationBitSet(maze.getSize());
+	    distance = new int[maze.getSize()];
+	    frontier = new int[CHUNK_SIZE];
+	    next = new int[CHUNK_SIZE];
+	    moves = new int[] { maze.getStride(), -maze.getStride(), -1, 1 };
+	}
+	else
+	{
+	    visited.clear();
+	}
+
+	visited.set(start);
+	distance[start] = 0;
+	frontier[0] = start;
+	frontierSize = 1;
+
+	long expanded = 0;
+	for (int level = 0; frontierSize > 0 && (goal < 0 || (visited.get(goal) == false && isSearching())); level++)
+	{
+	    expanded += frontierSize;
+	    if (goal >= 0)
+	    {
+		nodesExpanded(frontierSize);
+	    }
+	    expandLevel(level);
+	}
+
+	return expanded;
+    }
+
+    /**
+     * Expands the current frontier, of locations at the given distance from the
+     * start location, and replaces it with the next one.
+     */
+    private void expandLevel(int level)
+    {
+	int chunks = (frontierSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+	if (chunkBuffers.length < chunks)
+	{
+	    int length = Math.max(chunks, chunkBuffers.length * 2);
+	    chunkSizes = new int[length];
+	    chunkBuffers = Arrays.copyOf(chunkBuffers, length);
+	}
+
+	if (chunks == 1)
+	{
+	    expandChunk(0, level);
+	}
+	else
+	{
+	    pool.invoke(new LevelTask(0, chunks, level));
+	}
+
+	// concatenate the locations claimed by the chunks, in chunk order
+	int size = 0;
+	for (int chunk = 0; chunk < chunks; chunk++)
+	{
+	    size += chunkSizes[chunk];
+	}
+	if (next.length < size)
+	{
+	    next = new int[Math.max(size, next.length * 2)];
+	}
+
+	size = 0;
+	for (int chunk = 0; chunk < chunks; chunk++)
+	{
+	    System.arraycopy(chunkBuffers[chunk], 0, next, size, chunkSizes[chunk]);
+	    size += chunkSizes[chunk];
+	}
+
+	int[] swap = frontier;
+	frontier = next;
+	next = swap;
+	frontierSize = size;
+    }
+
+    /**
+     * Expands one chunk of the frontier, claiming the neighbours that nobody has
+     * visited yet. Called concurrently for different chunks.
+     */
+    private void expandChunk(int chunk, int level)
+    {
+	int from = chunk * CHUNK_SIZE;
+	int to = Math.min(frontierSize, from + CHUNK_SIZE);
+
+	// every location has at most 4 neighbours
+	int[] buffer = chunkBuffers[chunk];
+	if (buffer == null)
+	{
+	    buffer = chunkBuffers[chunk] = new int[4 * CHUNK_SIZE];
+	}
+
+	int count = 0;
+	for (int i = from; i < to; i++)
+	{
+	    int location = frontier[i];
+
+	    for (int j = 0; j < 4; j++)
+	    {
+		int neighbour = location + moves[j];
+
+		if (isPossibleMove(neighbour) && visited.get(neighbour) == false && visited.set(neighbour))
+		{
+		    distance[neighbour] = level + 1;
+		    buffer[count++] = neighbour;
+		}
+	    }
+	}
+
+	chunkSizes[chunk] = count;
+    }
+
+    /**
+     * Expands a range of chunks of the frontier, splitting the range in halves
+     * until it is a single chunk.
+     */
+    private class LevelTask extends RecursiveAction
+    {
+	private static final long serialVersionUID = 1L;
+
+	private final int	  fromChunk;
+
+	private final int	  toChunk;
+
+	private final int	  level;
+
+	LevelTask(int fromChunk, int toChunk, int level)
+	{
+	    this.fromChunk = fromChunk;
+	    this.toChunk = toChunk;
+	    this.level = level;
+	}
+
+	@Override
+	protected void compute()
+	{
+	    if (toChunk - fromChunk == 1)
+	    {
+		expandChunk(fromChunk, level);
+	    }
+	    else
+	    {
+		int middle = (fromChunk + toChunk) >>> 1;
+		invokeAll(new LevelTask(fromChunk, middle, level), new LevelTask(middle, toChunk, level));
+	    }
+	}
+    }
+
+    /**
+     * Developer test harness. Checks the distances and path lengths against a
+     * sequential breadth first search on random mazes, then times the computation
+     * of the distances to every location of a large maze with an increasing
+     * number of threads.
+     * 
+     * @param args
+     *            the number of rows and columns of the large maze.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+	Random random = new Random(42);
+	ForkJoinPool testPool = new ForkJoinPool(4);
+
+	for (int i = 0; i < 50; i++)
+	{
+	    int rows = 1 + random.nextInt(300);
+	    int columns = 1 + random.nextInt(300);
+	    Maze maze = new MazeGenerator(random.nextLong(), 0.3 * random.nextDouble()).generate(rows, columns);
+
+	    ParallelBreadthFirstSearchEngine parallel = new ParallelBreadthFirstSearchEngine(maze, testPool);
+	    BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+	    breadthFirst.search();
+	    parallel.search();
+	    if (parallel.getMaxDepth() != breadthFirst.getMaxDepth())
+	    {
+		throw new IllegalStateException("Different path lengths.");
+	    }
+
+	    // sequential distances from the start location
+	    int[] expected = new int[maze.getSize()];
+	    Arrays.fill(expected, -1);
+	    int start = maze.getIndex(maze.getStartLocation());
+	    LocationQueue queue = new LocationQueue();
+	    expected[start] = 0;
+	    queue.addToBackOfQueue(start);
+	    while (queue.isEmpty() == false)
+	    {
+		int location = queue.removeFromFrontOfQueue();
+		for (int move : new int[] { maze.getStride(), -maze.getStride(), -1, 1 })
+		{
+		    int neighbour = location + move;
+		    if (maze.getValueAt(neighbour) != MazeSearchGlobals.OBSTACLE && expected[neighbour] < 0)
+		    {
+			expected[neighbour] = expected[location] + 1;
+			queue.addToBackOfQueue(neighbour);
+		    }
+		}
+	    }
+
+	    parallel.computeDistances(maze.getStartLocation());
+	    for (int row = 0; row < rows; row++)
+	    {
+		for (int column = 0; column < columns; column++)
+		{
+		    if (parallel.getDistance(new Location(row, column)) != expected[maze.getIndex(row, column)])
+		    {
+			throw new IllegalStateException("Different distances at " + row + ", " + column + ".");
+		    }
+		}
+	    }
+	}
+	testPool.shutdown();
+	System.out.println("Same distances and path lengths as the sequential search on 50 random mazes.");
+
+	Maze maze = new MazeGenerator(42L, 0.1).generate(size, size);
+	int processors = Runtime.getRuntime().availableProcessors();
+
+	for (int threads = 1; threads <= processors; threads *= 2)
+	{
+	    ForkJoinPool pool = new ForkJoinPool(threads);
+	    ParallelBreadthFirstSearchEngine engine = new ParallelBreadthFirstSearchEngine(maze, pool);
+
+	    long best = Long.MAX_VALUE;
+	    long reached = 0;
+	    for (int iteration = 0; iteration < 5; iteration++)
+	    {
+		long startTime = System.nanoTime();
+		reached = engine.computeDistances(maze.getStartLocation());
+		best = Math.min(best, System.nanoTime() - startTime);
+	    }
+	    pool.shutdown();
+
+	    System.out.println(String.format("%3d threads: %d locations reached in %d ms, %.1f million per second",
+		    threads, reached, best / 1000000, reached * 1e3 / best));
+	}
+    }
+}
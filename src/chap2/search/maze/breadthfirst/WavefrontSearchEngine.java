@@ -0,0 +1,667 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.breadthfirst;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import chap2.search.maze.AbstractSearchEngine;
+import chap2.search.maze.Location;
+import chap2.search.maze.LocationQueue;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * Bit-parallel wavefront search. The free locations of the maze are stored as
+ * rows of bits in an array of longs, and the search advances 64 locations at
+ * a time with word operations: the locations reached by the next level of a
+ * breadth first search are the current wavefront shifted one bit left and
+ * right and one row up and down, ORed together and ANDed with the free
+ * locations not visited yet. Only the words of the wavefront are kept in a
+ * list, and each level pushes them to their neighbouring words.
+ * 
+ * The engine computes:
+ * <ul>
+ * <li>distance fields: the distance from a location to every location of the
+ * maze, see
+ * {@link WavefrontSearchEngine#computeDistances(Location)};</li>
+ * <li>reachability: the set of locations connected to a location, see
+ * {@link WavefrontSearchEngine#computeReachable(Location)}. Distances are not
+ * needed there, so each row is filled at once along its runs of free locations
+ * with a logarithmic shift-and-mask fill, and the fill spreads from row to row
+ * until no row changes.</li>
+ * </ul>
+ * A search advances the wavefront from the start location until the goal
+ * location is reached, and recovers the path from the distances, from the goal
+ * location back to the start location as done by
+ * {@link BreadthFirstSearchEngine}.
+ * 
+ * Each row has at least one padding bit after its last column, never free, so
+ * that shifting a word of one row never carries a location into the next row.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class WavefrontSearchEngine extends AbstractSearchEngine
+{
+    // number of words per row of bits
+    private int	      rowWords		    = 0;
+
+    // free locations, computed for the maze as it was at freeModificationCount
+    private long[]    free		    = null;
+
+    private long      freeModificationCount = -1;
+
+    // Search buffers, allocated by the first search and reused by the next ones.
+    private long[]    visited		    = null;
+
+    private long[]    wavefront		    = null;
+
+    private long[]    next		    = null;
+
+    // distance from the source, by packed index, valid for the visited locations
+    private int[]     distance		    = null;
+
+    // words of the wavefront, and words of the next wavefront
+    private int[]     wavefrontWords	    = null;
+
+    private int[]     nextWords		    = null;
+
+    // number of locations reached by the current computation
+    private long      reached		    = 0;
+
+    // rows queued by the reachability fill
+    private boolean[] queuedRows	    = null;
+
+    // true if the last computation was a reachability fill, without distances
+    private boolean   reachabilityOnly	    = false;
+
+    /**
+     * Default constructor. Calls the base class constructor to initialize the
+     * maze, and then performs a wavefront search for the goal.
+     * 
+     * @param rows
+     * @param columns
+     */
+    public WavefrontSearchEngine(int rows, int columns)
+    {
+	super(rows, columns);
+
+	search();
+    }
+
+    /**
+     * Creates a wavefront search engine for the given maze. Searches are
+     * performed by {@link AbstractSearchEngine#search(Location, Location)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public WavefrontSearchEngine(Maze maze)
+    {
+	super(maze);
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	final Maze maze = getMaze();
+
+	advance(start, goal);
+
+	// now calculate the shortest path from the distances, from the goal back to
+	// the start location: each step goes to a neighbour one move closer.
+	setMaxDepth(0);
+	if (isVisited(goal))
+	{
+	    final int stride = maze.getStride();
+	    int location = goal;
+	    setSearchPathAt(getMaxDepth(), location);
+	    setMaxDepth(getMaxDepth() + 1);
+
+	    while (location != start)
+	    {
+		int target = distance[location] - 1;
+		int previous = location + stride;
+		if (isVisited(previous) == false || distance[previous] != target)
+		{
+		    previous = location - stride;
+		    if (isVisited(previous) == false || distance[previous] != target)
+		    {
+			previous = isVisited(location - 1) && distance[location - 1] == target ? location - 1
+				: location + 1;
+		    }
+		}
+
+		location = previous;
+		setSearchPathAt(getMaxDepth(), location);
+		setMaxDepth(getMaxDepth() + 1);
+	    }
+	}
+    }
+
+    /**
+     * Computes the distance from the given location to every location of the
+     * maze that can be reached from it, to be read with
+     * {@link WavefrontSearchEngine#getDistance(Location)} until the next
+     * computation or search.
+     * 
+     * @param source
+     *            the location to compute the distances from.
+     * @return the number of locations that can be reached from the source.
+     */
+    public long computeDistances(Location source)
+    {
+	return advance(getMaze().getIndex(source), -1);
+    }
+
+    /**
+     * Computes the set of locations that can be reached from the given location,
+     * to be read with {@link WavefrontSearchEngine#isReachable(Location)} until the
+     * next computation or search. Faster than computing the distances.
+     * 
+     * @param source
+     *            the location to start from.
+     * @return the number of locations that can be reached from the source.
+     */
+    public long computeReachable(Location source)
+    {
+	final Maze maze = getMaze();
+	final int rows = maze.getRows();
+
+	prepare();
+	reachabilityOnly = true;
+
+	if (isPossibleMove(maze.getIndex(source)) == false)
+	{
+	    return 0;
+	}
+
+	int sourceRow = source.getRow();
+	visited[sourceRow * rowWords + (source.getColumn() >>> 6)] |= 1L << source.getColumn();
+
+	// the queue holds the rows with new seeds, each at most once
+	LocationQueue queue = new LocationQueue(Math.min(rows, 1 << 16));
+	queue.addToBackOfQueue(sourceRow);
+	queuedRows[sourceRow] = true;
+
+	while (queue.isEmpty() == false)
+	{
+	    int row = queue.removeFromFrontOfQueue();
+	    queuedRows[row] = false;
+	    fillRow(row);
+
+	    // seed the rows above and below with the locations they can move to
+	    for (int other = row - 1; other <= row + 1; other += 2)
+	    {
+		if (other < 0 || other >= rows)
+		{
+		    continue;
+		}
+
+		boolean seeded = false;
+		for (int w = 0; w < rowWords; w++)
+		{
+		    int word = other * rowWords + w;
+		    long seeds = visited[row * rowWords + w] & free[word] & ~visited[word];
+		    if (seeds != 0)
+		    {
+			visited[word] |= seeds;
+			seeded = true;
+		    }
+		}
+
+		if (seeded && queuedRows[other] == false)
+		{
+		    queuedRows[other] = true;
+		    queue.addToBackOfQueue(other);
+		}
+	    }
+	}
+
+	reached = 0;
+	for (long word : visited)
+	{
+	    reached += Long.bitCount(word);
+	}
+	return reached;
+    }
+
+    /**
+     * Extends the visited locations of a row to the whole runs of free locations
+     * that contain them: first towards the higher columns, then towards the lower
+     * ones, carrying the fill from word to word.
+     */
+    private void fillRow(int row)
+    {
+	final int first = row * rowWords;
+	final int last = first + rowWords - 1;
+
+	long carry = 0L;
+	for (int word = first; word <= last; word++)
+	{
+	    long filled = fillUp(visited[word] | (carry & free[word]), free[word]);
+	    visited[word] = filled;
+	    carry = filled >>> 63;
+	}
+
+	carry = 0L;
+	for (int word = last; word >= first; word--)
+	{
+	    long filled = fillDown(visited[word] | ((carry << 63) & free[word]), free[word]);
+	    visited[word] = filled;
+	    carry = filled & 1L;
+	}
+    }
+
+    /**
+     * @return the seeds extended towards the higher bits along the runs of the
+     *         mask containing them, the seeds being part of the mask.
+     */
+    private static long fillUp(long seeds, long mask)
+    {
+	seeds |= mask & (seeds << 1);
+	mask &= mask << 1;
+	seeds |= mask & (seeds << 2);
+	mask &= mask << 2;
+	seeds |= mask & (seeds << 4);
+	mask &= mask << 4;
+	seeds |= mask & (seeds << 8);
+	mask &= mask << 8;
+	seeds |= mask & (seeds << 16);
+	mask &= mask << 16;
+	return seeds | (mask & (seeds << 32));
+    }
+
+    /**
+     * @return the seeds extended towards the lower bits along the runs of the
+     *         mask containing them, the seeds being part of the mask.
+     */
+    private static long fillDown(long seeds, long mask)
+    {
+	seeds |= mask & (seeds >>> 1);
+	mask &= mask >>> 1;
+	seeds |= mask & (seeds >>> 2);
+	mask &= mask >>> 2;
+	seeds |= mask & (seeds >>> 4);
+	mask &= mask >>> 4;
+	seeds |= mask & (seeds >>> 8);
+	mask &= mask >>> 8;
+	seeds |= mask & (seeds >>> 16);
+	mask &= mask >>> 16;
+	return seeds | (mask & (seeds >>> 32));
+    }
+
+    /**
+     * Advances the wavefront one level at a time from the given location, until
+     * the goal is reached or the wavefront is empty, recording the distance of
+     * every location reached.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     * @param goal
+     *            the packed index of the goal location, -1 to reach every
+     *            location. When searching the goal, the locations reached are
+     *            counted level by level by the search, which stops once one of
+     *            its limits is reached.
+     * @return the number of locations reached.
+     */
+    private long advance(int start, int goal)
+    {
+	final Maze maze = getMaze();
+
+	prepare();
+	reachabilityOnly = false;
+
+	if (isPossibleMove(start) == false)
+	{
+	    return 0;
+	}
+
+	final int words = free.length;
+	int startWord = toWord(maze.getRow(start), maze.getColumn(start));
+	long startBit = 1L << maze.getColumn(start);
+	visited[startWord] |= startBit;
+	wavefront[startWord] = startBit;
+	wavefrontWords[0] = startWord;
+	int wavefrontSize = 1;
+	distance[start] = 0;
+	reached = 1;
+
+	long counted = 0;
+	for (int level = 1; wavefrontSize > 0 && (goal < 0 || (isVisited(goal) == false && isSearching())); level++)
+	{
+	    if (goal >= 0)
+	    {
+		nodesExpanded(reached - counted);
+		counted = reached;
+	    }
+
+	    int nextSize = 0;
+	    for (int i = 0; i < wavefrontSize; i++)
+	    {
+		int word = wavefrontWords[i];
+		long bits = wavefront[word];
+
+		// to the right and to the left, within the word and across the words: the
+		// padding bits are never in the wavefront, and never free, so the bits
+		// carried to the neighbouring words always stay in the same row
+		nextSize = reach(word, (bits << 1) | (bits >>> 1), level, nextSize);
+		if ((bits & 1L) != 0 && word > 0)
+		{
+		    nextSize = reach(word - 1, 1L << 63, level, nextSize);
+		}
+		if (bits < 0 && word + 1 < words)
+		{
+		    nextSize = reach(word + 1, 1L, level, nextSize);
+		}
+
+		// backward and forward
+		if (word >= rowWords)
+		{
+		    nextSize = reach(word - rowWords, bits, level, nextSize);
+		}
+		if (word + rowWords < words)
+		{
+		    nextSize = reach(word + rowWords, bits, level, nextSize);
+		}
+
+		wavefront[word] = 0L;
+	    }
+
+	    long[] swap = wavefront;
+	    wavefront = next;
+	    next = swap;
+
+	    int[] swapWords = wavefrontWords;
+	    wavefrontWords = nextWords;
+	    nextWords = swapWords;
+	    wavefrontSize = nextSize;
+	}
+
+	if (goal >= 0)
+	{
+	    nodesExpanded(reached - counted);
+	}
+
+	// clear the wavefront for the next computation
+	for (int i = 0; i < wavefrontSize; i++)
+	{
+	    wavefront[wavefrontWords[i]] = 0L;
+	}
+
+	return reached;
+    }
+
+    /**
+     * Adds the given bits of a word to the next wavefront, keeping only the free
+     * locations not visited yet, and records their distance.
+     * 
+     * @return the new number of words of the next wavefront.
+     */
+    private int reach(int word, long bits, int level, int nextSize)
+    {
+	bits &= free[word] & ~visited[word];
+	if (bits == 0)
+	{
+	    return nextSize;
+	}
+
+	visited[word] |= bits;
+	if (next[word] == 0)
+	{
+	    nextWords[nextSize++] = word;
+	}
+	next[word] |= bits;
+	reached += Long.bitCount(bits);
+
+	int row = word / rowWords;
+	int base = (row + 1) * getMaze().getStride() + 1 + ((word - row * rowWords) << 6);
+	for (; bits != 0; bits &= bits - 1)
+	{
+	    distance[base + Long.numberOfTrailingZeros(bits)] = level;
+	}
+
+	return nextSize;
+    }
+
+    /**
+     * Allocates the buffers on first use, computes the free locations again if
+     * the maze has been modified, and clears the visited locations.
+     */
+    private void prepare()
+    {
+	final Maze maze = getMaze();
+	final int rows = maze.getRows();
+	final int columns = maze.getColumns();
+
+	if (free == null)
+	{
+	    // at least one padding bit per row
+	    rowWords = (columns >>> 6) + 1;
+	    int words = rows * rowWords;
+
+	    free = new long[words];
+	    visited = new long[words];
+	    wavefront = new long[words];
+	    next = new long[words];
+	    distance = new int[maze.getSize()];
+	    wavefrontWords = new int[words];
+	    nextWords = new int[words];
+	    queuedRows = new boolean[rows];
+	}
+	else
+	{
+	    Arrays.fill(visited, 0L);
+	}
+
+	if (freeModificationCount != maze.getModificationCount())
+	{
+	    freeModificationCount = maze.getModificationCount();
+	    Arrays.fill(free, 0L);
+	    for (int i = 0; i < rows; i++)
+	    {
+		int index = maze.getIndex(i, 0);
+		for (int j = 0; j < columns; j++, index++)
+		{
+		    if (isPossibleMove(index))
+		    {
+			free[i * rowWords + (j >>> 6)] |= 1L << j;
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * @return the index of the word holding the given location.
+     */
+    private int toWord(int row, int column)
+    {
+	return row * rowWords + (column >>> 6);
+    }
+
+    /**
+     * @return true if the location with the given packed index has been reached
+     *         by the last computation or search.
+     */
+    private boolean isVisited(int index)
+    {
+	final Maze maze = getMaze();
+	int row = maze.getRow(index);
+	int column = maze.getColumn(index);
+
+	if (row < 0 || row >= maze.getRows() || column < 0 || column >= maze.getColumns())
+	{
+	    return false;
+	}
+	return (visited[toWord(row, column)] & (1L << column)) != 0;
+    }
+
+    /**
+     * @param location
+     *            a location of the maze.
+     * @return the distance of the location from the start location of the last
+     *         search, or from the source of the last distance computation, -1 if
+     *         it has not been reached.
+     */
+    public int getDistance(Location location)
+    {
+	if (reachabilityOnly)
+	{
+	    throw new IllegalStateException("The last computation did not compute distances.");
+	}
+
+	int index = getMaze().getIndex(location);
+	return isVisited(index) ? distance[index] : -1;
+    }
+
+    /**
+     * @param location
+     *            a location of the maze.
+     * @return true if the location has been reached by the last computation or
+     *         search.
+     */
+    public boolean isReachable(Location location)
+    {
+	return isVisited(getMaze().getIndex(location));
+    }
+
+    /**
+     * Developer test harness. Checks the distances and the reachable locations
+     * against a breadth first search expanding one location at a time on random
+     * mazes, then compares the time taken by the two on a large maze.
+     * 
+     * @param args
+     *            the number of rows and columns of the large maze.
+     */
+    public static void main(String[] args)
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+	Random random = new Random(42);
+
+	for (int i = 0; i < 100; i++)
+	{
+	    int rows = 1 + random.nextInt(200);
+	    int columns = 1 + random.nextInt(200);
+	    Maze maze = new MazeGenerator(random.nextLong(), 0.45 * random.nextDouble()).generate(rows, columns);
+	    WavefrontSearchEngine wavefront = new WavefrontSearchEngine(maze);
+	    BreadthFirstSearchEngine breadthFirst = new BreadthFirstSearchEngine(maze);
+
+	    Location source = new Location(random.nextInt(rows), random.nextInt(columns));
+	    int[] expected = new int[maze.getSize()];
+	    long expectedReached = distances(maze, maze.getIndex(source), expected);
+
+	    if (wavefront.computeDistances(source) != expectedReached)
+	    {
+		throw new IllegalStateException("Different numbers of reached locations.");
+	    }
+	    for (int row = 0; row < rows; row++)
+	    {
+		for (int column = 0; column < columns; column++)
+		{
+		    if (wavefront.getDistance(new Location(row, column)) != expected[maze.getIndex(row, column)])
+		    {
+			throw new IllegalStateException("Different distances at " + row + ", " + column + ".");
+		    }
+		}
+	    }
+
+	    if (wavefront.computeReachable(source) != expectedReached)
+	    {
+		throw new IllegalStateException("Different reachable locations.");
+	    }
+	    for (int row = 0; row < rows; row++)
+	    {
+		for (int column = 0; column < columns; column++)
+		{
+		    if (wavefront.isReachable(new Location(row, column)) != (expected[maze.getIndex(row, column)] >= 0))
+		    {
+			throw new IllegalStateException("Different reachability at " + row + ", " + column + ".");
+		    }
+		}
+	    }
+
+	    breadthFirst.search();
+	    wavefront.search();
+	    if (breadthFirst.getMaxDepth() != wavefront.getMaxDepth())
+	    {
+		throw new IllegalStateException("Different path lengths.");
+	    }
+	}
+	System.out.println("Same distances, reachable locations and path lengths on 100 random mazes.");
+
+	for (double density : new double[] { 0.0, 0.1, 0.3 })
+	{
+	    Maze maze = new MazeGenerator(42L, density).generate(size, size);
+	    WavefrontSearchEngine wavefront = new WavefrontSearchEngine(maze);
+	    Location source = maze.getStartLocation();
+	    int[] expected = new int[maze.getSize()];
+
+	    long perLocation = Long.MAX_VALUE;
+	    long distances = Long.MAX_VALUE;
+	    long reachable = Long.MAX_VALUE;
+	    long reached = 0;
+	    for (int iteration = 0; iteration < 5; iteration++)
+	    {
+		long startTime = System.nanoTime();
+		reached = distances(maze, maze.getIndex(source), expected);
+		perLocation = Math.min(perLocation, System.nanoTime() - startTime);
+
+		startTime = System.nanoTime();
+		wavefront.computeDistances(source);
+		distances = Math.min(distances, System.nanoTime() - startTime);
+
+		startTime = System.nanoTime();
+		wavefront.computeReachable(source);
+		reachable = Math.min(reachable, System.nanoTime() - startTime);
+	    }
+
+	    System.out.println(String.format(
+		    "density %.1f, %d locations reached: per location %4d ms, wavefront distances %4d ms, "
+			    + "reachability %4d ms",
+		    density, reached, perLocation / 1000000, distances / 1000000, reachable / 1000000));
+	}
+    }
+
+    /**
+     * Reference breadth first search expanding one location at a time, used by
+     * the test harness.
+     * 
+     * @return the number of locations reached.
+     */
+    private static long distances(Maze maze, int source, int[] distance)
+    {
+	Arrays.fill(distance, -1);
+	if (maze.getValueAt(source) == MazeSearchGlobals.OBSTACLE)
+	{
+	    return 0;
+	}
+
+	int[] moves = { maze.getStride(), -maze.getStride(), -1, 1 };
+	LocationQueue queue = new LocationQueue();
+	distance[source] = 0;
+	queue.addToBackOfQueue(source);
+	long reached = 1;
+
+	while (queue.isEmpty() == false)
+	{
+	    int location = queue.removeFromFrontOfQueue();
+	    for (int move : moves)
+	    {
+		int neighbour = location + move;
+		if (maze.getValueAt(neighbour) != MazeSearchGlobals.OBSTACLE && distance[neighbour] < 0)
+		{
+		    distance[neighbour] = distance[location] + 1;
+		    queue.addToBackOfQueue(neighbour);
+		    reached++;
+		}
+	    }
+	}
+
+	return reached;
+    }
+}
@@ -5,8 +5,11 @@
  */
 package chap2.search.maze.depthfirst;
 
+import java.util.Arrays;
+
 import chap2.search.maze.AbstractSearchEngine;
 import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
 
 /**
  * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
@@ -15,10 +18,47 @@ public class DepthFirstSearchEngine extends AbstractSearchEngine
 {
     private boolean debug = false;
 
+    // packed index of the goal location
+    private int	    goal  = -1;
+
+    /**
+     * The possible moves of every location on the current search path: the
+     * possible moves of the location at depth d are stored from position d * 4.
+     * The buffer grows with the search depth, no array is allocated for each
+     * expanded location.
+     */
+    private int[]   moves = new int[4 * 64];
+
+    /**
+     * Explicit stack used by the iterative search: for the location at depth d,
+     * cursors[d] is the position of the next possible move to try and counts[d]
+     * the number of its possible moves.
+     */
+    private int[]   cursors = new int[64];
+
+    private int[]   counts  = new int[64];
+
+    // true to use the iterative search, false to use the recursive one
+    private boolean iterative = true;
+
+    /**
+     * Search depth of the locations visited by the current search, kept out of
+     * the maze so that searches never write to it and any number of engines can
+     * share it. The entries of depths are only valid for the locations whose
+     * stamp is the generation of the current search, so that starting a new
+     * search does not require to reset the whole array. A visited location is
+     * not moved to again, as if it were an obstacle.
+     */
+    private int[]   depths	  = null;
+
+    private int[]   stamps	  = null;
+
+    private int	    generation	  = 0;
+
     /**
      * Default constructor. Calls the base class constructor and then solves the
      * search problem by calling the method
-     * {@link DepthFirstSearchEngine#iterateSearch(Location, int)}.
+     * {@link DepthFirstSearchEngine#iterativeSearch(int)}.
      * 
      * @param rows
      * @param columns
@@ -27,16 +67,78 @@ public class DepthFirstSearchEngine extends AbstractSearchEngine
     {
 	super(rows, columns);
 
-	iterateSearch(getStartLocation(), 1);
+	search();
+    }
+
+    /**
+     * Creates a depth first search engine for the given maze. Searches are
+     * performed by {@link AbstractSearchEngine#search(Location, Location)}. The
+     * search depth of the visited locations is kept by the engine until the next
+     * search, see {@link DepthFirstSearchEngine#getSearchDepth(int, int)}.
+     * 
+     * @param maze
+     *            the maze to search.
+     */
+    public DepthFirstSearchEngine(Maze maze)
+    {
+	this(maze, true);
+    }
+
+    /**
+     * Creates a depth first search engine for the given maze, that uses either the
+     * recursive method {@link DepthFirstSearchEngine#iterateSearch(int, int)} or
+     * the iterative method {@link DepthFirstSearchEngine#iterativeSearch(int)}.
+     * Both visit the locations in the same order, but the recursive search needs
+     * one stack frame per step and overflows the thread stack on long paths.
+     * 
+     * @param maze
+     *            the maze to search.
+     * @param iterative
+     *            true to use the iterative search, false to use the recursive one.
+     */
+    public DepthFirstSearchEngine(Maze maze, boolean iterative)
+    {
+	super(maze);
+
+	this.iterative = iterative;
+    }
+
+    @Override
+    protected void doSearch(int start, int goal)
+    {
+	this.goal = goal;
+
+	final Maze maze = getMaze();
+	if (depths == null)
+	{
+	    depths = new int[maze.getSize()];
+	    stamps = new int[maze.getSize()];
+	}
+
+	generation++;
+	if (generation == 0)
+	{
+	    Arrays.fill(stamps, 0);
+	    generation = 1;
+	}
+
+	if (iterative)
+	{
+	    iterativeSearch(start);
+	}
+	else
+	{
+	    iterateSearch(start, 1);
+	}
     }
 
     /**
      * @param location
-     *            the current location.
+     *            the packed index of the current location.
      * @param depth
      *            the current search depth.
      */
-    private void iterateSearch(Location location, int depth)
+    private void iterateSearch(int location, int depth)
     {
 	// Checking if at least one solution was found, avoiding more solutions once one
 	// path to the goal is found.
@@ -45,60 +147,35 @@ public class DepthFirstSearchEngine extends AbstractSearchEngine
 	    return;
 	}
 
-	/*
-	 * If debugging is enabled (debug = true), this will print the current location
-	 * as the recursive search proceeds.
-	 */
-	if (debug)
-	{
-	    System.out.println("Current location: (" + location.getRow() + ", " + location.getColumn() + ").");
-	}
-
-	// We set the maze value to the depth for display purposes only.
-	getMaze().setValue(location, (short) depth);
+	final Maze maze = getMaze();
 
 	/*
-	 * Here, we use the super class getPossibleMoves method to get an array of
-	 * possible neighboring squares that we could move to;
+	 * Here, we use the super class getPossibleMoves method to get the possible
+	 * neighboring squares that we could move to; they are stored in the moves
+	 * buffer from position depth * 4.
 	 */
-	Location[] moves = getPossibleMoves(location);
+	final int offset = depth * 4;
+	final int count = visit(location, depth);
 
 	/*
-	 * If debugging is enabled (debug = true), this will print the possible moves
-	 * from the current location as the recursive search proceeds.
+	 * we then loop over the possible moves:
 	 */
-	if (debug)
-	{
-	    System.out.println("Possible moves:");
-	    for (int i = 0; i < moves.length; i++)
-	    {
-		if (moves[i] != null)
-		{
-		    System.out.print(moves[i].toString() + ", ");
-		}
-		System.out.println();
-	    }
-	}
-
-	/*
-	 * we then loop over the four possible moves (a null value in the array
-	 * indicates an illegal move):
-	 */
-	for (int i = 0; i < 4; i++)
+	for (int i = 0; i < count; i++)
 	{
-	    if (moves[i] == null)
-	    {
-		// a null value in the array indicates an illegal move
-		break;
-	    }
+	    // the buffer may have been reallocated by the recursive calls, always read
+	    // the moves through the field.
+	    final int move = moves[offset + i];
 
 	    // Record the next move in the search path array
-	    setSearchPathAt(depth, moves[i]);
+	    setSearchPathAt(depth, move);
 
 	    // and check to see if we are done:
-	    if (equals(moves[i], getGoalLocation()))
+	    if (move == goal)
 	    {
-		System.out.println("Found the goal at " + moves[i].getRow() + ", " + moves[i].getColumn());
+		if (debug)
+		{
+		    System.out.println("Found the goal at " + maze.getRow(move) + ", " + maze.getColumn(move));
+		}
 		stopSearching();
 		setMaxDepth(depth);
 		return;
@@ -110,7 +187,7 @@ public class DepthFirstSearchEngine extends AbstractSearchEngine
 		 * iterateSearch method again, but starting from this new location and
 		 * increasing the depth counter by one:
 		 */
-		iterateSearch(moves[i], depth + 1);
+		iterateSearch(move, depth + 1);
 		if (isSearching() == false)
 		{
 		    return;
@@ -120,6 +197,139 @@ public class DepthFirstSearchEngine extends AbstractSearchEngine
 	return;
     }
 
+    /**
+     * Iterative version of {@link DepthFirstSearchEngine#iterateSearch(int, int)}.
+     * Instead of a recursive call per step, an explicit stack holds, for every
+     * depth of the current search path, the possible moves of the location (in the
+     * moves buffer) and a cursor to the next move to try. The locations are
+     * visited in exactly the same order as the recursive search, and the memory
+     * used grows with the length of the search path instead of the thread stack.
+     * 
+     * @param start
+     *            the packed index of the starting location.
+     */
+    private void iterativeSearch(int start)
+    {
+	final Maze maze = getMaze();
+
+	int depth = 1;
+	counts[depth] = visit(start, depth);
+	cursors[depth] = 0;
+
+	while (depth > 0 && isSearching())
+	{
+	    // all the possible moves from this depth have been tried: backtrack
+	    if (cursors[depth] == counts[depth])
+	    {
+		depth--;
+		continue;
+	    }
+
+	    final int move = moves[depth * 4 + cursors[depth]++];
+
+	    // Record the next move in the search path array
+	    setSearchPathAt(depth, move);
+
+	    // and check to see if we are done:
+	    if (move == goal)
+	    {
+		if (debug)
+		{
+		    System.out.println("Found the goal at " + maze.getRow(move) + ", " + maze.getColumn(move));
+		}
+		stopSearching();
+		setMaxDepth(depth);
+		return;
+	    }
+
+	    // otherwise continue the search from this new location, one level deeper
+	    depth++;
+	    if (depth == cursors.length)
+	    {
+		cursors = Arrays.copyOf(cursors, depth * 2);
+		counts = Arrays.copyOf(counts, depth * 2);
+	    }
+	    counts[depth] = visit(move, depth);
+	    cursors[depth] = 0;
+	}
+    }
+
+    /**
+     * Visits a location: records its depth and stores its possible moves in the
+     * moves buffer from position depth * 4.
+     * 
+     * @param location
+     *            the packed index of the location.
+     * @param depth
+     *            the search depth of the location.
+     * @return the number of possible moves from the location.
+     */
+    private int visit(int location, int depth)
+    {
+	final Maze maze = getMaze();
+
+	/*
+	 * If debugging is enabled (debug = true), this will print the current location
+	 * as the search proceeds.
+	 */
+	if (debug)
+	{
+	    System.out.println("Current location: (" + maze.getRow(location) + ", " + maze.getColumn(location) + ").");
+	}
+
+	// the depth marks the location as visited, and is kept for display
+	depths[location] = depth;
+	stamps[location] = generation;
+
+	final int offset = depth * 4;
+	if (offset + 4 > moves.length)
+	{
+	    moves = Arrays.copyOf(moves, moves.length * 2);
+	}
+	final int count = getPossibleMoves(location, moves, offset);
+	nodeExpanded();
+
+	/*
+	 * If debugging is enabled (debug = true), this will print the possible moves
+	 * from the current location as the search proceeds.
+	 */
+	if (debug)
+	{
+	    System.out.println("Possible moves:");
+	    for (int i = 0; i < count; i++)
+	    {
+		System.out.print("(" + maze.getRow(moves[offset + i]) + ", " + maze.getColumn(moves[offset + i]) + "), ");
+	    }
+	    System.out.println();
+	}
+
+	return count;
+    }
+
+    /**
+     * A move is possible to the locations that are free in the maze and that
+     * have not been visited yet by the current search.
+     */
+    @Override
+    protected boolean isPossibleMove(int index)
+    {
+	return stamps[index] != generation && super.isPossibleMove(index);
+    }
+
+    /**
+     * @param row
+     *            the location row index.
+     * @param column
+     *            the location column index.
+     * @return the search depth of the location in the last search, 0 if it has
+     *         not been visited.
+     */
+    public int getSearchDepth(int row, int column)
+    {
+	int index = getMaze().getIndex(row, column);
+	return stamps != null && stamps[index] == generation ? depths[index] : 0;
+    }
+
     /**
      * @param debug
      *            true if debugging messages are needed, false otherwise.
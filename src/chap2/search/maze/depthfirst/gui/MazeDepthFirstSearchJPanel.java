@@ -79,7 +79,7 @@ public class MazeDepthFirstSearchJPanel extends JPanel
 		    imageGraphics.setColor(Color.lightGray);
 		    imageGraphics.fillRect(6 + j * 29, 3 + i * 29, 29, 29);
 		}
-		else if (val == MazeSearchGlobals.START_LOCATION_VALUE || val == 1)
+		else if (val == MazeSearchGlobals.START_LOCATION_VALUE)
 		{
 		    imageGraphics.setColor(Color.blue);
 		    imageGraphics.drawString("S", 17 + j * 29, 22 + i * 29);
@@ -103,7 +103,7 @@ public class MazeDepthFirstSearchJPanel extends JPanel
 	{
 	    final int row = path[i].getRow();
 	    final int column = path[i].getColumn();
-	    final short val = maze.getValue(row, column);
+	    final int val = depthFirstSearchEngine.getSearchDepth(row, column);
 
 	    /*
 	     * This offset is used to center the value of the depth in the search path.
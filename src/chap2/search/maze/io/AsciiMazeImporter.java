@@ -0,0 +1,464 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * Streaming importer of mazes stored as ASCII grids: one line per row of the
+ * maze, '#' for an obstacle, '.' for a free location, 'S' for the start
+ * location and 'G' for the goal location. Lines end with "\n" or "\r\n", and
+ * must all have the same length.
+ * 
+ * The text file is read through a {@link FileChannel} into a fixed size buffer,
+ * and every row is converted to obstacle bits as soon as it is read. The bits
+ * are written straight to a maze file (see {@link MazeFile}), which is then
+ * memory mapped: neither the text nor the grid is ever held in the Java heap,
+ * so maps larger than the heap can be imported. Only one row of bits is kept in
+ * memory, 1 bit per location.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class AsciiMazeImporter
+{
+    // default size of the read and write buffers
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    // size of the read and write buffers
+    private final int	     bufferSize;
+
+    // statistics of the last import
+    private long	     bytesRead		 = 0;
+
+    private long	     elapsedTime	 = 0;
+
+    /**
+     * Creates an importer with 64 KB buffers.
+     */
+    public AsciiMazeImporter()
+    {
+	this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize
+     *            the size of the read and write buffers, in bytes.
+     */
+    public AsciiMazeImporter(int bufferSize)
+    {
+	if (bufferSize < 64)
+	{
+	    throw new IllegalArgumentException("Buffer size too small: " + bufferSize);
+	}
+
+	this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Converts an ASCII maze to a maze file and maps it in memory.
+     * 
+     * @param text
+     *            the ASCII maze to read.
+     * @param mazeFile
+     *            the maze file to write, replaced if it exists.
+     * @return the imported maze, backed by the maze file.
+     * @throws IOException
+     *             if a file cannot be read or written, or if the ASCII maze is not
+     *             valid.
+     */
+    public MappedMaze importMaze(Path text, Path mazeFile) throws IOException
+    {
+	long startTime = System.nanoTime();
+	bytesRead = 0;
+
+	try (FileChannel input = FileChannel.open(text, StandardOpenOption.READ);
+		FileChannel output = FileChannel.open(mazeFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING))
+	{
+	    convert(text, input, output);
+	}
+
+	MappedMaze maze = MazeFile.open(mazeFile, false);
+	elapsedTime = System.nanoTime() - startTime;
+
+	return maze;
+    }
+
+    /**
+     * Reads the ASCII maze one buffer at a time, writing the obstacle bits of each
+     * row as soon as the row is complete, and finally writes the header.
+     */
+    private void convert(Path text, FileChannel input, FileChannel output) throws IOException
+    {
+	ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+	byte[] bytes = buffer.array();
+	BitWriter writer = new BitWriter(output, bufferSize);
+
+	// obstacle bits of the current row, grown while reading the first row
+	long[] rowBits = new long[16];
+	int column = 0;
+	int columns = -1;
+	int rows = 0;
+	Location startLocation = null;
+	Location goalLocation = null;
+	boolean carriageReturn = false;
+	int blankLines = 0;
+	boolean endOfFile = false;
+
+	while (endOfFile == false)
+	{
+	    buffer.clear();
+	    endOfFile = input.read(buffer) < 0;
+	    int length = buffer.position();
+	    bytesRead += length;
+
+	    // a last line without a line terminator ends as if it had one
+	    if (endOfFile && column > 0)
+	    {
+		bytes[length++] = '\n';
+	    }
+
+	    for (int position = 0; position < length; position++)
+	    {
+		byte character = bytes[position];
+
+		if (carriageReturn && character != '\n')
+		{
+		    throw invalid(text, rows, column, "carriage return not followed by a line feed");
+		}
+		carriageReturn = false;
+
+		switch (character)
+		{
+		case '#':
+		case '.':
+		case 'S':
+		case 'G':
+		    if (blankLines > 0)
+		    {
+			throw invalid(text, rows + blankLines, column, "row after a blank line");
+		    }
+		    if (columns >= 0 && column == columns)
+		    {
+			throw invalid(text, rows, column, "row longer than the first one");
+		    }
+		    if ((column >>> 6) == rowBits.length)
+		    {
+			rowBits = Arrays.copyOf(rowBits, rowBits.length * 2);
+		    }
+
+		    long bit = 1L << column;
+		    if (character == '#')
+		    {
+			rowBits[column >>> 6] |= bit;
+		    }
+		    else
+		    {
+			rowBits[column >>> 6] &= ~bit;
+			if (character == 'S')
+			{
+			    if (startLocation != null)
+			    {
+				throw invalid(text, rows, column, "second start location");
+			    }
+			    startLocation = new Location(rows, column);
+			}
+			else if (character == 'G')
+			{
+			    if (goalLocation != null)
+			    {
+				throw invalid(text, rows, column, "second goal location");
+			    }
+			    goalLocation = new Location(rows, column);
+			}
+		    }
+		    column++;
+		    break;
+
+		case '\r':
+		    carriageReturn = true;
+		    break;
+
+		case '\n':
+		    if (columns < 0)
+		    {
+			if (column == 0)
+			{
+			    throw invalid(text, rows, column, "empty first row");
+			}
+			columns = column;
+
+			// top border
+			writer.appendOnes(columns + 2);
+		    }
+		    else if (column == 0)
+		    {
+			// blank lines are only tolerated at the end of the file
+			blankLines++;
+			break;
+		    }
+		    else if (column != columns)
+		    {
+			throw invalid(text, rows, column, "row shorter than the first one");
+		    }
+
+		    if ((rows + 3L) * (columns + 2) > Integer.MAX_VALUE)
+		    {
+			throw invalid(text, rows, column, "maze too large to be addressed by packed indices");
+		    }
+
+		    writer.appendOnes(1);
+		    for (int i = 0; i < columns; i += 64)
+		    {
+			writer.appendBits(rowBits[i >>> 6], Math.min(64, columns - i));
+		    }
+		    writer.appendOnes(1);
+		    rows++;
+		    column = 0;
+		    break;
+
+		default:
+		    throw invalid(text, rows, column, "unexpected character code " + (character & 0xFF));
+		}
+	    }
+	}
+
+	if (rows == 0)
+	{
+	    throw new IOException(text + ": empty maze.");
+	}
+	if (startLocation == null || goalLocation == null)
+	{
+	    throw new IOException(text + ": missing start or goal location.");
+	}
+
+	// bottom border, then the header
+	writer.appendOnes(columns + 2);
+	writer.finish();
+
+	ByteBuffer header = ByteBuffer.allocate(MazeFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	MazeFile.putHeader(header, rows, columns, startLocation, goalLocation);
+	while (header.hasRemaining())
+	{
+	    output.write(header, header.position());
+	}
+    }
+
+    /**
+     * @return an exception describing an error in the ASCII maze.
+     */
+    private static IOException invalid(Path text, int row, int column, String message)
+    {
+	return new IOException(text + ", row " + (row + 1) + ", column " + (column + 1) + ": " + message + ".");
+    }
+
+    /**
+     * Writes a stream of bits, 64 per little endian long, to a channel, right
+     * after the header of a maze file.
+     */
+    private static class BitWriter
+    {
+	private final FileChannel channel;
+
+	private final ByteBuffer  buffer;
+
+	// bits not yet written, and their number
+	private long		  word = 0L;
+
+	private int		  used = 0;
+
+	BitWriter(FileChannel channel, int bufferSize) throws IOException
+	{
+	    this.channel = channel;
+	    this.buffer = ByteBuffer.allocateDirect(bufferSize & ~7).order(ByteOrder.LITTLE_ENDIAN);
+	    channel.position(MazeFile.HEADER_SIZE);
+	}
+
+	/**
+	 * Appends the count lowest bits of the given bits, the higher ones being
+	 * zero.
+	 */
+	void appendBits(long bits, int count) throws IOException
+	{
+	    if (count < 64)
+	    {
+		bits &= (1L << count) - 1;
+	    }
+
+	    word |= bits << used;
+	    if (used + count >= 64)
+	    {
+		putWord(word);
+		word = used == 0 ? 0L : bits >>> (64 - used);
+		used = used + count - 64;
+	    }
+	    else
+	    {
+		used += count;
+	    }
+	}
+
+	void appendOnes(int count) throws IOException
+	{
+	    for (; count >= 64; count -= 64)
+	    {
+		appendBits(-1L, 64);
+	    }
+	    if (count > 0)
+	    {
+		appendBits(-1L, count);
+	    }
+	}
+
+	/**
+	 * Writes the last, partially filled, long and everything still buffered.
+	 */
+	void finish() throws IOException
+	{
+	    if (used > 0)
+	    {
+		putWord(word);
+		word = 0L;
+		used = 0;
+	    }
+	    flush();
+	}
+
+	private void putWord(long value) throws IOException
+	{
+	    if (buffer.remaining() < 8)
+	    {
+		flush();
+	    }
+	    buffer.putLong(value);
+	}
+
+	private void flush() throws IOException
+	{
+	    buffer.flip();
+	    while (buffer.hasRemaining())
+	    {
+		channel.write(buffer);
+	    }
+	    buffer.clear();
+	}
+    }
+
+    /**
+     * @return the number of bytes of text read by the last import.
+     */
+    public long getBytesRead()
+    {
+	return bytesRead;
+    }
+
+    /**
+     * @return the duration of the last import, in nanoseconds.
+     */
+    public long getElapsedTime()
+    {
+	return elapsedTime;
+    }
+
+    /**
+     * @return the throughput of the last import, in MB of text per second.
+     */
+    public double getThroughput()
+    {
+	return elapsedTime == 0 ? 0 : bytesRead / (1024.0 * 1024.0) / (elapsedTime / 1e9);
+    }
+
+    /**
+     * Developer test harness. Imports the given ASCII maze into the given maze
+     * file and prints the throughput. Without arguments a random maze is written
+     * as ASCII to a temporary file, imported, and compared to the original maze.
+     * 
+     * @param args
+     *            the ASCII maze and the maze file to write, or the number of rows
+     *            and columns of a random maze.
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+	AsciiMazeImporter importer = new AsciiMazeImporter();
+
+	if (args.length == 2 && Files.isRegularFile(Paths.get(args[0])))
+	{
+	    MappedMaze maze = importer.importMaze(Paths.get(args[0]), Paths.get(args[1]));
+	    System.out.println(maze.getRows() + "x" + maze.getColumns() + " maze imported: " + importer.getBytesRead()
+		    + " bytes in " + importer.getElapsedTime() / 1000000 + " ms, "
+		    + String.format("%.1f", importer.getThroughput()) + " MB/s.");
+	    return;
+	}
+
+	int rows = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+	int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+
+	Maze maze = new MazeGenerator(42L, 0.3).generate(rows, columns);
+	Path text = File.createTempFile("maze", ".txt").toPath();
+	Path mazeFile = File.createTempFile("maze", ".bin").toPath();
+
+	try
+	{
+	    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(text)))
+	    {
+		for (int i = 0; i < rows; i++)
+		{
+		    for (int j = 0; j < columns; j++)
+		    {
+			short value = maze.getValue(i, j);
+			writer.print(value == MazeSearchGlobals.OBSTACLE ? '#'
+				: value == MazeSearchGlobals.START_LOCATION_VALUE ? 'S'
+					: value == MazeSearchGlobals.GOAL_LOCATION_VALUE ? 'G' : '.');
+		    }
+		    // mix both line terminators, and leave the last line unterminated
+		    if (i < rows - 1)
+		    {
+			writer.print(i % 2 == 0 ? "\n" : "\r\n");
+		    }
+		}
+	    }
+
+	    for (int iteration = 0; iteration < 3; iteration++)
+	    {
+		MappedMaze imported = importer.importMaze(text, mazeFile);
+
+		for (int index = 0; index < maze.getSize(); index++)
+		{
+		    if (maze.getValueAt(index) != imported.getValueAt(index))
+		    {
+			throw new IllegalStateException("Mazes differ at location " + maze.getRow(index) + ", "
+				+ maze.getColumn(index) + ".");
+		    }
+		}
+
+		System.out.println(rows + "x" + columns + " maze imported: " + importer.getBytesRead() + " bytes in "
+			+ importer.getElapsedTime() / 1000000 + " ms, "
+			+ String.format("%.1f", importer.getThroughput()) + " MB/s, identical.");
+	    }
+	}
+	finally
+	{
+	    text.toFile().delete();
+	    mazeFile.toFile().delete();
+	}
+    }
+}
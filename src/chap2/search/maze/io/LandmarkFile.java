@@ -0,0 +1,367 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import chap2.search.maze.LandmarkTable;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * Binary file format for the landmark tables of a maze (see
+ * {@link LandmarkTable}), so that they are computed once and then read back
+ * with the maze, instead of running one breadth first search per landmark each
+ * time the maze is loaded. The file of the maze file "name" is "name.landmarks",
+ * in the same directory. All the numbers are little endian.
+ * 
+ * A landmark file is made of a 64 bytes header followed by the packed indices of
+ * the landmarks, as 4 bytes integers, and then by the distance table of each
+ * landmark, 2 bytes per cell in packed index order, borders included. The header
+ * holds, as 4 bytes integers: the magic number "LAND", the version of the
+ * format, the number of rows, the number of columns and the number of
+ * landmarks, and then, as an 8 bytes integer, a checksum of the obstacles of the
+ * maze. A file whose checksum is not the one of the maze was written for another
+ * maze, or before the maze was modified, and is not used. The rest of the
+ * header is reserved and set to zero.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class LandmarkFile
+{
+    /**
+     * The first 4 bytes of a landmark file, "LAND" in ASCII.
+     */
+    public static final int MAGIC	  = 0x444E414C;
+
+    /**
+     * The version of the format written by
+     * {@link LandmarkFile#write(LandmarkTable, Path)}.
+     */
+    public static final int VERSION	  = 1;
+
+    /**
+     * The size of the header, the landmarks start at this offset.
+     */
+    public static final int HEADER_SIZE	  = 64;
+
+    /**
+     * The suffix added to the name of a maze file to get the name of its
+     * landmark file.
+     */
+    public static final String SUFFIX	  = ".landmarks";
+
+    // offsets of the header fields
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int ROWS_OFFSET  = 8;
+
+    private static final int COLUMNS_OFFSET = 12;
+
+    private static final int COUNT_OFFSET = 16;
+
+    private static final int CHECKSUM_OFFSET = 24;
+
+    // size of the buffer used to write landmark files
+    private static final int BUFFER_SIZE  = 1 << 16;
+
+    /**
+     * @param mazeFile
+     *            a maze file.
+     * @return the landmark file of the maze file.
+     */
+    public static Path getPath(Path mazeFile)
+    {
+	return mazeFile.resolveSibling(mazeFile.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Returns the landmark tables of a maze read from a maze file, read from the
+     * landmark file of the maze file if it is up to date, or else computed and
+     * written to the landmark file.
+     * 
+     * @param maze
+     *            the maze, as it is in its file.
+     * @param mazeFile
+     *            the maze file.
+     * @param count
+     *            the number of landmarks, used if the tables are computed.
+     * @return the landmark tables.
+     * @throws IOException
+     *             if the landmark file cannot be written.
+     */
+    public static LandmarkTable forMazeFile(Maze maze, Path mazeFile, int count) throws IOException
+    {
+	Path path = getPath(mazeFile);
+
+	if (Files.exists(path))
+	{
+	    try
+	    {
+		return read(maze, path);
+	    }
+	    catch (IOException e)
+	    {
+		// out of date or damaged, computed again below
+	    }
+	}
+
+	LandmarkTable table = new LandmarkTable(maze, count);
+	write(table, path);
+	return table;
+    }
+
+    /**
+     * Writes landmark tables to a file. The tables are computed first if needed.
+     * 
+     * @param table
+     *            the landmark tables to write.
+     * @param path
+     *            the file to write, replaced if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public static void write(LandmarkTable table, Path path) throws IOException
+    {
+	final Maze maze = table.getMaze();
+	final int size = maze.getSize();
+	final int count = table.getLandmarkCount();
+
+	ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	for (int i = 0; i < HEADER_SIZE; i += 4)
+	{
+	    buffer.putInt(i, 0);
+	}
+	buffer.putInt(MAGIC_OFFSET, MAGIC);
+	buffer.putInt(VERSION_OFFSET, VERSION);
+	buffer.putInt(ROWS_OFFSET, maze.getRows());
+	buffer.putInt(COLUMNS_OFFSET, maze.getColumns());
+	buffer.putInt(COUNT_OFFSET, count);
+	buffer.putLong(CHECKSUM_OFFSET, getChecksum(maze));
+	buffer.position(HEADER_SIZE);
+
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		StandardOpenOption.TRUNCATE_EXISTING))
+	{
+	    for (int landmark = 0; landmark < count; landmark++)
+	    {
+		if (buffer.remaining() < 4)
+		{
+		    writeFully(channel, buffer);
+		}
+		buffer.putInt(table.getLandmark(landmark));
+	    }
+
+	    for (int landmark = 0; landmark < count; landmark++)
+	    {
+		for (int index = 0; index < size; index++)
+		{
+		    if (buffer.remaining() < 2)
+		    {
+			writeFully(channel, buffer);
+		    }
+		    int distance = table.getDistance(landmark, index);
+		    buffer.putChar(distance < 0 ? Character.MAX_VALUE : (char) distance);
+		}
+	    }
+
+	    writeFully(channel, buffer);
+	}
+    }
+
+    /**
+     * Writes the content of a buffer to a channel and clears the buffer.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+	buffer.flip();
+	while (buffer.hasRemaining())
+	{
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    /**
+     * Reads the landmark tables of a maze from a file.
+     * 
+     * @param maze
+     *            the maze.
+     * @param path
+     *            the landmark file.
+     * @return the landmark tables.
+     * @throws IOException
+     *             if the file cannot be read, is not a valid landmark file or
+     *             was not written for the maze as it is now.
+     */
+    public static LandmarkTable read(Maze maze, Path path) throws IOException
+    {
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+	{
+	    if (channel.size() < HEADER_SIZE)
+	    {
+		throw new IOException(path + " is not a landmark file: too short.");
+	    }
+
+	    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+	    if (buffer.getInt(MAGIC_OFFSET) != MAGIC)
+	    {
+		throw new IOException(path + " is not a landmark file: wrong magic number.");
+	    }
+	    if (buffer.getInt(VERSION_OFFSET) != VERSION)
+	    {
+		throw new IOException(path + ": unsupported landmark file version " + buffer.getInt(VERSION_OFFSET)
+			+ ".");
+	    }
+	    if (buffer.getInt(ROWS_OFFSET) != maze.getRows() || buffer.getInt(COLUMNS_OFFSET) != maze.getColumns())
+	    {
+		throw new IOException(path + ": landmarks of a " + buffer.getInt(ROWS_OFFSET) + "x"
+			+ buffer.getInt(COLUMNS_OFFSET) + " maze.");
+	    }
+
+	    final int size = maze.getSize();
+	    int count = buffer.getInt(COUNT_OFFSET);
+	    if (count < 1 || channel.size() != HEADER_SIZE + 4L * count + 2L * count * size)
+	    {
+		throw new IOException(path + ": invalid number of landmarks or truncated file.");
+	    }
+	    if (buffer.getLong(CHECKSUM_OFFSET) != getChecksum(maze))
+	    {
+		throw new IOException(path + ": landmarks of another maze, or of the maze before it was modified.");
+	    }
+
+	    int[] locations = new int[count];
+	    buffer.position(HEADER_SIZE);
+	    buffer.asIntBuffer().get(locations);
+	    for (int location : locations)
+	    {
+		if (location < 0 || location >= size)
+		{
+		    throw new IOException(path + ": invalid landmark location " + location + ".");
+		}
+	    }
+
+	    char[][] distances = new char[count][size];
+	    for (int landmark = 0; landmark < count; landmark++)
+	    {
+		buffer.position((int) (HEADER_SIZE + 4L * count + 2L * landmark * size));
+		buffer.asCharBuffer().get(distances[landmark]);
+	    }
+
+	    return new LandmarkTable(maze, locations, distances);
+	}
+    }
+
+    /**
+     * @return a checksum of the obstacles of a maze, computed from the same
+     *         obstacle bits as the ones of a maze file (see {@link MazeFile}).
+     */
+    static long getChecksum(Maze maze)
+    {
+	final int size = maze.getSize();
+
+	long checksum = size;
+	for (int index = 0; index < size; index += 64)
+	{
+	    long word = 0L;
+	    for (int bit = 0, last = Math.min(64, size - index); bit < last; bit++)
+	    {
+		if (maze.getValueAt(index + bit) == MazeSearchGlobals.OBSTACLE)
+		{
+		    word |= 1L << bit;
+		}
+	    }
+
+	    checksum = (checksum ^ word) * 0x9E3779B97F4A7C15L;
+	    checksum ^= checksum >>> 29;
+	}
+
+	return checksum;
+    }
+
+    /**
+     * Developer test harness. Writes a maze and its landmark tables to temporary
+     * files, then opens the maze file and gets the tables again from the
+     * landmark file, and checks that they are the same as the ones computed.
+     * 
+     * @param args
+     *            the number of rows and columns of the maze and the number of
+     *            landmarks.
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+	int count = args.length > 1 ? Integer.parseInt(args[1]) : LandmarkTable.DEFAULT_LANDMARKS;
+
+	Maze maze = new MazeGenerator(42L, MazeGenerator.DEFAULT_DENSITY).generate(size, size);
+	Path mazeFile = File.createTempFile("maze", ".bin").toPath();
+	Path path = getPath(mazeFile);
+
+	try
+	{
+	    MazeFile.write(maze, mazeFile);
+	    MappedMaze mapped = MazeFile.open(mazeFile, false);
+
+	    long startTime = System.nanoTime();
+	    LandmarkTable computed = forMazeFile(mapped, mazeFile, count);
+	    long computeTime = System.nanoTime() - startTime;
+
+	    startTime = System.nanoTime();
+	    LandmarkTable read = forMazeFile(MazeFile.open(mazeFile, false), mazeFile, count);
+	    long readTime = System.nanoTime() - startTime;
+
+	    for (int landmark = 0; landmark < count; landmark++)
+	    {
+		if (computed.getLandmark(landmark) != read.getLandmark(landmark))
+		{
+		    throw new IllegalStateException("Different landmark " + landmark + ".");
+		}
+		for (int index = 0; index < mapped.getSize(); index++)
+		{
+		    if (computed.getDistance(landmark, index) != read.getDistance(landmark, index))
+		    {
+			throw new IllegalStateException("Different distance from landmark " + landmark + ".");
+		    }
+		}
+	    }
+
+	    System.out.println(count + " landmark tables of a " + size + "x" + size + " maze computed and written in "
+		    + computeTime / 1000000 + " ms (" + path.toFile().length() + " bytes), read back in " + readTime
+		    / 1000000 + " ms: OK.");
+
+	    // the tables of another maze of the same size must not be used
+	    Maze other = new MazeGenerator(43L, MazeGenerator.DEFAULT_DENSITY).generate(size, size);
+	    try
+	    {
+		read(other, path);
+		throw new IllegalStateException("Landmarks of another maze read.");
+	    }
+	    catch (IOException e)
+	    {
+		System.out.println("Another maze: " + e.getMessage());
+	    }
+	}
+	finally
+	{
+	    mazeFile.toFile().delete();
+	    path.toFile().delete();
+	}
+    }
+}
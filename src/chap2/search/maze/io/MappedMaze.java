@@ -0,0 +1,104 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.io;
+
+import java.nio.MappedByteBuffer;
+
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeSearchGlobals;
+
+/**
+ * A maze whose cells are read directly from a memory mapped maze file (see
+ * {@link MazeFile}). Opening the maze costs the same whatever its size, since
+ * nothing but the header is read, and its memory lives outside of the Java heap,
+ * in pages of the operating system page cache that are shared by every process
+ * mapping the same file.
+ * 
+ * A mapped maze only stores one bit per cell, so a cell is either an obstacle
+ * or free, the start and goal locations being given by the header. Obstacles
+ * can be added or removed if the file was mapped in read-write mode, but other
+ * values cannot be stored.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class MappedMaze extends Maze
+{
+    // the mapped maze file, header included
+    private final MappedByteBuffer buffer;
+
+    // packed index of the start location
+    private final int		   startIndex;
+
+    // packed index of the goal location
+    private final int		   goalIndex;
+
+    /**
+     * Creates a maze backed by a mapped maze file, see
+     * {@link MazeFile#open(java.nio.file.Path, boolean)}.
+     */
+    MappedMaze(int rows, int columns, Location startLocation, Location goalLocation, MappedByteBuffer buffer)
+    {
+	super(rows, columns, startLocation, goalLocation);
+
+	this.buffer = buffer;
+	this.startIndex = getIndex(startLocation);
+	this.goalIndex = getIndex(goalLocation);
+    }
+
+    @Override
+    public short getValueAt(int index)
+    {
+	if ((buffer.getLong(MazeFile.HEADER_SIZE + ((index >>> 6) << 3)) & (1L << index)) != 0)
+	{
+	    return MazeSearchGlobals.OBSTACLE;
+	}
+
+	return index == startIndex ? MazeSearchGlobals.START_LOCATION_VALUE
+		: index == goalIndex ? MazeSearchGlobals.GOAL_LOCATION_VALUE : 0;
+    }
+
+    /**
+     * Adds or removes an obstacle. The start and goal values can only be stored
+     * at the start and goal locations, and clear the obstacle bit there.
+     * 
+     * @throws java.nio.ReadOnlyBufferException
+     *             if the maze file was mapped in read-only mode.
+     * @throws UnsupportedOperationException
+     *             if the value cannot be stored in a single bit.
+     */
+    @Override
+    protected void storeValueAt(int index, short value)
+    {
+	boolean obstacle;
+
+	if (value == MazeSearchGlobals.OBSTACLE)
+	{
+	    obstacle = true;
+	}
+	else if (value == 0 || (value == MazeSearchGlobals.START_LOCATION_VALUE && index == startIndex)
+		|| (value == MazeSearchGlobals.GOAL_LOCATION_VALUE && index == goalIndex))
+	{
+	    obstacle = false;
+	}
+	else
+	{
+	    throw new UnsupportedOperationException("Value " + value + " cannot be stored in a mapped maze.");
+	}
+
+	int offset = MazeFile.HEADER_SIZE + ((index >>> 6) << 3);
+	long word = buffer.getLong(offset);
+	buffer.putLong(offset, obstacle ? word | (1L << index) : word & ~(1L << index));
+    }
+
+    /**
+     * Writes the obstacles added or removed so far back to the maze file.
+     */
+    public void force()
+    {
+	buffer.force();
+    }
+}
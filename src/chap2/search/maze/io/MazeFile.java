@@ -0,0 +1,314 @@
+/**
+ * Copyright 1998-2012 by Mark Watson. All rights reserved. Originally written
+ * by Mark Watson and later review by Rambod Rahmani. The following might be
+ * slightly different from the original one.
+ */
+package chap2.search.maze.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import chap2.search.maze.Location;
+import chap2.search.maze.Maze;
+import chap2.search.maze.MazeGenerator;
+import chap2.search.maze.MazeSearchGlobals;
+import chap2.search.maze.breadthfirst.BreadthFirstSearchEngine;
+
+/**
+ * Compact binary file format for mazes. A maze file is made of a 64 bytes
+ * header followed by the obstacles of the maze, one bit per cell. All the
+ * numbers are little endian.
+ * 
+ * The header holds, as 4 bytes integers: the magic number "MAZE", the version
+ * of the format, the number of rows, the number of columns, the row and column
+ * of the start location and the row and column of the goal location. The rest
+ * of the header is reserved and set to zero.
+ * 
+ * The obstacle bits follow the header in packed index order (see
+ * {@link Maze#getIndex(int, int)}), borders included, 64 cells per long: bit
+ * index % 64 of long index / 64 is set if the cell with that packed index is an
+ * obstacle. A maze file can therefore be mapped in memory as it is, without any
+ * decoding, by {@link MazeFile#open(Path, boolean)}.
+ * 
+ * @author Rambod Rahmani &lt;rambodrahmani@autistici.org&gt;
+ */
+public class MazeFile
+{
+    /**
+     * The first 4 bytes of a maze file, "MAZE" in ASCII.
+     */
+    public static final int MAGIC	  = 0x455A414D;
+
+    /**
+     * The version of the format written by {@link MazeFile#write(Maze, Path)}.
+     */
+    public static final int VERSION	  = 1;
+
+    /**
+     * The size of the header, the obstacle bits start at this offset.
+     */
+    public static final int HEADER_SIZE	  = 64;
+
+    // offsets of the header fields
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int ROWS_OFFSET  = 8;
+
+    private static final int COLUMNS_OFFSET = 12;
+
+    private static final int START_OFFSET = 16;
+
+    private static final int GOAL_OFFSET  = 24;
+
+    // size of the buffer used to write maze files
+    private static final int BUFFER_SIZE  = 1 << 16;
+
+    /**
+     * @param size
+     *            the number of cells of a maze, borders included.
+     * @return the size of the obstacle bits of the maze, in bytes.
+     */
+    static long getDataSize(int size)
+    {
+	return ((size + 63L) >>> 6) << 3;
+    }
+
+    /**
+     * Writes the header of a maze file at the beginning of a little endian
+     * buffer, without changing its position.
+     * 
+     * @param buffer
+     *            the buffer, of at least HEADER_SIZE bytes.
+     * @param rows
+     *            the number of rows of the maze.
+     * @param columns
+     *            the number of columns of the maze.
+     * @param startLocation
+     *            the start location of the maze.
+     * @param goalLocation
+     *            the goal location of the maze.
+     */
+    static void putHeader(ByteBuffer buffer, int rows, int columns, Location startLocation, Location goalLocation)
+    {
+	for (int i = 0; i < HEADER_SIZE; i += 4)
+	{
+	    buffer.putInt(i, 0);
+	}
+
+	buffer.putInt(MAGIC_OFFSET, MAGIC);
+	buffer.putInt(VERSION_OFFSET, VERSION);
+	buffer.putInt(ROWS_OFFSET, rows);
+	buffer.putInt(COLUMNS_OFFSET, columns);
+	buffer.putInt(START_OFFSET, startLocation.getRow());
+	buffer.putInt(START_OFFSET + 4, startLocation.getColumn());
+	buffer.putInt(GOAL_OFFSET, goalLocation.getRow());
+	buffer.putInt(GOAL_OFFSET + 4, goalLocation.getColumn());
+    }
+
+    /**
+     * Writes a maze to a file. Obstacles are written as set bits, every other cell
+     * (free cells, but also any search depth stored in the maze) as a cleared bit.
+     * 
+     * @param maze
+     *            the maze to write.
+     * @param path
+     *            the file to write, replaced if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public static void write(Maze maze, Path path) throws IOException
+    {
+	ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	putHeader(buffer, maze.getRows(), maze.getColumns(), maze.getStartLocation(), maze.getGoalLocation());
+	buffer.position(HEADER_SIZE);
+
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		StandardOpenOption.TRUNCATE_EXISTING))
+	{
+	    final int size = maze.getSize();
+
+	    for (int index = 0; index < size; index += 64)
+	    {
+		long word = 0L;
+		for (int bit = 0, last = Math.min(64, size - index); bit < last; bit++)
+		{
+		    if (maze.getValueAt(index + bit) == MazeSearchGlobals.OBSTACLE)
+		    {
+			word |= 1L << bit;
+		    }
+		}
+
+		if (buffer.remaining() < 8)
+		{
+		    writeFully(channel, buffer);
+		}
+		buffer.putLong(word);
+	    }
+
+	    writeFully(channel, buffer);
+	}
+    }
+
+    /**
+     * Writes the content of a buffer to a channel and clears the buffer.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+	buffer.flip();
+	while (buffer.hasRemaining())
+	{
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    /**
+     * Opens a maze file by mapping it in memory. Only the header is read: the
+     * pages of the obstacle bits are loaded by the operating system when they are
+     * first accessed, and are shared by every process mapping the same file.
+     * 
+     * @param path
+     *            the maze file.
+     * @param writable
+     *            true to map the file in read-write mode, so that obstacles added
+     *            or removed through {@link Maze#setValue(int, int, short)} are
+     *            written back to the file.
+     * @return the mapped maze.
+     * @throws IOException
+     *             if the file cannot be read or is not a valid maze file.
+     */
+    public static MappedMaze open(Path path, boolean writable) throws IOException
+    {
+	try (FileChannel channel = writable
+		? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+		: FileChannel.open(path, StandardOpenOption.READ))
+	{
+	    if (channel.size() < HEADER_SIZE)
+	    {
+		throw new IOException(path + " is not a maze file: too short.");
+	    }
+
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	    while (header.hasRemaining())
+	    {
+		channel.read(header, header.position());
+	    }
+
+	    if (header.getInt(MAGIC_OFFSET) != MAGIC)
+	    {
+		throw new IOException(path + " is not a maze file: wrong magic number.");
+	    }
+	    if (header.getInt(VERSION_OFFSET) != VERSION)
+	    {
+		throw new IOException(path + ": unsupported maze file version " + header.getInt(VERSION_OFFSET) + ".");
+	    }
+
+	    int rows = header.getInt(ROWS_OFFSET);
+	    int columns = header.getInt(COLUMNS_OFFSET);
+	    Location startLocation = new Location(header.getInt(START_OFFSET), header.getInt(START_OFFSET + 4));
+	    Location goalLocation = new Location(header.getInt(GOAL_OFFSET), header.getInt(GOAL_OFFSET + 4));
+
+	    if (rows < 1 || columns < 1 || isInside(startLocation, rows, columns) == false
+		    || isInside(goalLocation, rows, columns) == false)
+	    {
+		throw new IOException(path + ": invalid maze dimensions or start and goal locations.");
+	    }
+	    if ((rows + 2L) * (columns + 2) > Integer.MAX_VALUE)
+	    {
+		throw new IOException(path + ": a " + rows + "x" + columns
+			+ " maze has too many cells to be addressed by packed indices.");
+	    }
+
+	    long length = HEADER_SIZE + getDataSize((rows + 2) * (columns + 2));
+	    if (channel.size() < length)
+	    {
+		throw new IOException(path + " is truncated: " + channel.size() + " bytes instead of " + length + ".");
+	    }
+
+	    MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE
+		    : FileChannel.MapMode.READ_ONLY, 0, length);
+	    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+	    return new MappedMaze(rows, columns, startLocation, goalLocation, buffer);
+	}
+    }
+
+    /**
+     * @return true if the location is inside a maze with the given dimensions.
+     */
+    private static boolean isInside(Location location, int rows, int columns)
+    {
+	return location.getRow() >= 0 && location.getRow() < rows && location.getColumn() >= 0
+		&& location.getColumn() < columns;
+    }
+
+    /**
+     * Developer test harness. Generates a maze, writes it to a temporary file,
+     * maps the file back and checks that both mazes have the same cells and the
+     * same shortest path from the start to the goal.
+     * 
+     * @param args
+     *            the number of rows, the number of columns and the obstacle
+     *            density.
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+	int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+	int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+	double density = args.length > 2 ? Double.parseDouble(args[2]) : 0.2;
+
+	Maze maze = new MazeGenerator(42L, density).generate(rows, columns);
+	Path path = File.createTempFile("maze", ".bin").toPath();
+
+	try
+	{
+	    long startTime = System.nanoTime();
+	    write(maze, path);
+	    long writeTime = System.nanoTime() - startTime;
+
+	    startTime = System.nanoTime();
+	    MappedMaze mapped = open(path, false);
+	    long openTime = System.nanoTime() - startTime;
+
+	    System.out.println(rows + "x" + columns + " maze written in " + writeTime / 1000000 + " ms ("
+		    + path.toFile().length() + " bytes), mapped in " + openTime / 1000 + " us.");
+
+	    for (int index = 0; index < maze.getSize(); index++)
+	    {
+		if (maze.getValueAt(index) != mapped.getValueAt(index))
+		{
+		    throw new IllegalStateException("Mazes differ at location " + maze.getRow(index) + ", "
+			    + maze.getColumn(index) + ".");
+		}
+	    }
+
+	    BreadthFirstSearchEngine inMemory = new BreadthFirstSearchEngine(maze);
+	    inMemory.search();
+	    BreadthFirstSearchEngine fromFile = new BreadthFirstSearchEngine(mapped);
+	    startTime = System.nanoTime();
+	    fromFile.search();
+	    long searchTime = System.nanoTime() - startTime;
+
+	    if (inMemory.getMaxDepth() != fromFile.getMaxDepth())
+	    {
+		throw new IllegalStateException("Different path lengths.");
+	    }
+
+	    System.out.println("Identical cells, path length " + fromFile.getMaxDepth() + " found in "
+		    + searchTime / 1000000 + " ms on the mapped maze: OK.");
+	}
+	finally
+	{
+	    path.toFile().delete();
+	}
+    }
+}